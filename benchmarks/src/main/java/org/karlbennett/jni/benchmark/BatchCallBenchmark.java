@@ -0,0 +1,88 @@
+package org.karlbennett.jni.benchmark;
+
+import org.karlbennett.jni.JniUtils;
+import org.karlbennett.jni.NativeBatch;
+import org.karlbennett.jni.test.JniTestBatch;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Measures running a number of operations through {@link NativeBatch} against running them one native call at a time, with each call
+ * returning a new string in the same way as {@link JniCallBenchmark}. Each score is for all of the operations, divide it by
+ * <code>operations</code> for the cost of one.
+ * <p/>
+ * The batched benchmark should allocate nothing, however many operations it runs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchCallBenchmark {
+
+    @Param({"1", "16", "256"})
+    public int operations;
+
+    private File fsDir;
+
+    private NativeBatch batch;
+
+    private NativeBatch.Processor processor;
+
+
+    @Setup
+    public void setup() throws IOException {
+
+        fsDir = BenchmarkFiles.createTempDir("batch-call-benchmark");
+
+        JniUtils.loadNativeLibrary(BenchmarkFiles.LIB_DIR, fsDir.getPath(), BenchmarkFiles.TEST_BATCH_NAME);
+
+        batch = new NativeBatch(operations);
+
+        processor = new NativeBatch.Processor() {
+
+            public int process(ByteBuffer requests, ByteBuffer results, int count) {
+
+                return JniTestBatch.process(requests, results, count);
+            }
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        BenchmarkFiles.delete(fsDir);
+    }
+
+    @Benchmark
+    public long stringPerCall() {
+
+        long total = 0;
+
+        for (int i = 0; i < operations; i++) total += Long.parseLong(JniTestBatch.nativeMethod(JniTestBatch.ADD, i, i));
+
+        return total;
+    }
+
+    @Benchmark
+    public long batched() {
+
+        for (int i = 0; i < operations; i++) batch.add(JniTestBatch.ADD, i, i);
+
+        batch.flush(processor);
+
+        long total = 0;
+
+        for (int i = 0; i < operations; i++) total += batch.getResult(i);
+
+        return total;
+    }
+}
@@ -0,0 +1,137 @@
+package org.karlbennett.jni.benchmark;
+
+import org.karlbennett.jni.JniUtils;
+
+import java.io.*;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * The names of the native test fixtures that are built by <code>src/test/native/Makefile</code> along with helpers for creating the
+ * files that the benchmarks need.
+ */
+final class BenchmarkFiles {
+
+    /**
+     * The directory in the test JAR that holds the libraries for <code>JniTestClassTwo</code>, <code>JniTestClassThree</code> and
+     * <code>JniTestBatch</code>.
+     */
+    static final String LIB_DIR = JniUtils.DEFAULT_NATIVE_LIBRARY_JAR_DIR;
+
+    /**
+     * The directory in the test JAR that holds the library for <code>JniTestClassOne</code>.
+     */
+    static final String OTHER_LIB_DIR = "other-lib/";
+
+    static final String TEST_CLASS_ONE_NAME = "JniTestClassOne";
+
+    static final String TEST_CLASS_TWO_NAME = "JniTestClassTwo";
+
+    static final String TEST_BATCH_NAME = "JniTestBatch";
+
+
+    /**
+     * This class only contains static methods so should never be instantiated.
+     */
+    private BenchmarkFiles() {
+    }
+
+
+    /**
+     * Create a new empty directory within the temp directory.
+     *
+     * @param prefix - the start of the name of the directory.
+     * @return the directory.
+     * @throws IOException if the directory could not be created.
+     */
+    static File createTempDir(String prefix) throws IOException {
+
+        File dir = File.createTempFile(prefix, "");
+
+        if (!dir.delete() || !dir.mkdirs()) throw new IOException("Could not create benchmark directory: " + dir);
+
+        return dir;
+    }
+
+    /**
+     * Delete the provided file, or directory and everything within it.
+     *
+     * @param file - the file to delete.
+     */
+    static void delete(File file) {
+
+        File[] children = file.listFiles();
+
+        if (children != null) for (File child : children) delete(child);
+
+        if (file.exists() && !file.delete()) System.err.println("Could not clean up: " + file);
+    }
+
+    /**
+     * Write a file that compresses about as well as a real native library.
+     *
+     * @param file - the file to write, its parent directories are created if they don't exist.
+     * @param size - the size of the file in bytes.
+     * @throws IOException if the file could not be written.
+     */
+    static void writeLibrary(File file, int size) throws IOException {
+
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) throw new IOException(
+                "Could not create benchmark directory: " + file.getParentFile());
+
+        // Half random and half zeros so that the jar entry compresses about as well as a real library.
+        byte[] bytes = new byte[size];
+        new Random(0).nextBytes(bytes);
+        for (int i = 0; i < size; i += 2) bytes[i] = 0;
+
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+
+            out.write(bytes);
+
+        } finally {
+
+            out.close();
+        }
+    }
+
+    /**
+     * Write a JAR that holds a single file.
+     *
+     * @param jar       - the JAR file to write.
+     * @param entryName - the name of the file within the JAR.
+     * @param content   - the file to put in the JAR.
+     * @throws IOException if the JAR could not be written.
+     */
+    static void writeJar(File jar, String entryName, File content) throws IOException {
+
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+
+        try {
+
+            out.putNextEntry(new JarEntry(entryName));
+
+            InputStream in = new FileInputStream(content);
+
+            try {
+
+                JniUtils.writeFile(in, out);
+
+            } finally {
+
+                in.close();
+            }
+
+            out.closeEntry();
+
+        } finally {
+
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.karlbennett.jni.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * The entry point of the benchmark JAR. This takes the same arguments as the normal JMH main class but always adds the GC profiler so that
+ * the allocation rate of every benchmark is reported next to its score, see the <code>gc.alloc.rate.norm</code> rows for the bytes that
+ * are allocated per operation.
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,96 @@
+package org.karlbennett.jni.benchmark;
+
+import org.karlbennett.jni.JniUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Measures {@link JniUtils#extractNativeLibrary(String, String, String)} for native libraries of different sizes that are either plain
+ * files on the class path or entries in a JAR, with and without the extraction cache turned on.
+ * <p/>
+ * The throughput in bytes per second is the <code>size</code> parameter divided by the score.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ExtractionBenchmark {
+
+    private static final String JAR_DIR = "benchmark-lib/";
+
+    private static final String LIB_NAME = "benchmark";
+
+    @Param({"65536", "1048576", "16777216"})
+    public int size;
+
+    @Param({"file", "jar"})
+    public String source;
+
+    @Param({"false", "true"})
+    public boolean cache;
+
+    private File dir;
+
+    private File fsDir;
+
+    private URLClassLoader classLoader;
+
+    private ClassLoader oldClassLoader;
+
+
+    @Setup
+    public void setup() throws IOException {
+
+        dir = BenchmarkFiles.createTempDir("jni-extraction-benchmark");
+        fsDir = new File(dir, "extracted");
+
+        File classes = new File(dir, "classes");
+        File library = new File(classes, JAR_DIR + System.mapLibraryName(LIB_NAME));
+
+        BenchmarkFiles.writeLibrary(library, size);
+
+        URL root = classes.toURI().toURL();
+
+        if ("jar".equals(source)) {
+
+            File jar = new File(dir, "benchmark.jar");
+            BenchmarkFiles.writeJar(jar, JAR_DIR + library.getName(), library);
+
+            root = jar.toURI().toURL();
+        }
+
+        // The native library is found through the context class loader so point it at the class path entry being measured.
+        classLoader = new URLClassLoader(new URL[]{root}, getClass().getClassLoader());
+        oldClassLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(classLoader);
+
+        System.setProperty(JniUtils.NATIVE_LIBRARY_CACHE_PROPERTY, String.valueOf(cache));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+
+        System.clearProperty(JniUtils.NATIVE_LIBRARY_CACHE_PROPERTY);
+
+        Thread.currentThread().setContextClassLoader(oldClassLoader);
+        classLoader.close();
+
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    public File extract() {
+
+        return JniUtils.extractNativeLibrary(JAR_DIR, fsDir.getPath(), LIB_NAME);
+    }
+}
@@ -0,0 +1,69 @@
+package org.karlbennett.jni.benchmark;
+
+import org.karlbennett.jni.JniUtils;
+import org.karlbennett.jni.test.JniTestClassOne;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Measures the cost of a single call to {@link JniTestClassOne#nativeMethod()} against a Java method that does the same work, the
+ * difference between the two is the overhead of crossing into native code and back.
+ * <p/>
+ * Both methods create a new string on every call so their allocation rates should match, anything extra in the native call is allocated by
+ * the JNI transition itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JniCallBenchmark {
+
+    private static final char[] TEST_STRING_ONE = "Test string from native JniTestClassOne.".toCharArray();
+
+    private File fsDir;
+
+
+    @Setup
+    public void setup() throws IOException {
+
+        fsDir = BenchmarkFiles.createTempDir("jni-call-benchmark");
+
+        JniUtils.loadNativeLibrary(BenchmarkFiles.OTHER_LIB_DIR, fsDir.getPath(), BenchmarkFiles.TEST_CLASS_ONE_NAME);
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        BenchmarkFiles.delete(fsDir);
+    }
+
+    @Benchmark
+    public String nativeMethod() {
+
+        return JniTestClassOne.nativeMethod();
+    }
+
+    @Benchmark
+    public String javaMethod() {
+
+        return javaString();
+    }
+
+
+    /**
+     * The Java equivalent of the native method, it isn't inlined so that it is still a real call.
+     */
+    @CompilerControl(CompilerControl.Mode.DONT_INLINE)
+    private static String javaString() {
+
+        return new String(TEST_STRING_ONE);
+    }
+}
@@ -0,0 +1,65 @@
+package org.karlbennett.jni.benchmark;
+
+import org.karlbennett.jni.JniUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Measures repeated calls to {@link JniUtils#loadNativeLibrary(String, String, String)} for a native library that has already been loaded,
+ * which is what every class with native methods pays in its static initialiser after the first.
+ * <p/>
+ * The native library is loaded once before the measurement starts because a library can only really be loaded once per JVM.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+    private File fsDir;
+
+    private String fileName;
+
+
+    @Setup
+    public void setup() throws IOException {
+
+        fsDir = BenchmarkFiles.createTempDir("jni-load-benchmark");
+        fileName = System.mapLibraryName(BenchmarkFiles.TEST_CLASS_ONE_NAME);
+
+        JniUtils.loadNativeLibrary(BenchmarkFiles.OTHER_LIB_DIR, fsDir.getPath(), BenchmarkFiles.TEST_CLASS_ONE_NAME);
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        BenchmarkFiles.delete(fsDir);
+    }
+
+    @Benchmark
+    public void loadNativeLibrary() {
+
+        JniUtils.loadNativeLibrary(BenchmarkFiles.OTHER_LIB_DIR, fsDir.getPath(), BenchmarkFiles.TEST_CLASS_ONE_NAME);
+    }
+
+    @Benchmark
+    public void loadNativeLibraryByFileName() {
+
+        JniUtils.loadNativeLibrary(BenchmarkFiles.OTHER_LIB_DIR, fsDir.getPath(), fileName);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void loadNativeLibraryContended() {
+
+        JniUtils.loadNativeLibrary(BenchmarkFiles.OTHER_LIB_DIR, fsDir.getPath(), BenchmarkFiles.TEST_CLASS_ONE_NAME);
+    }
+}
@@ -0,0 +1,52 @@
+package org.karlbennett.jni.benchmark;
+
+import org.karlbennett.jni.JniUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Measures {@link JniUtils#findNativeLibraryName(String, String)} for a simple name, a full file name and a name that doesn't exist.
+ * <p/>
+ * The cold benchmark throws away the native library directory index before every search so it includes indexing the directory, the warm
+ * benchmark is the cost of every search after the first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResolutionBenchmark {
+
+    @Param({"simple", "full", "missing"})
+    public String name;
+
+    private String libName;
+
+
+    @Setup
+    public void setup() {
+
+        if ("simple".equals(name)) libName = BenchmarkFiles.TEST_CLASS_TWO_NAME;
+        else if ("full".equals(name)) libName = System.mapLibraryName(BenchmarkFiles.TEST_CLASS_TWO_NAME);
+        else libName = "this lib should not exist";
+    }
+
+    @Benchmark
+    public String cold() {
+
+        JniUtils.invalidateNativeLibraryIndex();
+
+        return JniUtils.findNativeLibraryName(BenchmarkFiles.LIB_DIR, libName);
+    }
+
+    @Benchmark
+    public String warm() {
+
+        return JniUtils.findNativeLibraryName(BenchmarkFiles.LIB_DIR, libName);
+    }
+}
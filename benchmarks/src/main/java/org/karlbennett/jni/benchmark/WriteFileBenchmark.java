@@ -0,0 +1,133 @@
+package org.karlbennett.jni.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import static org.karlbennett.jni.JniUtils.writeFile;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Compares the stream and channel versions of {@link org.karlbennett.jni.JniUtils#writeFile} when copying from a plain file and from a
+ * JAR entry, which are the two places that a native library is extracted from.
+ * <p/>
+ * The throughput in bytes per second is the <code>size</code> parameter divided by the score.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WriteFileBenchmark {
+
+    private static final String ENTRY_NAME = "lib/libbenchmark.so";
+
+    @Param({"1048576", "41943040"})
+    public int size;
+
+    private File dir;
+
+    private File in;
+
+    private URL jarIn;
+
+    private File out;
+
+
+    @Setup
+    public void setup() throws IOException {
+
+        dir = BenchmarkFiles.createTempDir("jni-write-file-benchmark");
+
+        in = new File(dir, "in.so");
+        out = new File(dir, "out.so");
+
+        BenchmarkFiles.writeLibrary(in, size);
+
+        File jar = new File(dir, "in.jar");
+        BenchmarkFiles.writeJar(jar, ENTRY_NAME, in);
+
+        jarIn = new URL("jar:" + jar.toURI().toURL() + "!/" + ENTRY_NAME);
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    public void fileStream() throws IOException {
+
+        InputStream inStream = new FileInputStream(in);
+        OutputStream outStream = new FileOutputStream(out);
+
+        try {
+
+            writeFile(inStream, outStream);
+
+        } finally {
+
+            inStream.close();
+            outStream.close();
+        }
+    }
+
+    @Benchmark
+    public long fileChannel() throws IOException {
+
+        FileChannel inChannel = new FileInputStream(in).getChannel();
+        FileChannel outChannel = new FileOutputStream(out).getChannel();
+
+        try {
+
+            return writeFile(inChannel, outChannel);
+
+        } finally {
+
+            inChannel.close();
+            outChannel.close();
+        }
+    }
+
+    @Benchmark
+    public void jarStream() throws IOException {
+
+        InputStream inStream = jarIn.openStream();
+        OutputStream outStream = new FileOutputStream(out);
+
+        try {
+
+            writeFile(inStream, outStream);
+
+        } finally {
+
+            inStream.close();
+            outStream.close();
+        }
+    }
+
+    @Benchmark
+    public long jarChannel() throws IOException {
+
+        InputStream inStream = jarIn.openStream();
+        FileChannel outChannel = new FileOutputStream(out).getChannel();
+
+        try {
+
+            return writeFile(Channels.newChannel(inStream), outChannel);
+
+        } finally {
+
+            inStream.close();
+            outChannel.close();
+        }
+    }
+}
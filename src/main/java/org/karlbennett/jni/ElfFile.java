@@ -0,0 +1,383 @@
+package org.karlbennett.jni;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * A minimal reader for ELF shared objects, the native library format used by Linux and most other Unix like systems.
+ * <p/>
+ * Only the dynamic segment is read, this is where a shared object lists the other shared objects it needs (the <code>DT_NEEDED</code>
+ * entries) and its own shared object name (the <code>DT_SONAME</code> entry). It is found through the program headers in the same way as the
+ * dynamic loader finds it, so it can still be read once the section headers have been stripped. The dynamic symbol table can also be read to
+ * find the symbols that the shared object exports, which does need the section headers. Both 32 and 64 bit files of either byte order are
+ * supported. The file is read with positional reads so only the headers and the parts that are asked for are ever pulled off the disk, and
+ * every part is checked against the size of the file before it is read.
+ */
+final class ElfFile {
+
+    private static final byte[] ELF_MAGIC = {0x7f, 'E', 'L', 'F'};
+
+    private static final int EI_CLASS = 4;
+
+    private static final int EI_DATA = 5;
+
+    private static final int ELFCLASS64 = 2;
+
+    private static final int ELFDATA2MSB = 2;
+
+    private static final int PT_LOAD = 1;
+
+    private static final int PT_DYNAMIC = 2;
+
+    private static final int SHT_DYNSYM = 11;
+
+    private static final int SHN_UNDEF = 0;
+
+    private static final int STB_GLOBAL = 1;
+
+    private static final int STB_WEAK = 2;
+
+    private static final int STV_DEFAULT = 0;
+
+    private static final int STV_PROTECTED = 3;
+
+    private static final long DT_NULL = 0;
+
+    private static final long DT_NEEDED = 1;
+
+    private static final long DT_STRTAB = 5;
+
+    private static final long DT_STRSZ = 10;
+
+    private static final long DT_SONAME = 14;
+
+
+    private final List<String> needed;
+
+    private final String soname;
+
+    private final Set<String> exported;
+
+
+    private ElfFile(List<String> needed, String soname, Set<String> exported) {
+
+        this.needed = needed;
+        this.soname = soname;
+        this.exported = exported;
+    }
+
+
+    /**
+     * Read the dynamic segment of the provided file.
+     *
+     * @param file - the shared object file.
+     * @return the ELF file or null if the file isn't an ELF file.
+     * @throws IOException if the file could not be read or is a broken ELF file.
+     */
+    static ElfFile read(File file) throws IOException {
+
+        return read(file, false);
+    }
+
+    /**
+     * Read the dynamic segment and optionally the dynamic symbol table of the provided file.
+     *
+     * @param file    - the shared object file.
+     * @param symbols - whether or not to read the dynamic symbol table as well.
+     * @return the ELF file or null if the file isn't an ELF file.
+     * @throws IOException if the file could not be read or is a broken ELF file.
+     */
+    static ElfFile read(File file, boolean symbols) throws IOException {
+
+        RandomAccessFile access = new RandomAccessFile(file, "r");
+
+        try {
+
+            FileChannel channel = access.getChannel();
+
+            final int IDENT_SIZE = 16;
+
+            // Anything too small to hold the ELF identification bytes can't be an ELF file.
+            if (channel.size() < IDENT_SIZE) return null;
+
+            ByteBuffer ident = read(channel, 0, IDENT_SIZE, ByteOrder.LITTLE_ENDIAN);
+
+            for (int i = 0; i < ELF_MAGIC.length; i++) if (ident.get(i) != ELF_MAGIC[i]) return null;
+
+            boolean is64 = ident.get(EI_CLASS) == ELFCLASS64;
+            ByteOrder order = ident.get(EI_DATA) == ELFDATA2MSB ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+            // The program header and section header table locations from the ELF header.
+            ByteBuffer header = read(channel, 0, is64 ? 64 : 52, order);
+            long phoff = is64 ? header.getLong(0x20) : header.getInt(0x1C) & 0xFFFFFFFFL;
+            int phentsize = header.getShort(is64 ? 0x36 : 0x2A) & 0xFFFF;
+            int phnum = header.getShort(is64 ? 0x38 : 0x2C) & 0xFFFF;
+            long shoff = is64 ? header.getLong(0x28) : header.getInt(0x20) & 0xFFFFFFFFL;
+            int shentsize = header.getShort(is64 ? 0x3A : 0x2E) & 0xFFFF;
+            int shnum = header.getShort(is64 ? 0x3C : 0x30) & 0xFFFF;
+
+            // A file without a dynamic segment doesn't need anything, but what it exports is unknown unless a symbol table is found.
+            List<String> needed = Collections.emptyList();
+            String soname = null;
+            Set<String> exported = null;
+
+            if (phoff != 0 && phnum != 0) {
+
+                ByteBuffer segments = read(channel, phoff, (long) phentsize * phnum, order);
+
+                List<Segment> loads = new ArrayList<Segment>();
+                Segment dynamic = null;
+
+                for (int i = 0; i < phnum; i++) {
+
+                    Segment segment = new Segment(segments, i * phentsize, is64);
+
+                    if (segment.type == PT_LOAD) loads.add(segment);
+                    else if (segment.type == PT_DYNAMIC) dynamic = segment;
+                }
+
+                if (dynamic != null) {
+
+                    ByteBuffer entries = read(channel, dynamic.offset, dynamic.fileSize, order);
+
+                    int entrySize = is64 ? 16 : 8;
+
+                    List<Long> neededNames = new ArrayList<Long>();
+                    long sonameName = -1;
+                    long strtab = -1;
+                    long strsz = -1;
+
+                    for (int offset = 0; offset + entrySize <= entries.limit(); offset += entrySize) {
+
+                        long tag = is64 ? entries.getLong(offset) : entries.getInt(offset);
+                        long value = is64 ? entries.getLong(offset + 8) : entries.getInt(offset + 4) & 0xFFFFFFFFL;
+
+                        if (tag == DT_NULL) break;
+                        if (tag == DT_NEEDED) neededNames.add(value);
+                        if (tag == DT_SONAME) sonameName = value;
+                        if (tag == DT_STRTAB) strtab = value;
+                        if (tag == DT_STRSZ) strsz = value;
+                    }
+
+                    if (!neededNames.isEmpty() || sonameName >= 0) {
+
+                        // The string table is given as a memory address, which is mapped back to the file through the loadable segments.
+                        long strtabOffset = fileOffset(loads, strtab);
+
+                        if (strtabOffset < 0 || strsz < 0) throw new IOException("Broken ELF file, no dynamic string table: " + file);
+
+                        ByteBuffer stringTable = read(channel, strtabOffset, strsz, order);
+
+                        needed = new ArrayList<String>(neededNames.size());
+
+                        for (long name : neededNames) needed.add(string(stringTable, name));
+
+                        needed = Collections.unmodifiableList(needed);
+
+                        if (sonameName >= 0) soname = string(stringTable, sonameName);
+                    }
+                }
+            }
+
+            if (symbols && shoff != 0 && shnum != 0) {
+
+                ByteBuffer sections = read(channel, shoff, (long) shentsize * shnum, order);
+
+                for (int i = 0; i < shnum; i++) {
+
+                    Section section = new Section(sections, i * shentsize, is64);
+
+                    if (section.type != SHT_DYNSYM) continue;
+
+                    if (section.link < 0 || section.link >= shnum) throw new IOException("Broken ELF file, bad string table link: " + file);
+
+                    // The symbol table links to the string table that the symbol names are stored in.
+                    Section strings = new Section(sections, section.link * shentsize, is64);
+                    ByteBuffer stringTable = read(channel, strings.offset, strings.size, order);
+
+                    ByteBuffer entries = read(channel, section.offset, section.size, order);
+
+                    exported = Collections.unmodifiableSet(readExported(entries, stringTable, is64));
+                }
+            }
+
+            return new ElfFile(needed, soname, exported);
+
+        } catch (IndexOutOfBoundsException e) {
+
+            throw new IOException("Broken ELF file: " + file);
+
+        } finally {
+
+            access.close();
+        }
+    }
+
+    /**
+     * Convenience method that returns the <code>DT_NEEDED</code> entries of the provided file.
+     *
+     * @param file - the shared object file.
+     * @return the names of the shared objects the file needs, this is empty if the file isn't an ELF file.
+     * @throws IOException if the file could not be read or is a broken ELF file.
+     */
+    static List<String> readNeeded(File file) throws IOException {
+
+        ElfFile elf = read(file);
+
+        return elf == null ? Collections.<String>emptyList() : elf.getNeeded();
+    }
+
+
+    /**
+     * @return the names of the shared objects that this shared object needs, in the order that they're listed.
+     */
+    List<String> getNeeded() {
+        return needed;
+    }
+
+    /**
+     * @return the shared object name of this shared object or null if it doesn't have one.
+     */
+    String getSoname() {
+        return soname;
+    }
+
+    /**
+     * @return the names of the symbols that this shared object defines and that can be looked up from outside of it, or null if they aren't
+     *         known because the file wasn't read with its symbols or its dynamic symbol table couldn't be found, e.g. the section headers
+     *         have been stripped.
+     */
+    Set<String> getExported() {
+        return exported;
+    }
+
+
+    /**
+     * Read the names of the defined global symbols with default or protected visibility from the provided dynamic symbol table.
+     */
+    private static Set<String> readExported(ByteBuffer symbols, ByteBuffer stringTable, boolean is64) {
+
+        int entrySize = is64 ? 24 : 16;
+
+        Set<String> exported = new HashSet<String>();
+
+        // The first symbol is always the undefined symbol.
+        for (int offset = entrySize; offset + entrySize <= symbols.limit(); offset += entrySize) {
+
+            int name = symbols.getInt(offset);
+            int info = symbols.get(offset + (is64 ? 4 : 12)) & 0xFF;
+            int other = symbols.get(offset + (is64 ? 5 : 13)) & 0xFF;
+            int shndx = symbols.getShort(offset + (is64 ? 6 : 14)) & 0xFFFF;
+
+            int binding = info >> 4;
+            int visibility = other & 0x3;
+
+            if (shndx == SHN_UNDEF || (binding != STB_GLOBAL && binding != STB_WEAK)) continue;
+            if (visibility != STV_DEFAULT && visibility != STV_PROTECTED) continue;
+
+            exported.add(string(stringTable, name));
+        }
+
+        return exported;
+    }
+
+
+    /**
+     * Returns the position in the file of the provided memory address, or -1 if none of the provided loadable segments hold it.
+     */
+    private static long fileOffset(List<Segment> loads, long address) {
+
+        for (Segment load : loads) {
+
+            if (address >= load.address && address - load.address < load.fileSize) return load.offset + (address - load.address);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Read part of the file, failing if the part isn't within the file so that a broken header can never cause a huge allocation.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, long size, ByteOrder order) throws IOException {
+
+        if (position < 0 || size < 0 || size > channel.size() - position) throw new IOException(
+                "Broken ELF file, " + size + " bytes at " + position + " is outside of the file");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(order);
+
+        while (buffer.hasRemaining()) {
+
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Unexpected end of ELF file");
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static String string(ByteBuffer table, long offset) {
+
+        StringBuilder string = new StringBuilder();
+
+        // An offset outside of the table fails in the same way as a string that runs off the end of it.
+        if (offset < 0 || offset > Integer.MAX_VALUE) throw new IndexOutOfBoundsException("String offset: " + offset);
+
+        for (int i = (int) offset; table.get(i) != 0; i++) string.append((char) (table.get(i) & 0xFF));
+
+        return string.toString();
+    }
+
+
+    /**
+     * The parts of a program header that are needed to find the dynamic segment and map memory addresses back to the file.
+     */
+    private static final class Segment {
+
+        final int type;
+
+        final long offset;
+
+        final long address;
+
+        final long fileSize;
+
+        Segment(ByteBuffer headers, int start, boolean is64) {
+
+            type = headers.getInt(start);
+            offset = is64 ? headers.getLong(start + 0x08) : headers.getInt(start + 0x04) & 0xFFFFFFFFL;
+            address = is64 ? headers.getLong(start + 0x10) : headers.getInt(start + 0x08) & 0xFFFFFFFFL;
+            fileSize = is64 ? headers.getLong(start + 0x20) : headers.getInt(start + 0x10) & 0xFFFFFFFFL;
+        }
+    }
+
+    /**
+     * The parts of a section header that are needed to find the dynamic symbol table.
+     */
+    private static final class Section {
+
+        final int type;
+
+        final long offset;
+
+        final long size;
+
+        final int link;
+
+        Section(ByteBuffer headers, int start, boolean is64) {
+
+            type = headers.getInt(start + 4);
+            offset = is64 ? headers.getLong(start + 0x18) : headers.getInt(start + 0x10) & 0xFFFFFFFFL;
+            size = is64 ? headers.getLong(start + 0x20) : headers.getInt(start + 0x14) & 0xFFFFFFFFL;
+            link = headers.getInt(start + (is64 ? 0x28 : 0x18));
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package org.karlbennett.jni;
+
+import java.io.*;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Keeps track of which native library files have already been extracted to the local file system so that they can be reused instead of being
+ * extracted again.
+ * <p/>
+ * Every extracted file is given a sidecar file (<code>"libnative.so.sha256"</code>) that records the CRC and size of the class path resource
+ * it was extracted from along with the size and SHA-256 hash of the extracted file. An extracted file is only considered current if the
+ * sidecar exists, the recorded CRC and size match the class path resource and the extracted file is still the recorded size. None of these
+ * checks require the extracted file to be read.
+ * <p/>
+ * If the class path resource is listed in a {@link NativeLibraryManifest} then its SHA-256 hash and size are taken from the manifest instead,
+ * which means the class path resource doesn't need to be opened either. A class path resource that is a plain file is keyed by its size and
+ * modified time rather than its CRC, so that it doesn't have to be read just to find out that nothing has changed.
+ */
+final class ExtractionCache {
+
+    /**
+     * The suffix that is appended to the name of an extracted file to create the name of its sidecar file.
+     */
+    static final String SIDECAR_SUFFIX = ".sha256";
+
+    /**
+     * The name of the hash algorithm used to fingerprint the extracted files.
+     */
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private static final String SHA256_PROPERTY = "sha256";
+
+    private static final String SIZE_PROPERTY = "size";
+
+    private static final String SOURCE_CRC_PROPERTY = "source.crc";
+
+    private static final String SOURCE_SIZE_PROPERTY = "source.size";
+
+    private static final String SOURCE_SHA256_PROPERTY = "source.sha256";
+
+    private static final String SOURCE_MODIFIED_PROPERTY = "source.modified";
+
+
+    /**
+     * The CRC, SHA-256 hash or modified time and the size of a class path resource, this is what an extracted file is keyed by.
+     */
+    static final class Key {
+
+        /**
+         * The CRC of the resource or -1 if it isn't known.
+         */
+        final long crc;
+
+        final long size;
+
+        /**
+         * The hex encoded SHA-256 hash of the resource or null if it isn't known.
+         */
+        final String sha256;
+
+        /**
+         * The modified time of the resource file or -1 if it isn't known.
+         */
+        final long modified;
+
+        Key(long crc, long size, String sha256) {
+
+            this(crc, size, sha256, -1);
+        }
+
+        Key(long crc, long size, String sha256, long modified) {
+
+            this.crc = crc;
+            this.size = size;
+            this.sha256 = sha256;
+            this.modified = modified;
+        }
+    }
+
+
+    /**
+     * This class only contains static methods so should never be instantiated.
+     */
+    private ExtractionCache() {
+    }
+
+
+    /**
+     * Create the key for the provided class path resource.
+     * <p/>
+     * If the resource is listed in a manifest then the key is taken from the manifest. If the resource is a file then its size and modified
+     * time are used and if it is within a JAR file then the CRC and size are taken straight from the zip entry. Only when none of these are
+     * known does the resource have to be read to calculate them.
+     *
+     * @param resource - the URL of the native library on the class path.
+     * @param entry    - the manifest entry for the resource, this can be null.
+     * @return the key of the resource.
+     * @throws IOException if the resource could not be read.
+     */
+    static Key key(URL resource, NativeLibraryManifest.Entry entry) throws IOException {
+
+        if (entry != null && entry.getSha256() != null) return new Key(-1, entry.getSize(), entry.getSha256());
+
+        // The file system already knows when a file last changed, which is enough to tell that an extracted copy is still current.
+        if ("file".equals(resource.getProtocol())) {
+
+            File file = JniUtils.toFile(resource);
+            long modified = file.lastModified();
+
+            if (modified != 0 && file.isFile()) return new Key(-1, file.length(), null, modified);
+        }
+
+        URLConnection connection = resource.openConnection();
+
+        // A JAR entry already knows its own CRC and size so there is no need to read it.
+        if (connection instanceof JarURLConnection) {
+
+            JarEntry jarEntry = ((JarURLConnection) connection).getJarEntry();
+
+            if (jarEntry != null && jarEntry.getCrc() != -1 && jarEntry.getSize() != -1) {
+
+                return new Key(jarEntry.getCrc(), jarEntry.getSize(), null);
+            }
+        }
+
+        // As does an entry in a bundle.
+        if (connection instanceof NativeLibraryBundle.EntryConnection) {
+
+            NativeLibraryBundle.Entry bundleEntry = ((NativeLibraryBundle.EntryConnection) connection).getEntry();
+
+            return new Key(bundleEntry.getCrc() & 0xFFFFFFFFL, bundleEntry.getLength(), null);
+        }
+
+        InputStream in = connection.getInputStream();
+
+        try {
+
+            final int ARRAY_SIZE = 64 * 1024; // Size of the input read buffer.
+
+            CRC32 crc = new CRC32();
+            long size = 0;
+
+            int bytesRead;
+            byte[] bytes = new byte[ARRAY_SIZE];
+
+            while ((bytesRead = in.read(bytes)) > 0) {
+
+                crc.update(bytes, 0, bytesRead);
+                size += bytesRead;
+            }
+
+            return new Key(crc.getValue(), size, null);
+
+        } finally {
+
+            in.close();
+        }
+    }
+
+    /**
+     * Check to see if the provided extracted file is a current copy of the resource with the provided key.
+     *
+     * @param target - the extracted native library file.
+     * @param key    - the key of the class path resource the file should have been extracted from.
+     * @return true if the extracted file can be reused, otherwise false.
+     */
+    static boolean isCurrent(File target, Key key) {
+
+        if (!target.isFile()) return false;
+
+        Properties sidecar = read(target);
+
+        if (sidecar == null) return false;
+
+        try {
+
+            // Everything that is known about the resource has to match what was recorded when the file was extracted.
+            if (key.crc != -1 && !Long.toHexString(key.crc).equals(sidecar.getProperty(SOURCE_CRC_PROPERTY))) return false;
+            if (key.sha256 != null && !key.sha256.equalsIgnoreCase(sidecar.getProperty(SOURCE_SHA256_PROPERTY))) return false;
+            if (key.modified != -1 && !Long.toHexString(key.modified).equals(sidecar.getProperty(SOURCE_MODIFIED_PROPERTY))) return false;
+
+            return key.size == Long.parseLong(sidecar.getProperty(SOURCE_SIZE_PROPERTY))
+                    && target.length() == Long.parseLong(sidecar.getProperty(SIZE_PROPERTY));
+
+        } catch (NumberFormatException e) {
+
+            // A sidecar that can't be parsed is as good as no sidecar at all.
+            return false;
+        }
+    }
+
+    /**
+     * Record that the provided target file has been extracted from the resource with the provided key.
+     *
+     * @param target - the extracted native library file.
+     * @param key    - the key of the class path resource the file was extracted from.
+     * @param sha256 - the SHA-256 hash of the extracted file.
+     * @throws IOException if the sidecar file could not be written.
+     */
+    static void record(File target, Key key, byte[] sha256) throws IOException {
+
+        Properties sidecar = new Properties();
+        sidecar.setProperty(SHA256_PROPERTY, toHex(sha256));
+        sidecar.setProperty(SIZE_PROPERTY, String.valueOf(target.length()));
+        if (key.crc != -1) sidecar.setProperty(SOURCE_CRC_PROPERTY, Long.toHexString(key.crc));
+        if (key.sha256 != null) sidecar.setProperty(SOURCE_SHA256_PROPERTY, key.sha256);
+        if (key.modified != -1) sidecar.setProperty(SOURCE_MODIFIED_PROPERTY, Long.toHexString(key.modified));
+        sidecar.setProperty(SOURCE_SIZE_PROPERTY, String.valueOf(key.size));
+
+        OutputStream out = new FileOutputStream(sidecarFile(target));
+
+        try {
+
+            sidecar.store(out, null);
+
+        } finally {
+
+            out.close();
+        }
+    }
+
+    /**
+     * Remove the record for the provided target file, this must be done before the file is rewritten so that a partially written file is
+     * never mistaken for a current one.
+     *
+     * @param target - the extracted native library file.
+     * @throws IOException if the sidecar file exists and could not be deleted.
+     */
+    static void invalidate(File target) throws IOException {
+
+        File sidecar = sidecarFile(target);
+
+        if (sidecar.exists() && !sidecar.delete()) throw new IOException("Unable to delete sidecar file: " + sidecar);
+    }
+
+    /**
+     * Returns the SHA-256 hash recorded for the provided extracted file.
+     *
+     * @param target - the extracted native library file.
+     * @return the recorded hex encoded hash or null if there is no record for the file.
+     */
+    static String recordedSha256(File target) {
+
+        Properties sidecar = read(target);
+
+        return sidecar == null ? null : sidecar.getProperty(SHA256_PROPERTY);
+    }
+
+    /**
+     * Hex encode the provided bytes.
+     *
+     * @param bytes - the bytes to encode.
+     * @return the lower case hex string for the bytes.
+     */
+    static String toHex(byte[] bytes) {
+
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+
+        return hex.toString();
+    }
+
+
+    private static File sidecarFile(File target) {
+
+        return new File(target.getParentFile(), target.getName() + SIDECAR_SUFFIX);
+    }
+
+    private static Properties read(File target) {
+
+        File sidecarFile = sidecarFile(target);
+
+        if (!sidecarFile.isFile()) return null;
+
+        try {
+
+            InputStream in = new FileInputStream(sidecarFile);
+
+            try {
+
+                Properties sidecar = new Properties();
+                sidecar.load(in);
+
+                return sidecar;
+
+            } finally {
+
+                in.close();
+            }
+
+        } catch (IOException e) {
+
+            return null;
+        }
+    }
+}
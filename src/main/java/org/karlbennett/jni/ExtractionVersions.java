@@ -0,0 +1,274 @@
+package org.karlbennett.jni;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.*;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * The versioned directories that native libraries are extracted into when versioned extraction is turned on, see
+ * {@link JniUtils#isNativeLibraryVersionedExtractionEnabled()}.
+ * <p/>
+ * Every version of a native library is extracted into a directory of its own (<code>"jni-&lt;hash&gt;"</code>) that is named after the
+ * content of the class path resource, or the modified time of a resource that is a plain file, so different versions of the same native
+ * library never overwrite each other. The last modified time of a version directory is updated each time it is used and is what the least
+ * recently used versions are evicted by.
+ * <p/>
+ * Each process that uses a version directory holds a shared lock on its <code>".lock"</code> file for as long as it runs. A version
+ * directory is only ever evicted while holding an exclusive lock on the same file, so a native library that a live process may have loaded
+ * is never removed.
+ */
+final class ExtractionVersions {
+
+    /**
+     * The prefix of the name of every version directory, nothing else in an extraction directory is ever evicted.
+     */
+    static final String VERSION_DIR_PREFIX = "jni-";
+
+    /**
+     * The name of the file within a version directory that is locked by every process that uses it.
+     */
+    static final String LOCK_FILE_NAME = ".lock";
+
+    /**
+     * How many times to try and lock a version directory that keeps being evicted out from under us.
+     */
+    private static final int LOCK_ATTEMPTS = 3;
+
+    /**
+     * The shared locks that this JVM holds on the version directories it has used, keyed by the absolute directory. These are never
+     * released because a loaded native library can't be unloaded.
+     */
+    private static final Map<File, FileLock> HELD = new HashMap<File, FileLock>();
+
+
+    /**
+     * This class only contains static methods so should never be instantiated.
+     */
+    private ExtractionVersions() {
+    }
+
+
+    /**
+     * Returns the name of the version directory for the class path resource with the provided key.
+     *
+     * @param key - the key of a class path resource.
+     * @return the name of the version directory.
+     */
+    static String versionName(ExtractionCache.Key key) {
+
+        if (key.sha256 != null) return VERSION_DIR_PREFIX + key.sha256;
+
+        if (key.crc == -1) return VERSION_DIR_PREFIX + 'm' + Long.toHexString(key.modified) + '-' + Long.toHexString(key.size);
+
+        return VERSION_DIR_PREFIX + Long.toHexString(key.crc) + '-' + Long.toHexString(key.size);
+    }
+
+    /**
+     * Create the version directory for the class path resource with the provided key and lock it so that it can't be evicted by anyone
+     * while this JVM is running.
+     *
+     * @param fsDir - the extraction directory that contains the version directories.
+     * @param key   - the key of the class path resource that is about to be extracted.
+     * @return the version directory.
+     * @throws IOException if the version directory could not be created or locked.
+     */
+    static File acquire(File fsDir, ExtractionCache.Key key) throws IOException {
+
+        File dir = new File(fsDir, versionName(key)).getAbsoluteFile();
+
+        synchronized (HELD) {
+
+            FileLock held = HELD.get(dir);
+
+            // The directory may have been removed by something other than an eviction, in which case it has to be locked again.
+            if (held == null || !held.isValid() || !new File(dir, LOCK_FILE_NAME).exists()) {
+
+                if (held != null) held.channel().close();
+
+                HELD.put(dir, lock(dir));
+            }
+        }
+
+        // Using a version counts as using it, whether or not anything had to be extracted into it.
+        dir.setLastModified(System.currentTimeMillis());
+
+        return dir;
+    }
+
+    /**
+     * Remove the least recently used version directories until the rest fit within the provided budget. A version directory that is
+     * locked by this or any other process is never removed, however old it is.
+     *
+     * @param fsDir      - the extraction directory that contains the version directories.
+     * @param maxBytes   - the most bytes that the version directories should take up between them.
+     * @param maxEntries - the most version directories that should be kept.
+     * @return how many version directories were removed.
+     */
+    static int evict(File fsDir, long maxBytes, int maxEntries) {
+
+        File[] dirs = fsDir.listFiles(new FileFilter() {
+
+            public boolean accept(File file) {
+
+                return file.getName().startsWith(VERSION_DIR_PREFIX) && file.isDirectory();
+            }
+        });
+
+        if (dirs == null) return 0;
+
+        final Map<File, Long> lastUsed = new HashMap<File, Long>();
+        for (File dir : dirs) lastUsed.put(dir, dir.lastModified());
+
+        // Most recently used first, so that the versions are kept in the order they would be missed.
+        Arrays.sort(dirs, new Comparator<File>() {
+
+            public int compare(File left, File right) {
+
+                return lastUsed.get(right).compareTo(lastUsed.get(left));
+            }
+        });
+
+        long bytes = 0;
+        int entries = 0;
+        int evicted = 0;
+
+        for (File dir : dirs) {
+
+            long size = size(dir);
+
+            if (entries < maxEntries && bytes + size <= maxBytes) {
+
+                bytes += size;
+                entries++;
+
+            } else if (delete(dir.getAbsoluteFile())) {
+
+                evicted++;
+
+            } else {
+
+                // A version that is still in use keeps taking up its share of the budget.
+                bytes += size;
+                entries++;
+            }
+        }
+
+        return evicted;
+    }
+
+
+    /**
+     * Take a shared lock on the provided version directory, creating it if needed.
+     */
+    private static FileLock lock(File dir) throws IOException {
+
+        File lockFile = new File(dir, LOCK_FILE_NAME);
+
+        for (int attempt = 1; ; attempt++) {
+
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) throw new IOException("Unable to create " + dir);
+
+            RandomAccessFile lockAccess;
+
+            try {
+
+                lockAccess = new RandomAccessFile(lockFile, "rw");
+
+            } catch (FileNotFoundException e) {
+
+                // The directory was evicted between being created and being locked.
+                if (attempt < LOCK_ATTEMPTS) continue;
+
+                throw e;
+            }
+
+            try {
+
+                FileLock lock = lockAccess.getChannel().lock(0, Long.MAX_VALUE, true);
+
+                // If the lock file is gone then the directory was evicted while we were waiting for the lock, so start again.
+                if (lockFile.exists()) return lock;
+
+            } catch (IOException e) {
+
+                lockAccess.close();
+
+                throw e;
+            }
+
+            lockAccess.close();
+
+            if (attempt >= LOCK_ATTEMPTS) throw new IOException("Unable to lock " + lockFile);
+        }
+    }
+
+    /**
+     * Remove the provided version directory as long as nobody holds a lock on it.
+     */
+    private static boolean delete(File dir) {
+
+        // Holding on to the held locks keeps this JVM from trying to lock a directory that it is in the middle of evicting.
+        synchronized (HELD) {
+
+            if (HELD.containsKey(dir)) return false;
+
+            File lockFile = new File(dir, LOCK_FILE_NAME);
+
+            // A directory without a lock file wasn't created by us, whatever it happens to be called.
+            if (!lockFile.isFile()) return false;
+
+            try {
+
+                RandomAccessFile lockAccess = new RandomAccessFile(lockFile, "rw");
+
+                try {
+
+                    FileLock lock = lockAccess.getChannel().tryLock();
+
+                    if (lock == null) return false;
+
+                    File[] files = dir.listFiles();
+
+                    if (files == null) return false;
+
+                    // The lock file goes last so that anyone waiting for it can tell that the directory was removed.
+                    for (File file : files) if (!file.equals(lockFile) && !file.delete()) return false;
+
+                    return lockFile.delete() && dir.delete();
+
+                } finally {
+
+                    lockAccess.close();
+                }
+
+            } catch (OverlappingFileLockException e) {
+
+                return false;
+
+            } catch (IOException e) {
+
+                return false;
+            }
+        }
+    }
+
+    private static long size(File dir) {
+
+        File[] files = dir.listFiles();
+
+        if (files == null) return 0;
+
+        long size = 0;
+        for (File file : files) size += file.length();
+
+        return size;
+    }
+}
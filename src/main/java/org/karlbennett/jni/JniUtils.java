@@ -3,6 +3,22 @@ package org.karlbennett.jni;
 import org.karlbennett.jni.exception.IORuntimeException;
 
 import java.io.*;
+import java.lang.reflect.Method;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
 
 /**
  * User: karl
@@ -38,6 +54,171 @@ public class JniUtils {
      */
     public static final String NATIVE_LIBRARY_FS_DIR_PROPERTY = "native.library.fs.dir";
 
+    /**
+     * The name of the property that is used to choose which kind of file system native files are extracted to, either
+     * <code>"disk"</code> or <code>"memory"</code>.
+     */
+    public static final String NATIVE_LIBRARY_FS_MODE_PROPERTY = "native.library.fs.mode";
+
+    /**
+     * The file system mode that extracts native files to the directory set by the <code>"native.library.fs.dir"</code> property.
+     */
+    public static final String NATIVE_LIBRARY_FS_MODE_DISK = "disk";
+
+    /**
+     * The file system mode that extracts native files to a memory backed file system whenever there is a suitable one.
+     */
+    public static final String NATIVE_LIBRARY_FS_MODE_MEMORY = "memory";
+
+    /**
+     * The name of the property that is used to set the path for the directory on a memory backed file system where native files are extracted.
+     */
+    public static final String NATIVE_LIBRARY_MEMORY_FS_DIR_PROPERTY = "native.library.memory.fs.dir";
+
+    /**
+     * The default directory on a memory backed file system where native files are extracted, this is the shared memory file system on Linux.
+     */
+    public static final String DEFAULT_NATIVE_LIBRARY_MEMORY_FS_DIR = "/dev/shm/";
+
+    /**
+     * The name of the property that is used to set the least free space in bytes that a memory backed file system must have to be used.
+     */
+    public static final String NATIVE_LIBRARY_MEMORY_FS_MIN_FREE_PROPERTY = "native.library.memory.fs.min.free";
+
+    /**
+     * The default least free space that a memory backed file system must have to be used.
+     */
+    public static final long DEFAULT_NATIVE_LIBRARY_MEMORY_FS_MIN_FREE = 64L * 1024 * 1024;
+
+    /**
+     * The name of the property that is used to turn on the reuse of native library files that have already been extracted.
+     */
+    public static final String NATIVE_LIBRARY_CACHE_PROPERTY = "native.library.cache";
+
+    /**
+     * The name of the property that is used to turn on atomic extraction of native library files.
+     */
+    public static final String NATIVE_LIBRARY_ATOMIC_EXTRACTION_PROPERTY = "native.library.atomic.extraction";
+
+    /**
+     * The name of the manifest file that can be placed in a native library directory to describe the native libraries within it.
+     *
+     * @see NativeLibraryManifest
+     */
+    public static final String NATIVE_LIBRARY_MANIFEST_NAME = "native-libraries.properties";
+
+    /**
+     * The name of the bundle file that can be placed in a native library directory to hold many native libraries in a single file.
+     *
+     * @see NativeLibraryBundle
+     */
+    public static final String NATIVE_LIBRARY_BUNDLE_NAME = "native-libraries.bundle";
+
+    /**
+     * The name of the index file that marks a local file system directory as holding native libraries that were extracted ahead of time.
+     *
+     * @see NativeLibraryInstaller
+     */
+    public static final String NATIVE_LIBRARY_INSTALLED_NAME = "native-libraries.installed";
+
+    /**
+     * The name of the property that is used to publish the native library load stats over JMX.
+     */
+    public static final String NATIVE_LIBRARY_JMX_PROPERTY = "native.library.jmx";
+
+    /**
+     * The name of the property that is used to turn off loading native library files straight from the local file system class path.
+     */
+    public static final String NATIVE_LIBRARY_IN_PLACE_PROPERTY = "native.library.in.place";
+
+    /**
+     * The name of the property that is used to turn on extracting each version of a native library into a directory of its own.
+     */
+    public static final String NATIVE_LIBRARY_VERSIONED_PROPERTY = "native.library.versioned";
+
+    /**
+     * The name of the property that is used to set the most bytes that the versioned extraction directories can take up between them.
+     */
+    public static final String NATIVE_LIBRARY_FS_MAX_BYTES_PROPERTY = "native.library.fs.max.bytes";
+
+    /**
+     * The default most bytes that the versioned extraction directories can take up between them.
+     */
+    public static final long DEFAULT_NATIVE_LIBRARY_FS_MAX_BYTES = 512L * 1024 * 1024;
+
+    /**
+     * The name of the property that is used to set the most versioned extraction directories that are kept.
+     */
+    public static final String NATIVE_LIBRARY_FS_MAX_ENTRIES_PROPERTY = "native.library.fs.max.entries";
+
+    /**
+     * The default most versioned extraction directories that are kept.
+     */
+    public static final int DEFAULT_NATIVE_LIBRARY_FS_MAX_ENTRIES = 64;
+
+
+    /**
+     * The size of the buffer used to copy between channels that can't transfer directly between each other.
+     */
+    private static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * The protocol of class path resources that are plain files on the local file system.
+     */
+    private static final String FILE_PROTOCOL = "file";
+
+    /**
+     * The suffix of the files that are locked while a native library is being atomically extracted.
+     */
+    private static final String LOCK_FILE_SUFFIX = ".lock";
+
+    /**
+     * The prefix of the directories that each isolated copy of a native library is extracted to.
+     */
+    private static final String ISOLATED_DIR_PREFIX = "isolated-";
+
+    /**
+     * The suffix of the temporary files that native libraries are atomically extracted to.
+     */
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    /**
+     * The monitors that keep threads within this JVM from locking the same lock file at the same time, a lock file is guarded by the monitor
+     * that its path hashes to.
+     */
+    private static final Object[] EXTRACTION_LOCKS = new Object[32];
+
+    static {
+
+        for (int i = 0; i < EXTRACTION_LOCKS.length; i++) EXTRACTION_LOCKS[i] = new Object();
+    }
+
+    /**
+     * The directory that was chosen for each memory file system setting, so that the mount table only has to be read once and every load
+     * with the same setting uses the same directory.
+     */
+    private static final ConcurrentMap<String, String> EXTRACTION_DIRS = new ConcurrentHashMap<String, String>();
+
+    /**
+     * The record of every native library that has been loaded through this class.
+     */
+    private static final NativeLibraryRegistry REGISTRY = new NativeLibraryRegistry();
+
+    /**
+     * The JVM wide counters for every native library load.
+     */
+    private static final NativeLibraryStats STATS = new NativeLibraryStats();
+
+    /**
+     * The listeners that have been added with {@link #addNativeLibraryListener(NativeLibraryListener)}.
+     */
+    private static final List<NativeLibraryListener> LISTENERS = new CopyOnWriteArrayList<NativeLibraryListener>();
+
+    /**
+     * The extraction directories that are waiting for an eviction to be run, so that a burst of extractions only causes one eviction.
+     */
+    private static final ConcurrentMap<File, Boolean> PENDING_EVICTIONS = new ConcurrentHashMap<File, Boolean>();
+
 
     /**
      * The default constructor is private because this class should never be instantiated.
@@ -52,7 +233,7 @@ public class JniUtils {
      * @param dirPath - the directory path to be checked.
      * @return the directory path with a guaranteed trailing slash.
      */
-    private static String checkDirSlash(String dirPath) {
+    static String checkDirSlash(String dirPath) {
 
         // Make sure the dirPath is not null and has a trailing slash.
         return dirPath == null || dirPath.length() == 0 ? "" : dirPath.endsWith("/") ? dirPath : dirPath + '/';
@@ -67,7 +248,14 @@ public class JniUtils {
      * <p/>
      * Or the simple name minus the library prefix and suffix e.g <code>"native"</code>.
      * <p/>
-     * The native library is first extracting it to the provided directory on the local file system then loaded.
+     * The native library is first extracting it to the provided directory on the local file system then loaded. Unless the native library
+     * is already a plain file on the local file system class path, such as in an exploded WAR or an IDE, in which case it is loaded from
+     * where it is, see {@link #isNativeLibraryInPlaceLoadingEnabled()}. If the native library was installed into the directory ahead of time
+     * by {@link NativeLibraryInstaller} then it is loaded from there without reading the class path at all.
+     * <p/>
+     * Each native library is only ever extracted and loaded once, any repeat calls for a library that has already been loaded return
+     * immediately. If several threads try to load the same library at the same time then only one of them will extract and load it while the
+     * others wait for it to finish.
      *
      * @param jarDir  - the directory within the JAR where the native library files can be found.
      * @param fsDir   - the directory within the filesystem where the native library files will be extracted to.
@@ -75,195 +263,2199 @@ public class JniUtils {
      */
     public static void loadNativeLibrary(String jarDir, String fsDir, String libName) {
 
-        // Get the full name of the native library file.
-        libName = findNativeLibraryName(jarDir, libName);
+        load(jarDir, fsDir, libName);
+    }
 
-        // If the native library wasn't found then blow up cause odds are nothing else is going to work from here on.
-        // This is a runtime exception, which isn't the nicest thing in the world but I wanted to mirror the System.load() method as closely as
-        // possible and that doesn't explicitly throw any exceptions.
-        if (libName == null) throw new IORuntimeException(
-                "org.karlbennett.jni.JniUtils.loadNativeLibrary(jarDir, fsDir, libName) - Unable to find library " +
-                        libName + " on classpath");
+    /**
+     * Load the native library with the provided name for the provided class, see {@link #loadNativeLibrary(String, String, String)}.
+     * <p/>
+     * When the native library is first loaded every <code>native</code> method declared by the class is checked against it, and the class
+     * is initialised, so that nothing is left to be done on the first call to a native method. Each method has to either be exported by the
+     * native library, or by another native library that was loaded through this class, under its short or long JNI name, or the native
+     * library has to export a <code>JNI_OnLoad</code> function which is trusted to register the methods itself. Any method that can't be
+     * found is listed by {@link NativeLibraryLoadResult#getUnboundMethods()} in the result that is passed to the listeners, rather than
+     * only showing up on its first call.
+     * <p/>
+     * The JVM only searches for an exported native method the first time that it is called, there is no way to make it do so any earlier.
+     * To have every method bound while the native library is being loaded, register them from <code>JNI_OnLoad</code> with a table
+     * generated by {@link NativeMethodTable}. This is also faster for the JVM than searching every loaded native library for each method.
+     * <p/>
+     * The methods can only be checked in ELF native libraries that still have their section headers, such as those on Linux, anywhere else
+     * the native library is just loaded. Native libraries that weren't loaded through this class aren't looked at, so a method that only one
+     * of them implements is still listed. As the check can't see everything that the JVM can it never fails the load, a method that really
+     * isn't bound still throws an {@link UnsatisfiedLinkError} on its first call. A native library that had already been loaded isn't
+     * checked again.
+     *
+     * @param owner   - the class that declares the native methods that the native library implements.
+     * @param jarDir  - the directory within the JAR where the native library files can be found.
+     * @param fsDir   - the directory within the filesystem where the native library files will be extracted to.
+     * @param libName - the full or simple name of a native library.
+     */
+    public static void loadNativeLibrary(Class<?> owner, String jarDir, String fsDir, String libName) {
 
-        fsDir = checkDirSlash(fsDir); // Make sure the fsDir has a trailing slash.
+        load(jarDir, fsDir, libName, owner);
 
-        // Make sure that the native library extraction directory exists, if it doesn't try and create it.
-        File fsLibraryDir = new File(fsDir);
-        if (!fsLibraryDir.exists()) {
+        try {
 
-            if (!fsLibraryDir.mkdirs()) throw new IORuntimeException(
-                    "org.karlbennett.jni.JniUtils.loadNativeLibrary(jarDir, fsDir, libName) - Unable to create the " +
-                            "native library extraction directory: " + fsDir);
+            // Run the static initialiser now rather than in the middle of the first call to a native method.
+            Class.forName(owner.getName(), true, owner.getClassLoader());
 
-            // Otherwise if the directory already exists then make sure that we can write to it.
-        } else if (!fsLibraryDir.canWrite()) throw new IORuntimeException(
-                "org.karlbennett.jni.JniUtils.loadNativeLibrary(jarDir, fsDir, libName) - Unable to write to the " +
-                        "native library extraction directory: " + fsDir);
+        } catch (ClassNotFoundException e) {
 
-        jarDir = checkDirSlash(jarDir); // Make sure the jarDir contains a trailing slash.
+            // The class has already been loaded so this should never happen.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Load the native library with the provided name into a class loader of its own so that it can be unloaded again.
+     * <p/>
+     * The native library is extracted to a directory of its own within the provided directory, then loaded by a new child of the context
+     * class loader. That class loader also defines the classes with the provided names itself, so the native methods that they declare are
+     * bound to this copy of the native library. The native methods can only be called through the classes that are loaded with
+     * {@link NativeLibraryHandle#loadClass(String)}, and those classes must not load the native library themselves. Any class that they
+     * share package private access with has to be named too.
+     * <p/>
+     * Unlike {@link #loadNativeLibrary(String, String, String)} every call loads a new copy of the native library. Once the handle has been
+     * closed and every reference to its classes has been dropped the class loader can be garbage collected, at which point the JVM unloads
+     * the native library and its memory is released.
+     * <p/>
+     * As with {@link #loadNativeLibrary(Class, String, String, String)} the native methods of each class are checked against the native
+     * library and the classes are initialised before the handle is returned. The class loader holds no other native library, so here a
+     * method that the native library doesn't implement fails the load.
+     *
+     * @param jarDir     - the directory within the JAR where the native library files can be found.
+     * @param fsDir      - the directory within the filesystem where the native library files will be extracted to.
+     * @param libName    - the full or simple name of a native library.
+     * @param classNames - the names of the classes that declare the native methods of the native library.
+     * @return the handle of the loaded native library, this has to be closed for the native library to be unloaded.
+     * @throws UnsatisfiedLinkError if any of the native methods of the classes aren't implemented by the native library.
+     */
+    public static NativeLibraryHandle loadIsolatedNativeLibrary(String jarDir, String fsDir, String libName,
+                                                                Collection<String> classNames) {
 
-        String libJarPath = jarDir + libName; // Build the path to the native library file on the class path.
+        NativeLibraryLoadResult result = new NativeLibraryLoadResult(libName);
+
+        String libFileName = resolve(jarDir, result);
+
+        File dir = null;
 
         try {
 
-            // Get the input stream for the native library file.
-            InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(libJarPath);
+            long start = System.nanoTime();
+
+            // The JVM won't load the same file into two class loaders, so every class loader needs a copy of the native library of its own.
+            dir = isolatedDir(fsDir);
+            File file = new File(dir, NativeLibraryCompression.uncompressedName(libFileName));
+
+            URL resource = nativeLibraryResource(Thread.currentThread().getContextClassLoader(), checkDirSlash(jarDir), libFileName, null);
 
-            File fsFile = new File(fsLibraryDir, libName); // Create the local file system native library file.
+            result.setBytesCopied(writeNativeLibrary(resource, file, null));
+            result.setExtracted(true);
+            result.setExtractNanos(System.nanoTime() - start);
 
-            OutputStream out = null; // Stream variables need to be outside the try so they can be accessed within the finally.
+            start = System.nanoTime();
+
+            NativeLibraryHandle handle;
 
             try {
-                // Then get the output stream for the local file system native library file.
-                out = new FileOutputStream(fsFile);
 
-                // Now that we are sure that we can extract the native library file write it to the local filesystem directory.
-                writeFile(in, out);
+                handle = NativeLibraryHandle.open(Thread.currentThread().getContextClassLoader(), file, dir, classNames);
+
+                for (String className : classNames) {
+
+                    Class<?> owner = handle.loadClass(className);
+
+                    // The class loader holds nothing but this native library, so a method that it doesn't bind can't be bound at all.
+                    List<String> unbound = checkNativeMethods(owner, file, Collections.<File>emptySet());
 
-                // Finally load the local file system native library file.
-                System.load(fsFile.getAbsolutePath());
+                    if (!unbound.isEmpty()) throw new UnsatisfiedLinkError(
+                            "org.karlbennett.jni.JniUtils.loadIsolatedNativeLibrary(jarDir, fsDir, libName, classNames) - The native " +
+                                    "library " + file + " doesn't implement these native methods of " + className + ": " + unbound);
+
+                    Class.forName(className, true, owner.getClassLoader());
+                }
 
             } finally {
 
-                if (in != null) in.close();
-                if (out != null) out.close();
+                result.setLoadNanos(System.nanoTime() - start);
             }
 
+            result.setFile(file);
+
+            return handle;
+
         } catch (IOException e) {
 
-            // If anything goes wrong here throw the resultant exception as our custom IO runtime exception.
-            throw new IORuntimeException(e);
+            throw failIsolated(result, dir, new IORuntimeException(e));
+
+        } catch (ClassNotFoundException e) {
+
+            throw failIsolated(result, dir, new IllegalArgumentException(
+                    "org.karlbennett.jni.JniUtils.loadIsolatedNativeLibrary(jarDir, fsDir, libName, classNames) - Unable to find the " +
+                            "class: " + e.getMessage(), e));
+
+        } catch (RuntimeException e) {
+
+            throw failIsolated(result, dir, e);
+
+        } catch (Error e) {
+
+            throw failIsolated(result, dir, e);
+
+        } finally {
+
+            fireNativeLibraryEvent(result);
         }
     }
 
     /**
-     * Convenience method, same as calling <code>loadNativeLibrary(getNativeLibraryJarDir(), getNativeLibraryFSDir(), "nativeLibFileName");</code>
+     * Convenience method, same as calling
+     * <code>loadIsolatedNativeLibrary(getNativeLibraryJarDir(), getNativeLibraryExtractionDir(), libName, classNames);</code>
      *
-     * @param libName - the full or simple name of a native library.
+     * @param libName    - the full or simple name of a native library.
+     * @param classNames - the names of the classes that declare the native methods of the native library.
+     * @return the handle of the loaded native library, this has to be closed for the native library to be unloaded.
      */
-    public static void loadNativeLibrary(String libName) {
+    public static NativeLibraryHandle loadIsolatedNativeLibrary(String libName, Collection<String> classNames) {
 
-        loadNativeLibrary(getNativeLibraryJarDir(), getNativeLibraryFSDir(), libName);
+        return loadIsolatedNativeLibrary(getNativeLibraryJarDir(), getNativeLibraryExtractionDir(), libName, classNames);
     }
 
     /**
-     * Convenience method, same as calling <code>findNativeLibraryName(getNativeLibraryJarDir(), "nativeLibFileName");</code>
+     * Convenience method, same as calling
+     * <code>loadNativeLibraryAsync(getNativeLibraryJarDir(), getNativeLibraryExtractionDir(), "nativeLibFileName");</code>
      *
      * @param libName - the full or simple name of a native library.
-     * @return the full file name of the native related native library if it exists, otherwise null.
+     * @return a future that completes with the loaded native library file.
      */
-    public static String findNativeLibraryName(String libName) {
+    public static Future<File> loadNativeLibraryAsync(String libName) {
 
-        return findNativeLibraryName(getNativeLibraryJarDir(), libName);
+        return loadNativeLibraryAsync(getNativeLibraryJarDir(), getNativeLibraryExtractionDir(), libName);
     }
 
     /**
-     * Find the actual name of the provided library name within the class path under the provided director path.
+     * Load the native library with the provided name on a background thread.
      * <p/>
-     * That is if the full name is provided ("libnative.so") and a file with that name can be found within the class path then the same name will be
-     * returned ("libnative.so").
+     * This does exactly the same as {@link #loadNativeLibrary(String, String, String)} except that it returns straight away, which lets the
+     * extraction and loading of the native library overlap with anything else that needs to be initialised. Just call {@link Future#get()}
+     * on the returned future before the first call to a native method. Any failure to load the native library is reported by the future
+     * throwing an {@link ExecutionException} rather than being thrown from this method.
      * <p/>
-     * Otherwise if a simple name is provided ("native") and a related native library file can be found then the full name for the provided simple
-     * name is returned ("libnative.so").
+     * If the native library has already been loaded then the returned future has already completed.
      *
      * @param jarDir  - the directory within the JAR where the native library files can be found.
+     * @param fsDir   - the directory within the filesystem where the native library files will be extracted to.
      * @param libName - the full or simple name of a native library.
-     * @return the full file name of the native related native library if it exists, otherwise null.
+     * @return a future that completes with the loaded native library file.
      */
-    public static String findNativeLibraryName(String jarDir, String libName) {
+    public static Future<File> loadNativeLibraryAsync(final String jarDir, final String fsDir, final String libName) {
 
-        // libName cannot be null, if it is something has gone very wrong so blow up, but at least with an informative message.
-        if (libName == null) {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
 
-            throw new NullPointerException(
-                    "org.karlbennett.jni.JniUtils.findNativeLibraryName(jarDir, libName) - libName cannot be null.");
-        }
+        FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
 
-        // Make sure the jarDir has a trailing slash.
-        jarDir = checkDirSlash(jarDir);
+            public File call() {
 
-        // Build the path to the library file.
-        String libPath = jarDir + libName;
+                // The background threads are shared so make sure that the caller's class path is searched.
+                Thread thread = Thread.currentThread();
+                ClassLoader oldClassLoader = thread.getContextClassLoader();
+                thread.setContextClassLoader(contextClassLoader);
 
-        // If the provided path does not relate to an actual file within the class path then we will have to do some more in depth searching.
-        if (Thread.currentThread().getContextClassLoader().getResource(libPath) == null) {
+                try {
 
-            // Odds are that if we couldn't find the library file with the provided libName then it must have been a simple name so find the full
-            // library name and use that to create the path for the native library file.
-            libName = System.mapLibraryName(libName);
-            libPath = jarDir + libName;
+                    return load(jarDir, fsDir, libName);
 
-            /*
-                    Mac OS X dynamic libraries have the extension ".dylib", unfortunately under Mac OS X the
-                    System.mapLibraryName(String) function returns a file name with the extension ".jnilib" which of course more often that not will not
-                    be the extension of the dynamic library. So because of this we need to check if the ".jnilib" file actually exists, if it doesn't then
-                    change the extension to ".dylib" and try again.
-                    */
-            final String MAC_OS_X_JNI_EXT = ".jnilib";
-            final String MAC_OS_X_EXT = ".dylib";
-            if (libName.endsWith(MAC_OS_X_JNI_EXT)) { // Are we looking for a Mac OS X native library?
+                } finally {
 
-                // If so does it exist as it's default ".jnilib" name?
-                if (Thread.currentThread().getContextClassLoader().getResource(libPath) == null) {
-                    // If not replace the extension with the normal Mac OS X dynamic library extension.
-                    libName = libName.substring(0, libName.length() - MAC_OS_X_JNI_EXT.length()) + MAC_OS_X_EXT;
-                    // Then recreate the library path.
-                    libPath = jarDir + libName;
+                    thread.setContextClassLoader(oldClassLoader);
                 }
             }
+        });
 
-            // Now that we hopefully have the correct native library name see if a related resource exists within the class path.
-            // If it doesn't clear the libPath variable because we can't return anything of use.
-            if (Thread.currentThread().getContextClassLoader().getResource(libPath) == null) libName = null;
-        }
+        // There is no point in handing a library that has already been loaded over to another thread.
+        if (REGISTRY.get(requestKey(jarDir, fsDir, libName)) != null) task.run();
+        else AsyncLoadExecutorHolder.EXECUTOR.execute(task);
 
-        return libName;
+        return task;
     }
 
     /**
-     * Returns the directory within the jar where the native JNI library files can be found.
+     * Load the native library with the provided name along with every native library that it depends on that can be found in the same JAR
+     * directory.
      * <p/>
-     * By default the directory is <code>"lib/"</code> but it can be overridden by setting the <code>"native.library.jar.dir"</code> Java property.
+     * The dependencies are found by reading the <code>DT_NEEDED</code> entries of each ELF shared object, so this only finds dependencies on
+     * platforms that use ELF such as Linux. On any other platform, or for any native library that isn't an ELF file, this is the same as
+     * {@link #loadNativeLibrary(String, String, String)}. Dependencies that can't be found in the JAR directory, such as system libraries,
+     * are left to the operating system.
+     * <p/>
+     * The native library and all of its dependencies are extracted first, then they are loaded so that every native library is loaded after
+     * the native libraries that it depends on. As with {@link #loadNativeLibraries(String, String, Collection, int)} a native library that
+     * is already being extracted or loaded by another call is waited for rather than extracted again.
      *
-     * @return the current globally set location for where native JNI files can be found within a JAR file.
+     * @param jarDir  - the directory within the JAR where the native library files can be found.
+     * @param fsDir   - the directory within the filesystem where the native library files will be extracted to.
+     * @param libName - the full or simple name of a native library.
+     * @return the native library files in the order that they were loaded, the provided native library is always last.
      */
-    public static String getNativeLibraryJarDir() {
+    public static List<File> loadNativeLibraryWithDependencies(String jarDir, String fsDir, String libName) {
 
-        return System.getProperty(NATIVE_LIBRARY_JAR_DIR_PROPERTY, DEFAULT_NATIVE_LIBRARY_JAR_DIR);
-    }
+        NativeLibraryLoadResult root = new NativeLibraryLoadResult(libName);
+        String libFileName = resolve(jarDir, root);
 
-    /**
-     * Returns the directory within the local filesystem where the native library files will be extracted before they are loaded.
-     * <p/>
-     * By default the directory is the systems default temp directory, this is the value set in the<code>"java.io.tmpdir"</code> Java property.
-     * Though this can be overridden by setting the <code>"native.library.fs.dir"</code> Java property.
-     *
-     * @return the current globally set location for where native JNI files will be extracted.
-     */
-    public static String getNativeLibraryFSDir() {
+        Map<String, NativeLibraryLoadResult> results = new HashMap<String, NativeLibraryLoadResult>();
+        results.put(libFileName, root);
 
-        return System.getProperty(NATIVE_LIBRARY_FS_DIR_PROPERTY, System.getProperty(DEFAULT_TEMP_DIR_PROPERTY));
-    }
+        // Extract every native library in the dependency tree, recording what each one needs as we go.
+        Map<String, File> extracted = new HashMap<String, File>();
+        Map<String, String> loadPaths = new HashMap<String, String>();
+        Map<String, List<String>> dependencies = new HashMap<String, List<String>>();
 
-    /**
-     * Convenience method for writing an input stream out into an output stream.
-     *
-     * @param in  - the input stream that is to be read.
-     * @param out - the output stream that is to be written to.
-     * @throws IOException if there is a problem when reading and writing.
-     */
-    public static void writeFile(InputStream in, OutputStream out) throws IOException {
+        LinkedList<String> pending = new LinkedList<String>();
+        pending.add(libFileName);
 
-        final int ARRAY_SIZE = 1024; // Size of the input read buffer.
+        while (!pending.isEmpty()) {
 
-        int bytesRead = 0; // The number of bytes read in each iteration.
+            String name = pending.removeFirst();
 
-        byte[] bytes = new byte[ARRAY_SIZE]; // The buffer to store the bytes that are to be written.
+            if (extracted.containsKey(name)) continue;
 
-        // Iterate writing bytes until we have read less than zero bytes which indicates the end of the input stream.
-        while ((bytesRead = in.read(bytes)) > 0) {
+            NativeLibraryLoadResult result = results.get(name);
 
-            out.write(bytes, 0, bytesRead);
+            if (result == null) {
+
+                result = new NativeLibraryLoadResult(name);
+                result.setFileName(name);
+                results.put(name, result);
+            }
+
+            File inPlace = inPlaceFile(jarDir, name, result);
+            loadPaths.put(name, loadPath(fsDir, name, inPlace));
+
+            // A native library that has already been loaded must have already had its dependencies loaded as well.
+            if (REGISTRY.isLoaded(loadPaths.get(name))) {
+
+                extracted.put(name, new File(loadPaths.get(name)));
+                dependencies.put(name, Collections.<String>emptyList());
+
+                continue;
+            }
+
+            File file;
+
+            try {
+
+                file = inPlace != null ? inPlace : extractOnce(jarDir, fsDir, result, null);
+
+            } catch (RuntimeException e) {
+
+                result.setFailure(e);
+                fireNativeLibraryEvent(result);
+
+                throw e;
+            }
+
+            extracted.put(name, file);
+
+            List<String> available = new ArrayList<String>();
+
+            try {
+
+                for (String needed : ElfFile.readNeeded(file)) {
+
+                    // Only the dependencies that are shipped alongside the native library need our help.
+                    String neededFileName = findNativeLibraryName(jarDir, needed, result);
+
+                    if (neededFileName != null) available.add(neededFileName);
+                }
+
+            } catch (IOException e) {
+
+                // The native library will never get as far as the loader so the failure has to be reported here.
+                IORuntimeException failure = new IORuntimeException(e);
+
+                result.setFailure(failure);
+                fireNativeLibraryEvent(result);
+
+                throw failure;
+            }
+
+            dependencies.put(name, available);
+            pending.addAll(available);
+        }
+
+        // Then load them so that each native library comes after everything it depends on.
+        List<String> order = new ArrayList<String>();
+        dependencyOrder(libFileName, dependencies, new HashSet<String>(), order);
+
+        List<File> loaded = new ArrayList<File>(order.size());
+
+        for (String name : order) {
+
+            String request = name.equals(libFileName) ? requestKey(jarDir, fsDir, libName) : requestKey(jarDir, fsDir, name);
+
+            loaded.add(REGISTRY.load(request, loadPaths.get(name), loader(jarDir, fsDir, results.get(name), extracted.get(name))));
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Convenience method, same as calling
+     * <code>loadNativeLibraries(getNativeLibraryJarDir(), getNativeLibraryExtractionDir(), libNames, Runtime.getRuntime().availableProcessors());</code>
+     *
+     * @param libNames - the full or simple names of the native libraries in the order that they should be loaded.
+     * @return the result of loading each native library in the same order as the names.
+     */
+    public static List<NativeLibraryLoadResult> loadNativeLibraries(Collection<String> libNames) {
+
+        return loadNativeLibraries(getNativeLibraryJarDir(), getNativeLibraryExtractionDir(), libNames, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Load all of the native libraries with the provided names.
+     * <p/>
+     * Every name is resolved first, then all of the native libraries are extracted at the same time on up to <code>parallelism</code>
+     * threads. Each native library is then loaded in the order of the provided names as soon as it has been extracted, so a native library
+     * that depends on another can be loaded after it simply by being listed after it. The native libraries that are in the directory's
+     * bundle are all extracted by a single one of those threads, which reads through the bundle once in the order they are stored.
+     * <p/>
+     * A native library that is already being extracted or loaded by another call is waited for rather than extracted again.
+     * <p/>
+     * A native library that fails to load doesn't stop the others from being loaded, the failure is recorded in its result instead.
+     *
+     * @param jarDir      - the directory within the JAR where the native library files can be found.
+     * @param fsDir       - the directory within the filesystem where the native library files will be extracted to.
+     * @param libNames    - the full or simple names of the native libraries in the order that they should be loaded.
+     * @param parallelism - the most native libraries that will be extracted at the same time.
+     * @return the result of loading each native library in the same order as the names.
+     */
+    public static List<NativeLibraryLoadResult> loadNativeLibraries(final String jarDir, final String fsDir, Collection<String> libNames,
+                                                                    int parallelism) {
+
+        if (parallelism < 1) throw new IllegalArgumentException(
+                "org.karlbennett.jni.JniUtils.loadNativeLibraries(jarDir, fsDir, libNames, parallelism) - parallelism must be positive.");
+
+        List<NativeLibraryLoadResult> results = new ArrayList<NativeLibraryLoadResult>(libNames.size());
+        List<Future<File>> extractions = new ArrayList<Future<File>>(libNames.size());
+        List<File> inPlaceFiles = new ArrayList<File>(libNames.size());
+
+        // Native libraries that were installed ahead of time are loaded where they are, the class path is only read if there are any others.
+        List<File> installedFiles = new ArrayList<File>(libNames.size());
+
+        for (String libName : libNames) installedFiles.add(NativeLibraryInstaller.installedFile(fsDir, libName));
+
+        // The native libraries in a bundle are all extracted by one task that reads through the bundle once, in the order they're stored.
+        NativeLibraryBundle bundle = !installedFiles.contains(null) ? null
+                : NativeLibraryIndex.directory(Thread.currentThread().getContextClassLoader(), checkDirSlash(jarDir)).bundle;
+        final NativeLibraryBundle.Reader bundleReader = bundle == null ? null : bundle.reader();
+        final List<FutureTask<File>> bundledExtractions = new ArrayList<FutureTask<File>>();
+        final Map<FutureTask<File>, Long> bundledOffsets = new IdentityHashMap<FutureTask<File>, Long>();
+
+        ExecutorService executor = newExtractionExecutor(Math.max(1, Math.min(parallelism, libNames.size())));
+
+        try {
+
+            // First resolve every name and start extracting any native library that isn't already loaded.
+            for (String libName : libNames) {
+
+                final NativeLibraryLoadResult result = new NativeLibraryLoadResult(libName);
+                results.add(result);
+
+                File installed = installedFiles.get(results.size() - 1);
+
+                try {
+
+                    if (installed != null) result.setFileName(installed.getName());
+                    else resolve(jarDir, result);
+
+                } catch (RuntimeException e) {
+
+                    // The failure has already been recorded in the result.
+                }
+
+                File inPlace = installed != null ? installed
+                        : result.getFailure() == null ? inPlaceFile(jarDir, result.getFileName(), result) : null;
+                inPlaceFiles.add(inPlace);
+
+                NativeLibraryBundle.Entry bundled = bundle == null || result.getFailure() != null ? null : bundle.get(result.getFileName());
+
+                if (result.getFailure() != null || inPlace != null || REGISTRY.isLoaded(fsPath(fsDir, result.getFileName()))) {
+
+                    extractions.add(null);
+
+                } else if (bundled != null) {
+
+                    FutureTask<File> extraction = new FutureTask<File>(new Callable<File>() {
+
+                        public File call() {
+
+                            return extractOnce(jarDir, fsDir, result, bundleReader);
+                        }
+                    });
+
+                    bundledExtractions.add(extraction);
+                    bundledOffsets.put(extraction, bundled.getOffset());
+                    extractions.add(extraction);
+
+                } else {
+
+                    extractions.add(executor.submit(new Callable<File>() {
+
+                        public File call() {
+
+                            return extractOnce(jarDir, fsDir, result, null);
+                        }
+                    }));
+                }
+            }
+
+            if (!bundledExtractions.isEmpty()) {
+
+                Collections.sort(bundledExtractions, new Comparator<FutureTask<File>>() {
+
+                    public int compare(FutureTask<File> left, FutureTask<File> right) {
+
+                        return bundledOffsets.get(left).compareTo(bundledOffsets.get(right));
+                    }
+                });
+
+                executor.execute(new Runnable() {
+
+                    public void run() {
+
+                        try {
+
+                            for (FutureTask<File> extraction : bundledExtractions) extraction.run();
+
+                        } finally {
+
+                            try {
+
+                                bundleReader.close();
+
+                            } catch (IOException e) {
+
+                                // Every extraction has already finished so there is nothing left that could be affected.
+                            }
+                        }
+                    }
+                });
+            }
+
+            // Then load them in order as each one finishes extracting.
+            for (int i = 0; i < results.size(); i++) {
+
+                NativeLibraryLoadResult result = results.get(i);
+
+                if (result.getFailure() != null) continue;
+
+                try {
+
+                    File inPlace = inPlaceFiles.get(i);
+                    File extracted = extractions.get(i) == null ? inPlace : extractions.get(i).get();
+
+                    result.setFile(REGISTRY.load(requestKey(jarDir, fsDir, result.getLibName()),
+                            loadPath(fsDir, result.getFileName(), inPlace), loader(jarDir, fsDir, result, extracted)));
+
+                } catch (ExecutionException e) {
+
+                    // The native library never made it as far as the loader so it has to be reported here.
+                    result.setFailure(e.getCause());
+                    fireNativeLibraryEvent(result);
+
+                } catch (InterruptedException e) {
+
+                    // Give up on anything that hasn't been loaded yet, but make sure the caller can still see that it was interrupted.
+                    Thread.currentThread().interrupt();
+
+                    result.setFailure(e);
+                    fireNativeLibraryEvent(result);
+
+                } catch (RuntimeException e) {
+
+                    result.setFailure(e);
+
+                } catch (LinkageError e) {
+
+                    result.setFailure(e);
+                }
+            }
+
+        } finally {
+
+            executor.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * Extract the native library with the provided name to the provided directory on the local file system without loading it.
+     * <p/>
+     * If the <code>"native.library.cache"</code> Java property is set to <code>"true"</code> then an identical copy of the native library
+     * that has already been extracted to the directory will be reused instead of being extracted again, see {@link #isNativeLibraryCacheEnabled()}.
+     *
+     * @param jarDir  - the directory within the JAR where the native library files can be found.
+     * @param fsDir   - the directory within the filesystem where the native library files will be extracted to.
+     * @param libName - the full or simple name of a native library.
+     * @return the extracted native library file.
+     */
+    public static File extractNativeLibrary(String jarDir, String fsDir, String libName) {
+
+        return extract(jarDir, fsDir, libName, new NativeLibraryLoadResult(libName));
+    }
+
+    /**
+     * Extract the native library with the provided name, see {@link #extractNativeLibrary(String, String, String)}.
+     *
+     * @param jarDir  - the directory within the JAR where the native library files can be found.
+     * @param fsDir   - the directory within the filesystem where the native library files will be extracted to.
+     * @param libName - the full or simple name of a native library.
+     * @param result  - the result that the details of the extraction are recorded in.
+     * @return the extracted native library file.
+     */
+    private static File extract(String jarDir, String fsDir, String libName, NativeLibraryLoadResult result) {
+
+        return extract(jarDir, fsDir, libName, result, null);
+    }
+
+    /**
+     * Extract the native library with the provided name, reading it through the provided reader if it is in a bundle.
+     *
+     * @param jarDir       - the directory within the JAR where the native library files can be found.
+     * @param fsDir        - the directory within the filesystem where the native library files will be extracted to.
+     * @param libName      - the full or simple name of a native library.
+     * @param result       - the result that the details of the extraction are recorded in.
+     * @param bundleReader - the reader of the directory's bundle that is shared with other extractions, or null to read the bundle afresh.
+     * @return the extracted native library file.
+     */
+    private static File extract(String jarDir, String fsDir, String libName, NativeLibraryLoadResult result,
+                                NativeLibraryBundle.Reader bundleReader) {
+
+        long start = System.nanoTime();
+
+        // Get the full name of the native library file.
+        String libFileName = requireNativeLibraryName(jarDir, libName, result);
+
+        fsDir = checkDirSlash(fsDir); // Make sure the fsDir has a trailing slash.
+
+        // Make sure that the native library extraction directory exists, if it doesn't try and create it.
+        File fsLibraryDir = new File(fsDir);
+        if (!fsLibraryDir.exists()) {
+
+            if (!fsLibraryDir.mkdirs()) throw new IORuntimeException(
+                    "org.karlbennett.jni.JniUtils.extractNativeLibrary(jarDir, fsDir, libName) - Unable to create the " +
+                            "native library extraction directory: " + fsDir);
+
+            // Otherwise if the directory already exists then make sure that we can write to it.
+        } else if (!fsLibraryDir.canWrite()) throw new IORuntimeException(
+                "org.karlbennett.jni.JniUtils.extractNativeLibrary(jarDir, fsDir, libName) - Unable to write to the " +
+                        "native library extraction directory: " + fsDir);
+
+        jarDir = checkDirSlash(jarDir); // Make sure the jarDir contains a trailing slash.
+
+        NativeLibraryIndex.Directory directory = NativeLibraryIndex.directory(Thread.currentThread().getContextClassLoader(), jarDir);
+
+        URL resource = nativeLibraryResource(Thread.currentThread().getContextClassLoader(), jarDir, libFileName, bundleReader);
+
+        // Create the local file system native library file, a compressed native library is extracted under its decompressed name.
+        File fsFile = new File(fsLibraryDir, NativeLibraryCompression.uncompressedName(libFileName));
+
+        // If the native library is in a manifest then the manifest entry can be used to check for an existing extracted copy.
+        NativeLibraryManifest.Entry entry = directory.manifest == null ? null : directory.manifest.get(libFileName);
+
+        boolean versioned = isNativeLibraryVersionedExtractionEnabled();
+        ExtractionCache.Key versionKey = null;
+
+        try {
+
+            if (versioned) {
+
+                // Each version of the native library gets a directory of its own that is named after the content of the resource.
+                versionKey = ExtractionCache.key(resource, entry);
+                fsFile = new File(ExtractionVersions.acquire(fsLibraryDir, versionKey), fsFile.getName());
+            }
+
+            // Another process may have a versioned copy mapped, so it must only ever be replaced by a rename, never written over in place.
+            if (versioned || isNativeLibraryAtomicExtractionEnabled()) {
+
+                long written = versionKey != null ? writeNativeLibraryAtomically(resource, fsFile, versionKey)
+                        : writeNativeLibraryAtomically(resource, fsFile, entry);
+
+                result.setCacheHit(written < 0);
+                result.setBytesCopied(Math.max(0, written));
+
+            } else if (isNativeLibraryCacheEnabled()) {
+
+                // Only extract the native library if there isn't already an identical copy in the extraction directory.
+                ExtractionCache.Key key = ExtractionCache.key(resource, entry);
+
+                if (ExtractionCache.isCurrent(fsFile, key)) {
+
+                    result.setCacheHit(true);
+
+                } else {
+
+                    // Remove the old record first so that a half written file can never be mistaken for a current one.
+                    ExtractionCache.invalidate(fsFile);
+
+                    MessageDigest digest = createDigest();
+
+                    result.setBytesCopied(writeNativeLibrary(resource, fsFile, digest));
+
+                    ExtractionCache.record(fsFile, key, digest.digest());
+                }
+
+            } else {
+
+                result.setBytesCopied(writeNativeLibrary(resource, fsFile, null));
+            }
+
+        } catch (IOException e) {
+
+            // If anything goes wrong here throw the resultant exception as our custom IO runtime exception.
+            throw new IORuntimeException(e);
+        }
+
+        // Clearing out the old versions can wait until the application has finished starting up.
+        if (versioned && !result.isCacheHit()) scheduleNativeLibraryEviction(fsLibraryDir);
+
+        result.setExtracted(true);
+        result.setExtractNanos(System.nanoTime() - start);
+
+        return fsFile;
+    }
+
+    /**
+     * Extract the native library that the provided result is for unless another thread is already extracting or loading it, in which case
+     * its file is returned once that has finished.
+     * <p/>
+     * The extraction is claimed in the registry by the path that the native library will be loaded from, so that a file that is being loaded
+     * is never rewritten underneath the load.
+     *
+     * @param jarDir       - the directory within the JAR where the native library files can be found.
+     * @param fsDir        - the directory within the filesystem where the native library files will be extracted to.
+     * @param result       - the result for the native library, this must already have the full file name of the native library.
+     * @param bundleReader - the reader of the directory's bundle that is shared with other extractions, or null to read the bundle afresh.
+     * @return the extracted native library file.
+     */
+    private static File extractOnce(final String jarDir, final String fsDir, final NativeLibraryLoadResult result,
+                                    final NativeLibraryBundle.Reader bundleReader) {
+
+        return REGISTRY.extract(fsPath(fsDir, result.getFileName()), new Callable<File>() {
+
+            public File call() {
+
+                return extract(jarDir, fsDir, result.getFileName(), result, bundleReader);
+            }
+        });
+    }
+
+    /**
+     * Load the native library with the provided name, see {@link #loadNativeLibrary(String, String, String)}.
+     *
+     * @param jarDir  - the directory within the JAR where the native library files can be found.
+     * @param fsDir   - the directory within the filesystem where the native library files will be extracted to.
+     * @param libName - the full or simple name of a native library.
+     * @return the loaded native library file.
+     */
+    private static File load(String jarDir, String fsDir, String libName) {
+
+        return load(jarDir, fsDir, libName, null);
+    }
+
+    /**
+     * Load the native library with the provided name, checking the native methods of the provided class against it once it has been loaded.
+     *
+     * @param jarDir  - the directory within the JAR where the native library files can be found.
+     * @param fsDir   - the directory within the filesystem where the native library files will be extracted to.
+     * @param libName - the full or simple name of a native library.
+     * @param owner   - the class that declares the native methods that the native library implements, this can be null.
+     * @return the loaded native library file.
+     */
+    private static File load(String jarDir, String fsDir, String libName, Class<?> owner) {
+
+        // If this exact request has been made before then the library has already been loaded so there is nothing left to do.
+        String request = requestKey(jarDir, fsDir, libName);
+        File loaded = REGISTRY.get(request);
+        if (loaded != null) return loaded;
+
+        NativeLibraryLoadResult result = new NativeLibraryLoadResult(libName);
+
+        // A native library that was installed ahead of time is loaded straight from the extraction directory without reading the class path.
+        File installed = NativeLibraryInstaller.installedFile(fsDir, libName);
+
+        if (installed != null) {
+
+            result.setFileName(installed.getName());
+
+            return REGISTRY.load(request, installed.getAbsolutePath(), loader(jarDir, fsDir, result, installed, owner));
+        }
+
+        // Get the full name of the native library file.
+        String libFileName = resolve(jarDir, result);
+
+        // A native library that is already a plain file on the local file system doesn't need to be extracted.
+        File inPlace = inPlaceFile(jarDir, libFileName, result);
+
+        // The library is registered against the file that will be loaded so that different names for the same library only load it once.
+        return REGISTRY.load(request, loadPath(fsDir, libFileName, inPlace), loader(jarDir, fsDir, result, inPlace, owner));
+    }
+
+    /**
+     * Returns the file that the provided native library can be loaded from without being extracted.
+     * <p/>
+     * This is only possible when the native library is a plain file on the class path, a native library within a JAR has to be extracted.
+     *
+     * @param jarDir      - the directory within the JAR where the native library files can be found.
+     * @param libFileName - the full file name of a native library.
+     * @param result      - the result that the search of the class path is counted in.
+     * @return the native library file on the class path or null if the native library has to be extracted.
+     */
+    private static File inPlaceFile(String jarDir, String libFileName, NativeLibraryLoadResult result) {
+
+        // A compressed native library always has to be decompressed somewhere before it can be loaded.
+        if (!isNativeLibraryInPlaceLoadingEnabled() || NativeLibraryCompression.isCompressed(libFileName)) return null;
+
+        // Neither does a bundled native library, which is used in preference to any file of the same name.
+        if (bundleEntry(jarDir, libFileName) != null) return null;
+
+        result.addProbe();
+
+        URL resource = Thread.currentThread().getContextClassLoader().getResource(checkDirSlash(jarDir) + libFileName);
+
+        if (resource == null || !FILE_PROTOCOL.equals(resource.getProtocol())) return null;
+
+        File file = toFile(resource);
+
+        return file.isFile() ? file.getAbsoluteFile() : null;
+    }
+
+    /**
+     * Create a new directory within the provided directory for an isolated copy of a native library.
+     *
+     * @param fsDir - the directory within the filesystem where the native library files will be extracted to.
+     * @return the new empty directory.
+     * @throws IOException if the directory could not be created.
+     */
+    private static File isolatedDir(String fsDir) throws IOException {
+
+        File fsLibraryDir = new File(checkDirSlash(fsDir));
+
+        if (!fsLibraryDir.isDirectory() && !fsLibraryDir.mkdirs()) throw new IOException(
+                "Unable to create the native library extraction directory: " + fsDir);
+
+        // A temporary file name is unique across every JVM that shares the directory, the file is then swapped for a directory.
+        File dir = File.createTempFile(ISOLATED_DIR_PREFIX, "", fsLibraryDir);
+
+        if (!dir.delete() || !dir.mkdir()) throw new IOException("Unable to create the isolated native library directory: " + dir);
+
+        return dir;
+    }
+
+    /**
+     * Record the failure of an isolated native library load and remove anything that was extracted for it.
+     *
+     * @param result  - the result of the load.
+     * @param dir     - the directory that the native library was extracted to, or null if it wasn't created.
+     * @param failure - the failure.
+     * @return the failure so that it can be thrown.
+     */
+    private static <T extends Throwable> T failIsolated(NativeLibraryLoadResult result, File dir, T failure) {
+
+        result.setFailure(failure);
+
+        if (dir != null) {
+
+            File[] files = dir.listFiles();
+
+            if (files != null) for (File file : files) file.delete();
+
+            dir.delete();
+        }
+
+        return failure;
+    }
+
+    /**
+     * Returns the URL of the provided native library file, either within the directory's bundle or on the class path.
+     *
+     * @param classLoader  - the class loader that the native library files are found with.
+     * @param jarDir       - the directory within the JAR where the native library files can be found, with a trailing slash.
+     * @param libFileName  - the full file name of a native library.
+     * @param bundleReader - the reader of the directory's bundle that is shared with other extractions, or null to read the bundle afresh.
+     * @return the URL of the native library file.
+     */
+    static URL nativeLibraryResource(ClassLoader classLoader, String jarDir, String libFileName, NativeLibraryBundle.Reader bundleReader) {
+
+        NativeLibraryIndex.Directory directory = NativeLibraryIndex.directory(classLoader, jarDir);
+
+        NativeLibraryBundle.Entry bundled = directory.bundle == null ? null : directory.bundle.get(libFileName);
+
+        return bundled != null ? directory.bundle.url(bundled, bundleReader) : classLoader.getResource(jarDir + libFileName);
+    }
+
+    /**
+     * Returns the entry for the provided native library in the bundle of the provided directory.
+     *
+     * @param jarDir      - the directory within the JAR where the native library files can be found.
+     * @param libFileName - the full file name of a native library.
+     * @return the bundle entry or null if the directory doesn't have a bundle or the native library isn't in it.
+     */
+    private static NativeLibraryBundle.Entry bundleEntry(String jarDir, String libFileName) {
+
+        NativeLibraryBundle bundle = NativeLibraryIndex.directory(Thread.currentThread().getContextClassLoader(), checkDirSlash(jarDir)).bundle;
+
+        return bundle == null ? null : bundle.get(libFileName);
+    }
+
+    /**
+     * Returns the absolute path of the file that the provided native library will be loaded from.
+     * <p/>
+     * A native library that is extracted into a versioned directory is still recorded under this path, so that only one version of it is
+     * ever loaded from the same extraction directory.
+     *
+     * @param fsDir       - the directory within the filesystem where the native library files will be extracted to.
+     * @param libFileName - the full file name of a native library.
+     * @param inPlace     - the native library file on the class path if it can be loaded without being extracted, otherwise null.
+     * @return the path of the file that will be loaded.
+     */
+    private static String loadPath(String fsDir, String libFileName, File inPlace) {
+
+        return inPlace != null ? inPlace.getAbsolutePath() : fsPath(fsDir, libFileName);
+    }
+
+    /**
+     * Find the full file name of the native library that the provided result is for, failing if it can't be found.
+     * <p/>
+     * A failure is reported to the listeners straight away because the native library will never get as far as being loaded.
+     *
+     * @param jarDir - the directory within the JAR where the native library files can be found.
+     * @param result - the result for the native library, its file name is set to the full file name.
+     * @return the full file name of the native library.
+     */
+    private static String resolve(String jarDir, NativeLibraryLoadResult result) {
+
+        long start = System.nanoTime();
+
+        try {
+
+            result.setFileName(requireNativeLibraryName(jarDir, result.getLibName(), result));
+            result.setResolveNanos(System.nanoTime() - start);
+
+            return result.getFileName();
+
+        } catch (RuntimeException e) {
+
+            result.setResolveNanos(System.nanoTime() - start);
+            result.setFailure(e);
+            fireNativeLibraryEvent(result);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the key that a request to load a native library with the provided arguments is registered against.
+     */
+    private static String requestKey(String jarDir, String fsDir, String libName) {
+
+        return jarDir + File.pathSeparatorChar + fsDir + File.pathSeparatorChar + libName;
+    }
+
+    /**
+     * Returns the absolute path of the file that the provided native library would be loaded from.
+     */
+    private static String fsPath(String fsDir, String libFileName) {
+
+        return new File(checkDirSlash(fsDir), NativeLibraryCompression.uncompressedName(libFileName)).getAbsolutePath();
+    }
+
+    /**
+     * Create the task that extracts and loads the provided native library.
+     *
+     * The task records how long each phase took in the provided result and reports the result to the listeners once it has finished,
+     * whether or not the native library was loaded.
+     *
+     * @param jarDir    - the directory within the JAR where the native library files can be found.
+     * @param fsDir     - the directory within the filesystem where the native library files will be extracted to.
+     * @param result    - the result for the native library, this must already have the full file name of the native library.
+     * @param extracted - the native library file if it has already been extracted or doesn't need to be, otherwise null.
+     * @return the task.
+     */
+    private static Callable<File> loader(String jarDir, String fsDir, NativeLibraryLoadResult result, File extracted) {
+
+        return loader(jarDir, fsDir, result, extracted, null);
+    }
+
+    /**
+     * Create the task that extracts and loads the provided native library then checks the native methods of the provided class against it,
+     * see {@link #loader(String, String, NativeLibraryLoadResult, File)}.
+     *
+     * @param jarDir    - the directory within the JAR where the native library files can be found.
+     * @param fsDir     - the directory within the filesystem where the native library files will be extracted to.
+     * @param result    - the result for the native library, this must already have the full file name of the native library.
+     * @param extracted - the native library file if it has already been extracted or doesn't need to be, otherwise null.
+     * @param owner     - the class that declares the native methods that the native library implements, this can be null.
+     * @return the task.
+     */
+    private static Callable<File> loader(final String jarDir, final String fsDir, final NativeLibraryLoadResult result,
+                                         final File extracted, final Class<?> owner) {
+
+        return new Callable<File>() {
+
+            public File call() {
+
+                try {
+
+                    // Extract the native library file then load the local file system copy.
+                    File file = extracted == null ? extractOnce(jarDir, fsDir, result, null) : extracted;
+
+                    long start = System.nanoTime();
+
+                    try {
+
+                        System.load(file.getAbsolutePath());
+
+                    } finally {
+
+                        result.setLoadNanos(System.nanoTime() - start);
+                    }
+
+                    result.setFile(file);
+
+                    // The native library has been loaded whatever the check finds, so it is the listeners that are told about it.
+                    if (owner != null) result.setUnboundMethods(checkNativeMethods(owner, file, REGISTRY.loaded()));
+
+                    return file;
+
+                } catch (RuntimeException e) {
+
+                    result.setFailure(e);
+
+                    throw e;
+
+                } catch (Error e) {
+
+                    result.setFailure(e);
+
+                    throw e;
+
+                } finally {
+
+                    fireNativeLibraryEvent(result);
+                }
+            }
+        };
+    }
+
+    /**
+     * Add the provided native library to the provided order after all of its dependencies, this is a depth first topological sort.
+     * <p/>
+     * Native libraries can depend on each other in a cycle, in that case the cycle is broken at the point where it was first entered.
+     *
+     * @param name         - the full file name of the native library.
+     * @param dependencies - the full file names of the dependencies of each native library.
+     * @param visited      - the native libraries that have already been visited.
+     * @param order        - the load order that is being built up.
+     */
+    private static void dependencyOrder(String name, Map<String, List<String>> dependencies, Set<String> visited, List<String> order) {
+
+        if (!visited.add(name)) return;
+
+        for (String dependency : dependencies.get(name)) dependencyOrder(dependency, dependencies, visited, order);
+
+        order.add(name);
+    }
+
+    /**
+     * Create an executor for extracting native libraries on background threads.
+     * <p/>
+     * The threads are daemon threads so they will never keep the JVM alive, and they use the calling thread's context class loader so that
+     * they search the same class path.
+     *
+     * @param threads - the number of threads.
+     * @return the executor.
+     */
+    private static ExecutorService newExtractionExecutor(int threads) {
+
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new DaemonThreadFactory("jni-extract-", Thread.currentThread().getContextClassLoader()));
+    }
+
+    /**
+     * Find the full file name of the provided library name, failing if it can't be found.
+     *
+     * @param jarDir  - the directory within the JAR where the native library files can be found.
+     * @param libName - the full or simple name of a native library.
+     * @param result  - the result that each search of the class path is counted in.
+     * @return the full file name of the native library.
+     */
+    private static String requireNativeLibraryName(String jarDir, String libName, NativeLibraryLoadResult result) {
+
+        String libFileName = findNativeLibraryName(jarDir, libName, result);
+
+        // If the native library wasn't found then blow up cause odds are nothing else is going to work from here on.
+        // This is a runtime exception, which isn't the nicest thing in the world but I wanted to mirror the System.load() method as closely as
+        // possible and that doesn't explicitly throw any exceptions.
+        if (libFileName == null) throw new IORuntimeException(
+                "org.karlbennett.jni.JniUtils - Unable to find library " + libName + " on classpath under: " + jarDir);
+
+        return libFileName;
+    }
+
+    /**
+     * Write the native library at the provided class path URL out to the provided local file system file.
+     * <p/>
+     * The target file is sized up front whenever the size of the native library is known. If the native library is a plain file on the
+     * class path then it is copied with {@link FileChannel#transferTo(long, long, WritableByteChannel)} so that the bytes never have to be
+     * copied through the Java heap. If its size is known from the JAR then it is copied with
+     * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}, otherwise it is read through a large buffer.
+     * <p/>
+     * A compressed native library is decompressed as it is read so the decompressed native library is never held in memory all at once.
+     *
+     * @param resource - the URL of the native library on the class path.
+     * @param fsFile   - the local file system file that the native library is to be written to.
+     * @param digest   - a digest that will be updated with every byte that is written, this can be null.
+     * @return the number of bytes written.
+     * @throws IOException if there is a problem when reading and writing.
+     */
+    static long writeNativeLibrary(URL resource, File fsFile, MessageDigest digest) throws IOException {
+
+        URLConnection connection = resource.openConnection();
+
+        long size = -1; // The size of the native library file, if it can be found without reading it.
+
+        boolean transferFrom = false; // Whether the target file can be filled straight from the channel, which needs the size up front.
+
+        ReadableByteChannel in; // Channel variables need to be outside the try so they can be accessed within the finally.
+
+        if (NativeLibraryCompression.isCompressed(resource.getPath())) {
+
+            // The decompressed size isn't known until the whole file has been read so the target file can't be sized up front.
+            InputStream compressedIn = connection.getInputStream();
+
+            try {
+
+                in = Channels.newChannel(NativeLibraryCompression.decompress(resource.getPath(), compressedIn));
+
+            } catch (IOException e) {
+
+                compressedIn.close();
+
+                throw e;
+            }
+
+        } else if (FILE_PROTOCOL.equals(resource.getProtocol())) {
+
+            FileInputStream fileIn = new FileInputStream(toFile(resource));
+            size = fileIn.getChannel().size();
+            in = fileIn.getChannel();
+
+        } else {
+
+            if (connection instanceof JarURLConnection) {
+
+                JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+                if (entry != null) size = entry.getSize();
+
+            } else if (connection instanceof NativeLibraryBundle.EntryConnection) {
+
+                size = ((NativeLibraryBundle.EntryConnection) connection).getEntry().getLength();
+            }
+
+            in = Channels.newChannel(connection.getInputStream());
+            transferFrom = size > 0;
+        }
+
+        RandomAccessFile out = null;
+
+        try {
+            // Then open the local file system native library file.
+            out = new RandomAccessFile(fsFile, "rw");
+
+            // Size the file up front so that it is extended once rather than with every write, this also truncates any old content.
+            out.setLength(size > 0 ? size : 0);
+
+            FileChannel outChannel = out.getChannel();
+
+            long written = 0;
+
+            if (transferFrom) {
+
+                TransferSourceChannel source = new TransferSourceChannel(in, digest);
+
+                // transferFrom() is allowed to transfer less than it is asked to so keep going until it has nothing left to transfer.
+                while (written < size) {
+
+                    long transferred = outChannel.transferFrom(source, written, size - written);
+
+                    if (transferred <= 0) break; // The stream ended early, the file is trimmed to what was written below.
+
+                    written += transferred;
+                }
+
+                source.checkFailure();
+
+                // transferFrom() doesn't move the position of the target file, which anything left over has to be written after.
+                outChannel.position(written);
+            }
+
+            // Now that we are sure that we can extract the native library file write it, or whatever is left of it, to the local filesystem.
+            written += writeFile(in, digest == null ? outChannel : new DigestChannel(outChannel, digest));
+
+            // Trim the file in case the native library turned out to be smaller than expected.
+            outChannel.truncate(written);
+
+            return written;
+
+        } finally {
+
+            in.close();
+            if (out != null) out.close();
+        }
+    }
+
+    /**
+     * Write the native library at the provided class path URL out to the provided local file system file so that other threads and
+     * processes never see a partially written file.
+     * <p/>
+     * The extraction is guarded by an exclusive lock on a <code>".lock"</code> file next to the target file. Whoever holds the lock first
+     * writes the native library to a uniquely named temporary file then renames it over the target file, anyone else who was waiting for the
+     * lock will then find an up to date copy and reuse it.
+     *
+     * @param resource - the URL of the native library on the class path.
+     * @param fsFile   - the local file system file that the native library is to be written to.
+     * @param entry    - the manifest entry for the native library, this can be null.
+     * @return the number of bytes written or -1 if an up to date copy was already there.
+     * @throws IOException if there is a problem when reading and writing.
+     */
+    private static long writeNativeLibraryAtomically(URL resource, File fsFile, NativeLibraryManifest.Entry entry) throws IOException {
+
+        return writeNativeLibraryAtomically(resource, fsFile, ExtractionCache.key(resource, entry));
+    }
+
+    /**
+     * Write the native library at the provided class path URL out to the provided local file system file so that other threads and
+     * processes never see a partially written file, see {@link #writeNativeLibraryAtomically(URL, File, NativeLibraryManifest.Entry)}.
+     *
+     * @param resource - the URL of the native library on the class path.
+     * @param fsFile   - the local file system file that the native library is to be written to.
+     * @param key      - the cache key of the native library.
+     * @return the number of bytes written or -1 if an up to date copy was already there.
+     * @throws IOException if there is a problem when reading and writing.
+     */
+    private static long writeNativeLibraryAtomically(URL resource, File fsFile, ExtractionCache.Key key) throws IOException {
+
+        File lockFile = new File(fsFile.getParentFile(), fsFile.getName() + LOCK_FILE_SUFFIX);
+
+        // File locks are held by the whole JVM so threads within this JVM have to be kept from trying to lock the same file at the same time.
+        synchronized (EXTRACTION_LOCKS[(lockFile.getAbsolutePath().hashCode() & Integer.MAX_VALUE) % EXTRACTION_LOCKS.length]) {
+
+            RandomAccessFile lockAccess = new RandomAccessFile(lockFile, "rw");
+
+            try {
+
+                // Closing the file releases the lock so there is no need to keep hold of it.
+                lockAccess.getChannel().lock();
+
+                // Someone may have already extracted the native library while we were waiting for the lock.
+                if (ExtractionCache.isCurrent(fsFile, key)) return -1;
+
+                File tempFile = File.createTempFile(fsFile.getName() + '.', TEMP_FILE_SUFFIX, fsFile.getParentFile());
+
+                try {
+
+                    MessageDigest digest = createDigest();
+
+                    long written = writeNativeLibrary(resource, tempFile, digest);
+
+                    ExtractionCache.invalidate(fsFile);
+
+                    // A rename within a directory is atomic, anyone who opens the target file sees either the old file or the new one.
+                    // Some platforms won't rename over an existing file though so fall back to removing it first.
+                    if (!tempFile.renameTo(fsFile) && !(fsFile.delete() && tempFile.renameTo(fsFile))) throw new IOException(
+                            "Unable to rename " + tempFile + " to " + fsFile);
+
+                    ExtractionCache.record(fsFile, key, digest.digest());
+
+                    return written;
+
+                } finally {
+
+                    // The temporary file will only still exist if something went wrong.
+                    if (tempFile.exists() && !tempFile.delete()) tempFile.deleteOnExit();
+                }
+
+            } finally {
+
+                lockAccess.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the local file system file that the provided <code>"file:"</code> URL refers to.
+     *
+     * @param resource - a URL with the <code>"file:"</code> protocol.
+     * @return the file for the URL.
+     */
+    static File toFile(URL resource) {
+
+        try {
+
+            return new File(resource.toURI());
+
+        } catch (URISyntaxException e) {
+
+            // Some class loaders produce file URLs that aren't properly escaped, the raw path is the best we can do for these.
+            return new File(resource.getPath());
+        }
+    }
+
+    /**
+     * Create the digest that is used to fingerprint extracted native library files.
+     *
+     * @return a new SHA-256 message digest.
+     */
+    static MessageDigest createDigest() {
+
+        try {
+
+            return MessageDigest.getInstance(ExtractionCache.DIGEST_ALGORITHM);
+
+        } catch (NoSuchAlgorithmException e) {
+
+            // Every Java platform is required to support SHA-256 so this should never happen.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Convenience method, same as calling
+     * <code>loadNativeLibrary(getNativeLibraryJarDir(), getNativeLibraryExtractionDir(), "nativeLibFileName");</code>
+     *
+     * @param libName - the full or simple name of a native library.
+     */
+    public static void loadNativeLibrary(String libName) {
+
+        loadNativeLibrary(getNativeLibraryJarDir(), getNativeLibraryExtractionDir(), libName);
+    }
+
+    /**
+     * Convenience method, same as calling
+     * <code>loadNativeLibrary(owner, getNativeLibraryJarDir(), getNativeLibraryExtractionDir(), "nativeLibFileName");</code>
+     *
+     * @param owner   - the class that declares the native methods that the native library implements.
+     * @param libName - the full or simple name of a native library.
+     */
+    public static void loadNativeLibrary(Class<?> owner, String libName) {
+
+        loadNativeLibrary(owner, getNativeLibraryJarDir(), getNativeLibraryExtractionDir(), libName);
+    }
+
+    /**
+     * Check that every native method declared by the provided class is bound by the provided native library file.
+     * <p/>
+     * The JVM binds a native method to a function exported by any of the native libraries of the class loader, so a method that is exported
+     * by one of the other provided native libraries is also bound. Native libraries that weren't provided, or whose files have been removed
+     * since they were loaded, can't be looked at, so a method that only they implement is still listed.
+     *
+     * @param owner  - the class that declares the native methods.
+     * @param file   - the loaded native library file.
+     * @param others - the other native libraries that were loaded into the same class loader.
+     * @return the name and signature of each native method that couldn't be found, this is empty if they all were or they can't be checked.
+     */
+    private static List<String> checkNativeMethods(Class<?> owner, File file, Collection<File> others) {
+
+        final String JNI_ON_LOAD = "JNI_OnLoad";
+
+        NativeMethodTable table = NativeMethodTable.of(owner);
+
+        // The file of a native library that was loaded earlier may have been removed since, there is nothing left to check then.
+        if (table.getMethods().isEmpty() || !file.isFile()) return Collections.emptyList();
+
+        Set<String> exported = readExported(file);
+
+        // Only ELF files with a symbol table can be checked, and a native library with a JNI_OnLoad can register its methods without
+        // exporting them.
+        if (exported == null || exported.contains(JNI_ON_LOAD)) return Collections.emptyList();
+
+        List<Method> unboundMethods = new ArrayList<Method>();
+
+        for (Method method : table.getMethods()) if (!isExported(method, exported)) unboundMethods.add(method);
+
+        // Only look through the other native libraries if there is anything left to find, most of the time there isn't.
+        for (File loaded : unboundMethods.isEmpty() ? Collections.<File>emptySet() : others) {
+
+            if (loaded.equals(file) || !loaded.isFile()) continue;
+
+            Set<String> loadedExported = readExported(loaded);
+
+            if (loadedExported == null) continue;
+
+            for (Iterator<Method> methods = unboundMethods.iterator(); methods.hasNext(); ) {
+
+                if (isExported(methods.next(), loadedExported)) methods.remove();
+            }
+        }
+
+        List<String> unbound = new ArrayList<String>();
+
+        for (Method method : unboundMethods) unbound.add(owner.getName() + '.' + method.getName() + NativeMethodTable.signature(method));
+
+        return unbound;
+    }
+
+    /**
+     * Read the symbols that the provided native library file exports.
+     *
+     * @param file - a native library file.
+     * @return the exported symbols or null if they can't be read, such as when the file isn't an ELF file or is broken.
+     */
+    private static Set<String> readExported(File file) {
+
+        try {
+
+            ElfFile elf = ElfFile.read(file, true);
+
+            return elf == null ? null : elf.getExported();
+
+        } catch (IOException e) {
+
+            // The native library has already been loaded so a file that can't be read just can't be checked.
+            return null;
+
+        } catch (RuntimeException e) {
+
+            // The same goes for a broken file that the ELF reader trips over.
+            return null;
+        }
+    }
+
+    private static boolean isExported(Method method, Set<String> exported) {
+
+        return exported.contains(NativeMethodTable.shortName(method)) || exported.contains(NativeMethodTable.longName(method));
+    }
+
+    /**
+     * Returns the files of every native library that has been successfully loaded through this class.
+     *
+     * @return an unmodifiable set of the loaded native library files.
+     */
+    public static Set<File> getLoadedNativeLibraries() {
+
+        return REGISTRY.loaded();
+    }
+
+    /**
+     * Take a snapshot of the memory that every native library that has been loaded through this class is mapped into.
+     * <p/>
+     * This reads the memory mappings of the whole process, so it is cheap enough to sample now and again but shouldn't be called on every
+     * request.
+     *
+     * @return the snapshot or null if the memory mappings can't be read, which is always the case on anything other than Linux.
+     */
+    public static NativeLibraryMemory getNativeLibraryMemory() {
+
+        return NativeLibraryMemory.read(REGISTRY.loaded());
+    }
+
+    /**
+     * Add a listener that will be told about every native library load from now on.
+     *
+     * @param listener - the listener to add.
+     */
+    public static void addNativeLibraryListener(NativeLibraryListener listener) {
+
+        if (listener == null) throw new NullPointerException(
+                "org.karlbennett.jni.JniUtils.addNativeLibraryListener(listener) - listener cannot be null.");
+
+        LISTENERS.add(listener);
+    }
+
+    /**
+     * Remove a listener that was added with {@link #addNativeLibraryListener(NativeLibraryListener)}.
+     *
+     * @param listener - the listener to remove.
+     */
+    public static void removeNativeLibraryListener(NativeLibraryListener listener) {
+
+        LISTENERS.remove(listener);
+    }
+
+    /**
+     * Returns the JVM wide counters for every native library load that has been run through this class.
+     *
+     * @return the native library load stats.
+     */
+    public static NativeLibraryStats getNativeLibraryStats() {
+
+        return STATS;
+    }
+
+    /**
+     * Publish the native library load stats with the platform MBean server under the name
+     * <code>"org.karlbennett.jni:type=NativeLibraryStats"</code>.
+     * <p/>
+     * This is done automatically on the first native library load if the <code>"native.library.jmx"</code> Java property is set to
+     * <code>"true"</code>.
+     */
+    public static void registerNativeLibraryStatsMBean() {
+
+        STATS.register();
+    }
+
+    /**
+     * Returns whether or not the native library load stats will be published over JMX, see {@link #registerNativeLibraryStatsMBean()}.
+     *
+     * @return true if the stats will be published, otherwise false.
+     */
+    public static boolean isNativeLibraryJmxEnabled() {
+
+        return Boolean.parseBoolean(System.getProperty(NATIVE_LIBRARY_JMX_PROPERTY));
+    }
+
+    /**
+     * Tell the stats and every listener about the provided result.
+     *
+     * @param result - the result of a native library load.
+     */
+    private static void fireNativeLibraryEvent(NativeLibraryLoadResult result) {
+
+        if (isNativeLibraryJmxEnabled()) {
+
+            try {
+
+                STATS.register();
+
+            } catch (IllegalStateException e) {
+
+                // Not being able to publish the stats is no reason to stop loading native libraries.
+            }
+        }
+
+        fireNativeLibraryEvent(STATS, result);
+
+        for (NativeLibraryListener listener : ServiceListenersHolder.LISTENERS) fireNativeLibraryEvent(listener, result);
+
+        for (NativeLibraryListener listener : LISTENERS) fireNativeLibraryEvent(listener, result);
+    }
+
+    private static void fireNativeLibraryEvent(NativeLibraryListener listener, NativeLibraryLoadResult result) {
+
+        try {
+
+            if (result.isLoaded()) listener.nativeLibraryLoaded(result);
+            else listener.nativeLibraryFailed(result);
+
+        } catch (RuntimeException e) {
+
+            // A broken listener must never stop a native library from being loaded.
+        }
+    }
+
+    /**
+     * Convenience method, same as calling <code>findNativeLibraryName(getNativeLibraryJarDir(), "nativeLibFileName");</code>
+     *
+     * @param libName - the full or simple name of a native library.
+     * @return the full file name of the native related native library if it exists, otherwise null.
+     */
+    public static String findNativeLibraryName(String libName) {
+
+        return findNativeLibraryName(getNativeLibraryJarDir(), libName);
+    }
+
+    /**
+     * Find the actual name of the provided library name within the class path under the provided director path.
+     * <p/>
+     * That is if the full name is provided ("libnative.so") and a file with that name can be found within the class path then the same name will be
+     * returned ("libnative.so").
+     * <p/>
+     * Otherwise if a simple name is provided ("native") and a related native library file can be found then the full name for the provided simple
+     * name is returned ("libnative.so").
+     * <p/>
+     * If there is no plain native library file then a compressed one is looked for instead, the name of the compressed file is returned
+     * ("libnative.so.gz" or "libnative.so.deflate"). A compressed native library is decompressed as it is extracted.
+     *
+     * @param jarDir  - the directory within the JAR where the native library files can be found.
+     * @param libName - the full or simple name of a native library.
+     * @return the full file name of the native related native library if it exists, otherwise null.
+     */
+    public static String findNativeLibraryName(String jarDir, String libName) {
+
+        return findNativeLibraryName(jarDir, libName, new NativeLibraryLoadResult(libName));
+    }
+
+    /**
+     * Find the actual name of the provided library name, see {@link #findNativeLibraryName(String, String)}.
+     *
+     * @param jarDir  - the directory within the JAR where the native library files can be found.
+     * @param libName - the full or simple name of a native library.
+     * @param result  - the result that each search of the class path is counted in.
+     * @return the full file name of the native related native library if it exists, otherwise null.
+     */
+    private static String findNativeLibraryName(String jarDir, String libName, NativeLibraryLoadResult result) {
+
+        // libName cannot be null, if it is something has gone very wrong so blow up, but at least with an informative message.
+        if (libName == null) {
+
+            throw new NullPointerException(
+                    "org.karlbennett.jni.JniUtils.findNativeLibraryName(jarDir, libName) - libName cannot be null.");
+        }
+
+        // Make sure the jarDir has a trailing slash.
+        jarDir = checkDirSlash(jarDir);
+
+        NativeLibraryIndex.Directory directory = NativeLibraryIndex.directory(Thread.currentThread().getContextClassLoader(), jarDir);
+
+        // If the directory has a manifest then that is the quickest way to find the library.
+        NativeLibraryManifest.Entry entry = directory.manifest == null ? null : directory.manifest.find(libName);
+        if (entry != null) return entry.getFileName();
+
+        // Then the bundle, which holds its own index of the libraries within it.
+        if (directory.bundle != null) {
+
+            for (String candidate : candidateNativeLibraryNames(libName)) if (directory.bundle.get(candidate) != null) return candidate;
+        }
+
+        // Next try looking the library up in the index of the directory, the index isn't always complete though so if none of the possible
+        // names for the library are in it then fall back to asking the class loader directly, unless the index is known to be complete.
+        for (String candidate : candidateNativeLibraryNames(libName)) if (directory.names.contains(candidate)) return candidate;
+
+        // Build the path to the library file.
+        final String LIB_NAME = libName;
+        String libPath = jarDir + libName;
+
+        // If every class path root was listed then the library isn't there, there is no need to ask the class loader.
+        if (directory.complete) {
+
+            libName = null;
+
+            // If the provided path does not relate to an actual file within the class path then we will have to do some more in depth searching.
+        } else if (!isOnClassPath(libPath, result)) {
+
+            // Odds are that if we couldn't find the library file with the provided libName then it must have been a simple name so find the full
+            // library name and use that to create the path for the native library file.
+            libName = System.mapLibraryName(libName);
+            libPath = jarDir + libName;
+
+            /*
+                    Mac OS X dynamic libraries have the extension ".dylib", unfortunately under Mac OS X the
+                    System.mapLibraryName(String) function returns a file name with the extension ".jnilib" which of course more often that not will not
+                    be the extension of the dynamic library. So because of this we need to check if the ".jnilib" file actually exists, if it doesn't then
+                    change the extension to ".dylib" and try again.
+                    */
+            final String MAC_OS_X_JNI_EXT = ".jnilib";
+            final String MAC_OS_X_EXT = ".dylib";
+            if (libName.endsWith(MAC_OS_X_JNI_EXT)) { // Are we looking for a Mac OS X native library?
+
+                // If so does it exist as it's default ".jnilib" name?
+                if (!isOnClassPath(libPath, result)) {
+                    // If not replace the extension with the normal Mac OS X dynamic library extension.
+                    libName = libName.substring(0, libName.length() - MAC_OS_X_JNI_EXT.length()) + MAC_OS_X_EXT;
+                    // Then recreate the library path.
+                    libPath = jarDir + libName;
+                }
+            }
+
+            // Now that we hopefully have the correct native library name see if a related resource exists within the class path.
+            // If it doesn't clear the libPath variable because we can't return anything of use.
+            if (!isOnClassPath(libPath, result)) libName = null;
+        }
+
+        // The compressed files are only searched for once it's certain that there is no plain file, a complete index has already been
+        // checked for them along with the plain names.
+        if (libName == null && !directory.complete) {
+
+            for (String candidate : candidateNativeLibraryNames(LIB_NAME)) {
+
+                if (NativeLibraryCompression.isCompressed(candidate) && isOnClassPath(jarDir + candidate, result)) return candidate;
+            }
+        }
+
+        return libName;
+    }
+
+    /**
+     * Check whether the provided path can be found on the class path, counting the search in the provided result.
+     *
+     * @param path   - the path of a class path resource.
+     * @param result - the result that the search is counted in.
+     * @return true if the resource exists, otherwise false.
+     */
+    private static boolean isOnClassPath(String path, NativeLibraryLoadResult result) {
+
+        result.addProbe();
+
+        return Thread.currentThread().getContextClassLoader().getResource(path) != null;
+    }
+
+    /**
+     * Throw away the cached index of the native library directories on the class path.
+     * <p/>
+     * The first time {@link #findNativeLibraryName(String, String)} searches a directory for a class loader the files within that directory
+     * are indexed so that any later searches are just a hash lookup. The index only needs to be thrown away if native library files are
+     * added to the class path after they have been searched for.
+     */
+    public static void invalidateNativeLibraryIndex() {
+
+        NativeLibraryIndex.invalidateAll();
+    }
+
+    /**
+     * Returns every file name that the provided library name could refer to, in the order that they should be searched for.
+     * <p/>
+     * The plain file names come first followed by the compressed versions of each of them.
+     *
+     * @param libName - the full or simple name of a native library.
+     * @return the possible full file names of the native library.
+     */
+    private static List<String> candidateNativeLibraryNames(String libName) {
+
+        final String MAC_OS_X_JNI_EXT = ".jnilib";
+        final String MAC_OS_X_EXT = ".dylib";
+
+        List<String> candidates = new ArrayList<String>(9);
+
+        candidates.add(libName);
+
+        String mappedName = System.mapLibraryName(libName);
+        candidates.add(mappedName);
+
+        // Mac OS X dynamic libraries could also have the normal ".dylib" extension, see findNativeLibraryName(String, String).
+        if (mappedName.endsWith(MAC_OS_X_JNI_EXT)) {
+
+            candidates.add(mappedName.substring(0, mappedName.length() - MAC_OS_X_JNI_EXT.length()) + MAC_OS_X_EXT);
+        }
+
+        for (int i = 0, plainCount = candidates.size(); i < plainCount; i++) {
+
+            candidates.addAll(Arrays.asList(NativeLibraryCompression.compressedNames(candidates.get(i))));
+        }
+
+        return candidates;
+    }
+
+    /**
+     * Returns the directory within the jar where the native JNI library files can be found.
+     * <p/>
+     * By default the directory is <code>"lib/"</code> but it can be overridden by setting the <code>"native.library.jar.dir"</code> Java property.
+     *
+     * @return the current globally set location for where native JNI files can be found within a JAR file.
+     */
+    public static String getNativeLibraryJarDir() {
+
+        return System.getProperty(NATIVE_LIBRARY_JAR_DIR_PROPERTY, DEFAULT_NATIVE_LIBRARY_JAR_DIR);
+    }
+
+    /**
+     * Returns the directory within the local filesystem where the native library files will be extracted before they are loaded.
+     * <p/>
+     * By default the directory is the systems default temp directory, this is the value set in the<code>"java.io.tmpdir"</code> Java property.
+     * Though this can be overridden by setting the <code>"native.library.fs.dir"</code> Java property.
+     *
+     * @return the current globally set location for where native JNI files will be extracted.
+     */
+    public static String getNativeLibraryFSDir() {
+
+        return System.getProperty(NATIVE_LIBRARY_FS_DIR_PROPERTY, System.getProperty(DEFAULT_TEMP_DIR_PROPERTY));
+    }
+
+    /**
+     * Returns the directory within the local filesystem that the convenience methods extract native library files to.
+     * <p/>
+     * By default this is the same as {@link #getNativeLibraryFSDir()}. If the <code>"native.library.fs.mode"</code> Java property is set to
+     * <code>"memory"</code> then native libraries are extracted to a memory backed file system instead, so that extraction never has to write
+     * to disk. The directory is <code>"/dev/shm/"</code> by default but it can be overridden by setting the
+     * <code>"native.library.memory.fs.dir"</code> Java property.
+     * <p/>
+     * The memory directory is only used if it is on a <code>tmpfs</code> or <code>ramfs</code> file system that isn't mounted
+     * <code>noexec</code>, it can be written to and it has at least <code>"native.library.memory.fs.min.free"</code> bytes free (64 MB by
+     * default). Otherwise, or on anything other than Linux, this falls back to {@link #getNativeLibraryFSDir()}. The choice is made once for
+     * each setting so that every native library ends up in the same place.
+     * <p/>
+     * If {@link #getNativeLibraryFSDir()} holds native libraries that were installed ahead of time by {@link NativeLibraryInstaller} when the
+     * choice is made then it is used instead of the memory directory.
+     *
+     * @return the directory that native library files will be extracted to.
+     */
+    public static String getNativeLibraryExtractionDir() {
+
+        if (!NATIVE_LIBRARY_FS_MODE_MEMORY.equalsIgnoreCase(System.getProperty(NATIVE_LIBRARY_FS_MODE_PROPERTY))) return getNativeLibraryFSDir();
+
+        String memoryDir = System.getProperty(NATIVE_LIBRARY_MEMORY_FS_DIR_PROPERTY, DEFAULT_NATIVE_LIBRARY_MEMORY_FS_DIR);
+        long minFree = Long.getLong(NATIVE_LIBRARY_MEMORY_FS_MIN_FREE_PROPERTY, DEFAULT_NATIVE_LIBRARY_MEMORY_FS_MIN_FREE);
+        String fsDir = getNativeLibraryFSDir();
+
+        String setting = memoryDir + File.pathSeparatorChar + minFree + File.pathSeparatorChar + fsDir;
+
+        String dir = EXTRACTION_DIRS.get(setting);
+
+        if (dir == null) {
+
+            // A directory that native libraries were installed into ahead of time always wins, there is nothing left to extract.
+            dir = NativeLibraryInstaller.installed(fsDir) == null && isUsableMemoryDir(new File(memoryDir), minFree) ? memoryDir : fsDir;
+
+            EXTRACTION_DIRS.putIfAbsent(setting, dir);
+        }
+
+        return dir;
+    }
+
+    /**
+     * Check that native libraries can be extracted to and loaded from the provided directory on a memory backed file system.
+     *
+     * @param dir     - the directory, this doesn't have to exist yet.
+     * @param minFree - the least free space in bytes that the file system must have.
+     * @return true if the directory can be used, otherwise false.
+     */
+    private static boolean isUsableMemoryDir(File dir, long minFree) {
+
+        // A directory that doesn't exist yet will be created in the closest directory that does.
+        File existing = dir.getAbsoluteFile();
+        while (existing != null && !existing.exists()) existing = existing.getParentFile();
+
+        if (existing == null || !existing.isDirectory() || !existing.canWrite() || existing.getUsableSpace() < minFree) return false;
+
+        MountTable mounts = MountTable.read();
+
+        if (mounts == null) return false;
+
+        try {
+
+            MountTable.Mount mount = mounts.find(existing.getCanonicalFile());
+
+            return mount != null && mount.isExecutableMemory();
+
+        } catch (IOException e) {
+
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether or not native library files that have already been extracted will be reused.
+     * <p/>
+     * By default every call to {@link #loadNativeLibrary(String, String, String)} extracts a fresh copy of the native library, but if the
+     * <code>"native.library.cache"</code> Java property is set to <code>"true"</code> then an extracted file will be reused as long as it was
+     * extracted from an identical class path resource. Every extracted file is given a <code>".sha256"</code> sidecar file that records the
+     * CRC and size of the resource it came from along with the SHA-256 hash of the file itself, so that the check never has to read the
+     * extracted file.
+     *
+     * @return true if extracted native library files will be reused, otherwise false.
+     */
+    public static boolean isNativeLibraryCacheEnabled() {
+
+        return Boolean.parseBoolean(System.getProperty(NATIVE_LIBRARY_CACHE_PROPERTY));
+    }
+
+    /**
+     * Returns whether or not native library files that are plain files on the class path will be loaded from where they are.
+     * <p/>
+     * When the class path holds directories rather than JAR files, such as in an exploded WAR, an IDE or a Maven test run, the native library
+     * files on it are already on the local file system so by default they are loaded straight from the class path instead of being copied to
+     * the extraction directory first. Only native libraries within JAR files are extracted. Setting the <code>"native.library.in.place"</code>
+     * Java property to <code>"false"</code> makes every native library be extracted.
+     *
+     * @return true if native library files on the local file system class path will be loaded from where they are, otherwise false.
+     */
+    public static boolean isNativeLibraryInPlaceLoadingEnabled() {
+
+        return Boolean.parseBoolean(System.getProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY, "true"));
+    }
+
+    /**
+     * Returns whether or not native library files will be extracted atomically.
+     * <p/>
+     * If the <code>"native.library.atomic.extraction"</code> Java property is set to <code>"true"</code> then native libraries are extracted
+     * to a temporary file that is then renamed into place while holding a lock on a <code>".lock"</code> file next to the extracted file. This
+     * means that several processes can safely share the same extraction directory, the first one to get the lock extracts the native library
+     * and the rest reuse it in the same way as {@link #isNativeLibraryCacheEnabled()}.
+     *
+     * @return true if native library files will be extracted atomically, otherwise false.
+     */
+    public static boolean isNativeLibraryAtomicExtractionEnabled() {
+
+        return Boolean.parseBoolean(System.getProperty(NATIVE_LIBRARY_ATOMIC_EXTRACTION_PROPERTY));
+    }
+
+    /**
+     * Returns whether or not each version of a native library will be extracted into a directory of its own.
+     * <p/>
+     * If the <code>"native.library.versioned"</code> Java property is set to <code>"true"</code> then native libraries are extracted into
+     * <code>"jni-&lt;hash&gt;"</code> directories within the extraction directory that are named after the content of the class path
+     * resource, and an existing copy is reused in the same way as {@link #isNativeLibraryCacheEnabled()}. Upgrading an application then never
+     * overwrites a native library that an older version of it still has loaded. Each copy is always extracted as with
+     * {@link #isNativeLibraryAtomicExtractionEnabled()}, as another process may already have it loaded.
+     * <p/>
+     * The old versions are cleared out on a background thread after each extraction, see {@link #evictNativeLibraries(String)}.
+     *
+     * @return true if native library files will be extracted into versioned directories, otherwise false.
+     */
+    public static boolean isNativeLibraryVersionedExtractionEnabled() {
+
+        return Boolean.parseBoolean(System.getProperty(NATIVE_LIBRARY_VERSIONED_PROPERTY));
+    }
+
+    /**
+     * Returns the most bytes that the versioned extraction directories within an extraction directory should take up between them.
+     * <p/>
+     * By default this is 512 MB but it can be overridden by setting the <code>"native.library.fs.max.bytes"</code> Java property.
+     *
+     * @return the most bytes that the versioned extraction directories should take up.
+     */
+    public static long getNativeLibraryFSMaxBytes() {
+
+        return Long.getLong(NATIVE_LIBRARY_FS_MAX_BYTES_PROPERTY, DEFAULT_NATIVE_LIBRARY_FS_MAX_BYTES);
+    }
+
+    /**
+     * Returns the most versioned extraction directories that should be kept within an extraction directory.
+     * <p/>
+     * By default this is 64 but it can be overridden by setting the <code>"native.library.fs.max.entries"</code> Java property.
+     *
+     * @return the most versioned extraction directories that should be kept.
+     */
+    public static int getNativeLibraryFSMaxEntries() {
+
+        return Integer.getInteger(NATIVE_LIBRARY_FS_MAX_ENTRIES_PROPERTY, DEFAULT_NATIVE_LIBRARY_FS_MAX_ENTRIES);
+    }
+
+    /**
+     * Remove the least recently used versioned extraction directories from the provided extraction directory until the rest are within
+     * {@link #getNativeLibraryFSMaxBytes()} and {@link #getNativeLibraryFSMaxEntries()}.
+     * <p/>
+     * A versioned directory is only removed if no process, including this one, has used it since it started. Nothing other than the
+     * versioned directories is ever removed. This is run automatically on a background thread after a native library has been extracted
+     * with {@link #isNativeLibraryVersionedExtractionEnabled()} turned on, so there is normally no need to call it directly.
+     *
+     * @param fsDir - the directory within the filesystem where the native library files are extracted to.
+     * @return how many versioned directories were removed.
+     */
+    public static int evictNativeLibraries(String fsDir) {
+
+        return ExtractionVersions.evict(new File(fsDir), getNativeLibraryFSMaxBytes(), getNativeLibraryFSMaxEntries());
+    }
+
+    /**
+     * Run {@link #evictNativeLibraries(String)} for the provided extraction directory on a background thread, unless it is already waiting
+     * to be run.
+     *
+     * @param fsDir - the directory within the filesystem where the native library files are extracted to.
+     */
+    private static void scheduleNativeLibraryEviction(final File fsDir) {
+
+        if (PENDING_EVICTIONS.putIfAbsent(fsDir, Boolean.TRUE) != null) return;
+
+        EvictionExecutorHolder.EXECUTOR.execute(new Runnable() {
+
+            public void run() {
+
+                PENDING_EVICTIONS.remove(fsDir);
+
+                try {
+
+                    evictNativeLibraries(fsDir.getPath());
+
+                } catch (RuntimeException e) {
+
+                    // Eviction only keeps the extraction directory tidy, failing to do so shouldn't affect anything else.
+                }
+            }
+        });
+    }
+
+    /**
+     * Convenience method for writing one channel out into another.
+     * <p/>
+     * If both channels are file channels then the bytes are transferred with
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)} which lets the operating system copy them without them ever passing
+     * through the JVM. Otherwise the bytes are copied through a large heap buffer, which keeps the number of read and write calls far lower
+     * than {@link #writeFile(InputStream, OutputStream)}. The buffer isn't direct as a direct buffer is slow to allocate and is only freed
+     * once it has been garbage collected, and stream backed channels copy through a heap array regardless.
+     *
+     * @param in  - the channel that is to be read.
+     * @param out - the channel that is to be written to.
+     * @return the number of bytes written.
+     * @throws IOException if there is a problem when reading and writing.
+     */
+    public static long writeFile(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+
+        long written = 0; // The total number of bytes written.
+
+        if (in instanceof FileChannel && out instanceof FileChannel) {
+
+            FileChannel fileIn = (FileChannel) in;
+
+            long position = fileIn.position();
+            long size = fileIn.size();
+
+            // transferTo() is allowed to transfer less than it is asked to so keep going until the whole file has been transferred.
+            while (position + written < size) {
+
+                long transferred = fileIn.transferTo(position + written, size - position - written, out);
+
+                if (transferred <= 0) break; // The file has been truncated underneath us so there is nothing left to transfer.
+
+                written += transferred;
+            }
+
+            fileIn.position(position + written);
+
+            return written;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+
+        // Iterate writing bytes until the input channel reports the end of the stream.
+        while (in.read(buffer) >= 0 || buffer.position() > 0) {
+
+            buffer.flip();
+
+            written += out.write(buffer);
+
+            buffer.compact(); // Keep anything that couldn't be written for the next iteration.
+        }
+
+        return written;
+    }
+
+    /**
+     * Convenience method for writing an input stream out into an output stream.
+     *
+     * @param in  - the input stream that is to be read.
+     * @param out - the output stream that is to be written to.
+     * @throws IOException if there is a problem when reading and writing.
+     */
+    public static void writeFile(InputStream in, OutputStream out) throws IOException {
+
+        final int ARRAY_SIZE = 1024; // Size of the input read buffer.
+
+        int bytesRead = 0; // The number of bytes read in each iteration.
+
+        byte[] bytes = new byte[ARRAY_SIZE]; // The buffer to store the bytes that are to be written.
+
+        // Iterate writing bytes until we have read less than zero bytes which indicates the end of the input stream.
+        while ((bytesRead = in.read(bytes)) > 0) {
+
+            out.write(bytes, 0, bytesRead);
+        }
+    }
+
+
+    /**
+     * A channel that updates a digest with every byte that is written through it.
+     */
+    private static class DigestChannel implements WritableByteChannel {
+
+        private final WritableByteChannel channel;
+
+        private final MessageDigest digest;
+
+        private DigestChannel(WritableByteChannel channel, MessageDigest digest) {
+
+            this.channel = channel;
+            this.digest = digest;
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+
+            // Only digest the bytes that the underlying channel actually managed to write.
+            ByteBuffer written = src.duplicate();
+
+            int bytesWritten = channel.write(src);
+
+            written.limit(written.position() + bytesWritten);
+            digest.update(written);
+
+            return bytesWritten;
+        }
+
+        public boolean isOpen() {
+
+            return channel.isOpen();
+        }
+
+        public void close() throws IOException {
+
+            channel.close();
+        }
+    }
+
+    /**
+     * A channel that is read by {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}, which updates a digest with every byte
+     * that is read through it and holds on to any failure.
+     * <p/>
+     * transferFrom() quietly stops at a read that fails once it has transferred anything, so the failure has to be checked for afterwards.
+     */
+    private static class TransferSourceChannel implements ReadableByteChannel {
+
+        private final ReadableByteChannel channel;
+
+        private final MessageDigest digest;
+
+        private IOException failure;
+
+        private TransferSourceChannel(ReadableByteChannel channel, MessageDigest digest) {
+
+            this.channel = channel;
+            this.digest = digest;
+        }
+
+        public int read(ByteBuffer dst) throws IOException {
+
+            ByteBuffer read = dst.duplicate();
+
+            int bytesRead;
+
+            try {
+
+                bytesRead = channel.read(dst);
+
+            } catch (IOException e) {
+
+                failure = e;
+
+                throw e;
+            }
+
+            if (bytesRead > 0 && digest != null) {
+
+                read.limit(read.position() + bytesRead);
+                digest.update(read);
+            }
+
+            return bytesRead;
+        }
+
+        public boolean isOpen() {
+
+            return channel.isOpen();
+        }
+
+        public void close() throws IOException {
+
+            channel.close();
+        }
+
+        private void checkFailure() throws IOException {
+
+            if (failure != null) throw failure;
+        }
+    }
+
+
+    /**
+     * Creates named daemon threads with a fixed context class loader.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        private final String namePrefix;
+
+        private final ClassLoader contextClassLoader;
+
+        private DaemonThreadFactory(String namePrefix, ClassLoader contextClassLoader) {
+
+            this.namePrefix = namePrefix;
+            this.contextClassLoader = contextClassLoader;
+        }
+
+        public Thread newThread(Runnable runnable) {
+
+            Thread thread = new Thread(runnable, namePrefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(contextClassLoader);
+
+            return thread;
+        }
+    }
+
+    /**
+     * Holds the executor that runs {@link #loadNativeLibraryAsync(String, String, String)} so that its threads are only created if it is
+     * ever used.
+     */
+    private static class AsyncLoadExecutorHolder {
+
+        private static final ExecutorService EXECUTOR;
+
+        static {
+
+            final int THREADS = Runtime.getRuntime().availableProcessors();
+            final long KEEP_ALIVE_SECONDS = 60;
+
+            // Idle threads are allowed to die off because they are normally only needed while the application is starting up.
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("jni-load-", JniUtils.class.getClassLoader()));
+            executor.allowCoreThreadTimeOut(true);
+
+            EXECUTOR = executor;
+        }
+    }
+
+    /**
+     * Holds the executor that runs the evictions scheduled by {@link #scheduleNativeLibraryEviction(File)} so that its thread is only created
+     * if versioned extraction is ever used.
+     */
+    private static class EvictionExecutorHolder {
+
+        private static final ExecutorService EXECUTOR;
+
+        static {
+
+            final long KEEP_ALIVE_SECONDS = 60;
+
+            // A single low priority thread is plenty, evictions are rare and nothing waits for them.
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("jni-evict-", JniUtils.class.getClassLoader()) {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+
+                    Thread thread = super.newThread(runnable);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+
+            EXECUTOR = executor;
+        }
+    }
+
+    /**
+     * Holds the listeners that are declared as services so that the class path is only searched for them the first time a native library
+     * load is reported.
+     */
+    private static class ServiceListenersHolder {
+
+        private static final List<NativeLibraryListener> LISTENERS;
+
+        static {
+
+            List<NativeLibraryListener> listeners = new ArrayList<NativeLibraryListener>();
+
+            Iterator<NativeLibraryListener> services = ServiceLoader.load(NativeLibraryListener.class, JniUtils.class.getClassLoader()).iterator();
+
+            while (true) {
+
+                try {
+
+                    if (!services.hasNext()) break;
+
+                    listeners.add(services.next());
+
+                } catch (ServiceConfigurationError e) {
+
+                    // Skip any listener that can't be created, it shouldn't stop the others from being told about native library loads.
+                }
+            }
+
+            LISTENERS = Collections.unmodifiableList(listeners);
         }
     }
 }
@@ -0,0 +1,194 @@
+package org.karlbennett.jni;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * The file systems that are mounted on a Linux host, as listed in <code>"/proc/mounts"</code>.
+ * <p/>
+ * This is used to check that a directory is on a memory backed file system that native libraries can be loaded from, see
+ * {@link JniUtils#getNativeLibraryExtractionDir()}.
+ */
+final class MountTable {
+
+    /**
+     * The file that the Linux kernel lists the mounted file systems of the current process in.
+     */
+    static final String PROC_MOUNTS = "/proc/mounts";
+
+    /**
+     * The types of file system that are held in memory.
+     */
+    private static final Set<String> MEMORY_FILE_SYSTEM_TYPES = new HashSet<String>(Arrays.asList("tmpfs", "ramfs"));
+
+    /**
+     * The mount option that stops files on a file system from being executed, which includes being loaded as a native library.
+     */
+    private static final String NO_EXEC_OPTION = "noexec";
+
+
+    /**
+     * A single mounted file system.
+     */
+    static final class Mount {
+
+        final String mountPoint;
+
+        final String type;
+
+        final Set<String> options;
+
+        Mount(String mountPoint, String type, Set<String> options) {
+
+            this.mountPoint = mountPoint;
+            this.type = type;
+            this.options = options;
+        }
+
+        /**
+         * @return true if the file system is held in memory and native libraries can be loaded from it.
+         */
+        boolean isExecutableMemory() {
+
+            return MEMORY_FILE_SYSTEM_TYPES.contains(type) && !options.contains(NO_EXEC_OPTION);
+        }
+    }
+
+
+    private final List<Mount> mounts;
+
+
+    private MountTable(List<Mount> mounts) {
+
+        this.mounts = mounts;
+    }
+
+
+    /**
+     * Read the mount table of the current process.
+     *
+     * @return the mount table or null if it can't be read, which is always the case on anything other than Linux.
+     */
+    static MountTable read() {
+
+        File procMounts = new File(PROC_MOUNTS);
+
+        if (!procMounts.isFile()) return null;
+
+        try {
+
+            Reader reader = new InputStreamReader(new FileInputStream(procMounts), "UTF-8");
+
+            try {
+
+                return parse(reader);
+
+            } finally {
+
+                reader.close();
+            }
+
+        } catch (IOException e) {
+
+            return null;
+        }
+    }
+
+    /**
+     * Parse a mount table in the format of <code>"/proc/mounts"</code>.
+     *
+     * @param reader - the mount table.
+     * @return the parsed mount table.
+     * @throws IOException if the mount table could not be read.
+     */
+    static MountTable parse(Reader reader) throws IOException {
+
+        List<Mount> mounts = new ArrayList<Mount>();
+
+        BufferedReader lines = new BufferedReader(reader);
+
+        String line;
+
+        while ((line = lines.readLine()) != null) {
+
+            // Each line is "device mount-point type options dump pass".
+            String[] fields = line.trim().split("\\s+");
+
+            if (fields.length < 4) continue;
+
+            mounts.add(new Mount(unescape(fields[1]), fields[2], new HashSet<String>(Arrays.asList(fields[3].split(",")))));
+        }
+
+        return new MountTable(mounts);
+    }
+
+
+    /**
+     * Find the file system that the provided file is on.
+     *
+     * @param file - an absolute file.
+     * @return the file system or null if there isn't one that contains the file.
+     */
+    Mount find(File file) {
+
+        String path = file.getPath();
+
+        Mount found = null;
+
+        // Later mounts hide earlier ones at the same mount point so the last longest match wins.
+        for (Mount mount : mounts) {
+
+            if (!contains(mount.mountPoint, path)) continue;
+
+            if (found == null || mount.mountPoint.length() >= found.mountPoint.length()) found = mount;
+        }
+
+        return found;
+    }
+
+
+    private static boolean contains(String mountPoint, String path) {
+
+        if ("/".equals(mountPoint)) return path.startsWith("/");
+
+        return path.equals(mountPoint) || path.startsWith(mountPoint + '/');
+    }
+
+    /**
+     * The kernel escapes spaces, tabs, new lines and back slashes in mount points as three digit octal sequences e.g. <code>"\040"</code>.
+     */
+    private static String unescape(String field) {
+
+        StringBuilder unescaped = new StringBuilder(field.length());
+
+        for (int i = 0; i < field.length(); i++) {
+
+            char c = field.charAt(i);
+
+            if (c == '\\' && isOctal(field, i + 1)) {
+
+                unescaped.append((char) Integer.parseInt(field.substring(i + 1, i + 4), 8));
+
+                i += 3;
+
+            } else {
+
+                unescaped.append(c);
+            }
+        }
+
+        return unescaped.toString();
+    }
+
+    private static boolean isOctal(String field, int start) {
+
+        if (start + 3 > field.length()) return false;
+
+        for (int i = start; i < start + 3; i++) if (field.charAt(i) < '0' || field.charAt(i) > '7') return false;
+
+        return true;
+    }
+}
@@ -0,0 +1,205 @@
+package org.karlbennett.jni;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * A batch of operations that are all run with a single native call, the Java side of the <code>"jni_batch.h"</code> header which is shipped
+ * in the <code>"include/"</code> directory of this JAR.
+ * <p/>
+ * Each operation is written into a direct buffer as a fixed size request made up of an <code>int</code> operation, an <code>int</code>
+ * argument and a <code>long</code> value. The native method reads the requests straight out of the buffer and writes a <code>long</code>
+ * result for each of them into a second direct buffer. Both buffers are created once and reused, so running a batch doesn't create any
+ * Java objects and only crosses into native code once, however many operations it holds.
+ * <p/>
+ * A batch is not thread safe.
+ */
+public final class NativeBatch {
+
+    /**
+     * The size in bytes of each request, this must match <code>JNI_BATCH_REQUEST_SIZE</code>.
+     */
+    public static final int REQUEST_SIZE = 16;
+
+    /**
+     * The size in bytes of each result, this must match <code>JNI_BATCH_RESULT_SIZE</code>.
+     */
+    public static final int RESULT_SIZE = 8;
+
+    private static final int ARG_OFFSET = 4;
+
+    private static final int VALUE_OFFSET = 8;
+
+
+    /**
+     * Runs the requests in a batch, this is normally a thin wrapper around a native method that calls <code>jni_batch_run()</code>.
+     * <p/>
+     * Create a processor once and reuse it, so that flushing a batch doesn't create a new one every time.
+     */
+    public interface Processor {
+
+        /**
+         * Run the provided requests and write a result for each of them.
+         *
+         * @param requests - the direct buffer of requests.
+         * @param results  - the direct buffer that the results are written into.
+         * @param count    - how many requests there are.
+         * @return how many requests were run.
+         */
+        int process(ByteBuffer requests, ByteBuffer results, int count);
+    }
+
+
+    private final int capacity;
+
+    private final ByteBuffer requests;
+
+    private final ByteBuffer results;
+
+    /**
+     * How many requests are waiting to be run.
+     */
+    private int size;
+
+    /**
+     * How many results there are from the last time the batch was flushed.
+     */
+    private int completed;
+
+
+    /**
+     * Create a batch that can hold up to the provided number of requests.
+     *
+     * @param capacity - the most requests that the batch can hold.
+     */
+    public NativeBatch(int capacity) {
+
+        if (capacity <= 0) throw new IllegalArgumentException(
+                "org.karlbennett.jni.NativeBatch(capacity) - The capacity must be positive: " + capacity);
+
+        this.capacity = capacity;
+
+        // The native code reads the buffers as C structs so they have to be in the native byte order.
+        this.requests = ByteBuffer.allocateDirect(capacity * REQUEST_SIZE).order(ByteOrder.nativeOrder());
+        this.results = ByteBuffer.allocateDirect(capacity * RESULT_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+
+    /**
+     * Add a request to the batch.
+     *
+     * @param op    - the operation to run, its meaning is up to the native method.
+     * @param arg   - an argument for the operation.
+     * @param value - a value for the operation.
+     * @return true if the request was added, false if the batch is full and has to be flushed first.
+     */
+    public boolean add(int op, int arg, long value) {
+
+        if (size == capacity) return false;
+
+        int offset = size * REQUEST_SIZE;
+
+        requests.putInt(offset, op);
+        requests.putInt(offset + ARG_OFFSET, arg);
+        requests.putLong(offset + VALUE_OFFSET, value);
+
+        size++;
+
+        return true;
+    }
+
+    /**
+     * Run every request in the batch with a single call to the provided processor. The batch is then empty again, and the results can be read
+     * with {@link #getResult(int)} until the next flush.
+     * <p/>
+     * If the processor runs fewer requests than there were then only the requests that weren't run are left in the batch, in the same order,
+     * to be run by the next flush.
+     * <p/>
+     * If the processor fails then the requests are kept so that the batch can be flushed again, or thrown away with {@link #clear()}.
+     *
+     * @param processor - the processor that runs the requests.
+     * @return how many requests were run.
+     * @throws IllegalStateException if the processor claims to have run more requests than there were, or fewer than none.
+     */
+    public int flush(Processor processor) {
+
+        int count = size;
+
+        // Whatever happens the results of the last flush are no longer those of the requests in the buffer.
+        completed = 0;
+
+        if (count == 0) return 0;
+
+        int processed = processor.process(requests, results, count);
+
+        if (processed < 0 || processed > count) throw new IllegalStateException(
+                "org.karlbennett.jni.NativeBatch.flush(processor) - " + processed + " of " + count + " requests were processed.");
+
+        // Requests that weren't run move to the front of the buffer so that they go first in the next flush.
+        if (processed < count) {
+
+            requests.limit(count * REQUEST_SIZE).position(processed * REQUEST_SIZE);
+            requests.compact();
+            requests.clear();
+        }
+
+        size = count - processed;
+        completed = processed;
+
+        return processed;
+    }
+
+    /**
+     * Returns the result of a request from the last time the batch was flushed.
+     *
+     * @param index - the position of the request within the batch, starting from 0.
+     * @return the result of the request.
+     * @throws IndexOutOfBoundsException if there isn't a result for the request.
+     */
+    public long getResult(int index) {
+
+        if (index < 0 || index >= completed) throw new IndexOutOfBoundsException(
+                "org.karlbennett.jni.NativeBatch.getResult(index) - There is no result for request: " + index);
+
+        return results.getLong(index * RESULT_SIZE);
+    }
+
+    /**
+     * Throw away any requests that haven't been run yet.
+     */
+    public void clear() {
+
+        size = 0;
+    }
+
+    /**
+     * @return how many requests are waiting to be run.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the most requests that the batch can hold.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the direct buffer that the requests are written into, for calling a native method without a {@link Processor}.
+     */
+    public ByteBuffer getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return the direct buffer that the results are written into, for calling a native method without a {@link Processor}.
+     */
+    public ByteBuffer getResults() {
+        return results;
+    }
+}
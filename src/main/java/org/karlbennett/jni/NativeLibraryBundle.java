@@ -0,0 +1,548 @@
+package org.karlbennett.jni;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Many native library files packed into a single class path resource (<code>"native-libraries.bundle"</code>) within a native library
+ * directory, along with an index of where each of them is.
+ * <p/>
+ * Every native library file in a JAR costs a class path search to find it and a zip entry lookup and inflater to read it. A bundle is found
+ * once, its index is read once and kept along with the directory listing, see {@link NativeLibraryIndex}. Any number of the native libraries
+ * within it can then be extracted with a single sequential read of the bundle, see
+ * {@link JniUtils#loadNativeLibraries(String, String, java.util.Collection, int)}. A native library in a bundle is used in preference to a
+ * file of the same name in the same directory.
+ * <p/>
+ * The bundle starts with a big endian header:
+ * <pre>
+ *     int    magic, "JNIB"
+ *     int    version, 1
+ *     int    count
+ *     count entries of:
+ *         UTF    file name, as written by DataOutputStream.writeUTF(String)
+ *         long   offset of the file from the end of the header
+ *         long   length of the file
+ *         int    CRC-32 of the file
+ * </pre>
+ * Followed by the native library files themselves, one after another. The CRC of each file is checked as it is read.
+ * <p/>
+ * Bundles are written with the main method of this class:
+ * <pre>
+ *     java org.karlbennett.jni.NativeLibraryBundle &lt;bundle file&gt; &lt;native library file or directory&gt;...
+ * </pre>
+ */
+public class NativeLibraryBundle {
+
+    /**
+     * The first four bytes of every bundle, <code>"JNIB"</code>.
+     */
+    public static final int MAGIC = 0x4A4E4942;
+
+    /**
+     * The version of the bundle format that this class reads and writes.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The protocol of the URLs that point at the native libraries within a bundle.
+     */
+    static final String PROTOCOL = "jnibundle";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+
+    /**
+     * Where a single native library file is within a bundle.
+     */
+    public static class Entry {
+
+        private final String fileName;
+
+        private final long offset;
+
+        private final long length;
+
+        private final int crc;
+
+        Entry(String fileName, long offset, long length, int crc) {
+
+            this.fileName = fileName;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * @return the offset of the file from the end of the bundle header.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return the CRC-32 of the file, as a signed int.
+         */
+        public int getCrc() {
+            return crc;
+        }
+    }
+
+
+    private final URL source;
+
+    /**
+     * The size of the header, which is where the first file starts.
+     */
+    private final long dataOffset;
+
+    /**
+     * The entries keyed by file name, in the order that the files are stored.
+     */
+    private final Map<String, Entry> entries;
+
+
+    private NativeLibraryBundle(URL source, long dataOffset, Map<String, Entry> entries) {
+
+        this.source = source;
+        this.dataOffset = dataOffset;
+        this.entries = entries;
+    }
+
+
+    /**
+     * Read the header of the bundle at the provided URL.
+     *
+     * @param source - the URL of the bundle.
+     * @return the bundle.
+     * @throws IOException if the bundle could not be read or isn't a bundle.
+     */
+    public static NativeLibraryBundle read(URL source) throws IOException {
+
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(source.openStream()));
+
+        try {
+
+            DataInputStream in = new DataInputStream(counter);
+
+            if (in.readInt() != MAGIC) throw new IOException("Not a native library bundle: " + source);
+
+            int version = in.readInt();
+            if (version != VERSION) throw new IOException("Unsupported native library bundle version " + version + ": " + source);
+
+            int count = in.readInt();
+
+            Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+            for (int i = 0; i < count; i++) {
+
+                Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readInt());
+
+                entries.put(entry.getFileName(), entry);
+            }
+
+            return new NativeLibraryBundle(source, counter.count, Collections.unmodifiableMap(entries));
+
+        } finally {
+
+            counter.close();
+        }
+    }
+
+    /**
+     * Write a bundle of the provided native library files.
+     *
+     * @param files - the native library files, these can't be compressed.
+     * @param out   - the stream that the bundle is written to.
+     * @throws IOException if a file could not be read or the bundle could not be written.
+     */
+    public static void write(List<File> files, OutputStream out) throws IOException {
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(files.size());
+
+        long offset = 0;
+
+        for (File file : files) {
+
+            // A bundled file is read straight into place so it can't be decompressed on the way.
+            if (NativeLibraryCompression.isCompressed(file.getName())) throw new IllegalArgumentException(
+                    "org.karlbennett.jni.NativeLibraryBundle.write(files, out) - Compressed files can't be bundled: " + file);
+
+            data.writeUTF(file.getName());
+            data.writeLong(offset);
+            data.writeLong(file.length());
+            data.writeInt(crc(file));
+
+            offset += file.length();
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        for (File file : files) {
+
+            InputStream in = new FileInputStream(file);
+
+            try {
+
+                int bytesRead;
+                while ((bytesRead = in.read(buffer)) > 0) data.write(buffer, 0, bytesRead);
+
+            } finally {
+
+                in.close();
+            }
+        }
+
+        data.flush();
+    }
+
+    /**
+     * Write a bundle of native library files. The first argument is the bundle file, the rest are native library files or directories whose
+     * native library files should all be bundled.
+     *
+     * @param args - the bundle file followed by the native library files and directories.
+     * @throws IOException if a file could not be read or the bundle could not be written.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2) {
+
+            System.err.println("Usage: java " + NativeLibraryBundle.class.getName() + " <bundle file> <native library file or directory>...");
+            System.exit(1);
+        }
+
+        List<File> files = new ArrayList<File>();
+
+        for (int i = 1; i < args.length; i++) {
+
+            File file = new File(args[i]);
+
+            if (!file.isDirectory()) {
+
+                files.add(file);
+
+                continue;
+            }
+
+            File[] dirFiles = file.listFiles();
+
+            if (dirFiles == null) throw new IOException("Unable to list native library directory: " + file);
+
+            // Sort the files so that the same directory always produces the same bundle.
+            Arrays.sort(dirFiles);
+
+            for (File dirFile : dirFiles) {
+
+                String name = dirFile.getName();
+
+                if (dirFile.isFile() && NativeLibraryManifest.logicalName(name) != null && !NativeLibraryCompression.isCompressed(name)) {
+
+                    files.add(dirFile);
+                }
+            }
+        }
+
+        OutputStream out = new FileOutputStream(args[0]);
+
+        try {
+
+            write(files, out);
+
+        } finally {
+
+            out.close();
+        }
+    }
+
+
+    /**
+     * Returns the entry for the native library file with the provided name.
+     *
+     * @param fileName - the full file name of a native library.
+     * @return the entry or null if the file isn't in the bundle.
+     */
+    public Entry get(String fileName) {
+
+        return entries.get(fileName);
+    }
+
+    /**
+     * @return every entry in the bundle in the order that the files are stored.
+     */
+    public Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    /**
+     * Create a URL for the provided entry that reads it through the provided reader.
+     *
+     * @param entry  - an entry in this bundle.
+     * @param reader - the reader that the entry should be read through or null to read the entry on its own.
+     * @return the URL of the native library file.
+     */
+    URL url(final Entry entry, final Reader reader) {
+
+        try {
+
+            return new URL(PROTOCOL, null, -1, source.toExternalForm() + "!/" + entry.getFileName(), new URLStreamHandler() {
+
+                @Override
+                protected URLConnection openConnection(URL url) {
+
+                    return new EntryConnection(url, entry, reader != null ? reader : new Reader(), reader == null);
+                }
+            });
+
+        } catch (IOException e) {
+
+            // The URL is built from parts that are already known to be valid so this should never happen.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Create a reader that reads entries out of the bundle sequentially. Reading the entries in the order that they are stored means that
+     * the bundle is only opened and read once.
+     *
+     * @return a new reader, this has to be closed once it is finished with.
+     */
+    Reader reader() {
+
+        return new Reader();
+    }
+
+
+    private static int crc(File file) throws IOException {
+
+        InputStream in = new FileInputStream(file);
+
+        try {
+
+            CRC32 crc = new CRC32();
+
+            int bytesRead;
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            while ((bytesRead = in.read(buffer)) > 0) crc.update(buffer, 0, bytesRead);
+
+            return (int) crc.getValue();
+
+        } finally {
+
+            in.close();
+        }
+    }
+
+
+    /**
+     * Reads entries out of a single open stream of the bundle for as long as they are asked for in the order that they are stored. An entry
+     * that comes before the current position has to reopen the bundle.
+     * <p/>
+     * A reader is not thread safe.
+     */
+    final class Reader implements Closeable {
+
+        private InputStream in;
+
+        private long position;
+
+        private Reader() {
+        }
+
+        /**
+         * Open a stream of the provided entry, this has to be read to the end or closed before the next entry is opened.
+         */
+        InputStream open(Entry entry) throws IOException {
+
+            long start = dataOffset + entry.getOffset();
+
+            if (in == null || position > start) {
+
+                close();
+
+                in = source.openStream();
+                position = 0;
+            }
+
+            while (position < start) {
+
+                long skipped = in.skip(start - position);
+
+                // Some streams won't skip until something has been read from them.
+                if (skipped <= 0) {
+
+                    if (in.read() < 0) throw new EOFException("Unexpected end of native library bundle: " + source);
+
+                    skipped = 1;
+                }
+
+                position += skipped;
+            }
+
+            return new EntryInputStream(entry);
+        }
+
+        public void close() throws IOException {
+
+            if (in != null) in.close();
+
+            in = null;
+        }
+
+
+        /**
+         * Reads a single entry from the reader's stream, checking its CRC once the end is reached.
+         */
+        private final class EntryInputStream extends InputStream {
+
+            private final Entry entry;
+
+            private final CRC32 crc = new CRC32();
+
+            private long remaining;
+
+            private EntryInputStream(Entry entry) {
+
+                this.entry = entry;
+                this.remaining = entry.getLength();
+            }
+
+            @Override
+            public int read() throws IOException {
+
+                byte[] single = new byte[1];
+
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+
+                if (remaining == 0) return -1;
+
+                int bytesRead = in.read(bytes, offset, (int) Math.min(length, remaining));
+
+                if (bytesRead < 0) throw new EOFException("Unexpected end of native library bundle: " + source);
+
+                crc.update(bytes, offset, bytesRead);
+                position += bytesRead;
+                remaining -= bytesRead;
+
+                if (remaining == 0 && (int) crc.getValue() != entry.getCrc()) throw new IOException(
+                        "CRC mismatch for " + entry.getFileName() + " in native library bundle: " + source);
+
+                return bytesRead;
+            }
+
+            @Override
+            public int available() throws IOException {
+
+                return (int) Math.min(in.available(), remaining);
+            }
+        }
+    }
+
+    /**
+     * The connection to a single native library file within a bundle.
+     */
+    static final class EntryConnection extends URLConnection {
+
+        private final Entry entry;
+
+        private final Reader reader;
+
+        /**
+         * Whether or not the reader belongs to this connection alone, and so should be closed along with the stream.
+         */
+        private final boolean ownsReader;
+
+        private EntryConnection(URL url, Entry entry, Reader reader, boolean ownsReader) {
+
+            super(url);
+
+            this.entry = entry;
+            this.reader = reader;
+            this.ownsReader = ownsReader;
+        }
+
+        Entry getEntry() {
+            return entry;
+        }
+
+        @Override
+        public void connect() {
+
+            connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+
+            connect();
+
+            final InputStream in = reader.open(entry);
+
+            return new FilterInputStream(in) {
+
+                @Override
+                public void close() throws IOException {
+
+                    // A shared reader stays open for the next entry.
+                    if (ownsReader) reader.close();
+                }
+            };
+        }
+    }
+
+
+    /**
+     * Counts the bytes read through it, so that the size of the header is known once it has been read.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+
+            int read = super.read();
+
+            if (read >= 0) count++;
+
+            return read;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+
+            int bytesRead = super.read(bytes, offset, length);
+
+            if (bytesRead > 0) count += bytesRead;
+
+            return bytesRead;
+        }
+    }
+}
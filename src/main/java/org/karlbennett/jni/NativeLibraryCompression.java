@@ -0,0 +1,116 @@
+package org.karlbennett.jni;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * The compressed forms that a native library file can be stored on the class path in.
+ * <p/>
+ * A compressed native library has the name of the native library file with an extra suffix, <code>"libnative.so.gz"</code> for a gzip file
+ * or <code>"libnative.so.deflate"</code> for a zlib deflate stream. A native library that is stored compressed in a JAR is normally far
+ * smaller than one that is only compressed by the JAR itself, it is decompressed as it is extracted.
+ */
+final class NativeLibraryCompression {
+
+    /**
+     * The suffix of gzip compressed native library files.
+     */
+    static final String GZIP_SUFFIX = ".gz";
+
+    /**
+     * The suffix of zlib deflate compressed native library files.
+     */
+    static final String DEFLATE_SUFFIX = ".deflate";
+
+    /**
+     * The size of the buffer that compressed bytes are read into.
+     */
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+
+
+    /**
+     * This class only contains static methods so should never be instantiated.
+     */
+    private NativeLibraryCompression() {
+    }
+
+
+    /**
+     * Returns the compressed file names that the provided native library file could be stored as, in the order they should be searched for.
+     *
+     * @param fileName - the full file name of a native library.
+     * @return the possible compressed file names.
+     */
+    static String[] compressedNames(String fileName) {
+
+        return new String[]{fileName + GZIP_SUFFIX, fileName + DEFLATE_SUFFIX};
+    }
+
+    /**
+     * Returns whether or not the provided file name is the name of a compressed native library file.
+     *
+     * @param fileName - a file name.
+     * @return true if the file is compressed, otherwise false.
+     */
+    static boolean isCompressed(String fileName) {
+
+        return fileName.endsWith(GZIP_SUFFIX) || fileName.endsWith(DEFLATE_SUFFIX);
+    }
+
+    /**
+     * Returns the name of the provided file once it has been decompressed.
+     *
+     * @param fileName - a file name.
+     * @return the file name without its compression suffix, or the same file name if it isn't compressed.
+     */
+    static String uncompressedName(String fileName) {
+
+        if (fileName.endsWith(GZIP_SUFFIX)) return fileName.substring(0, fileName.length() - GZIP_SUFFIX.length());
+        if (fileName.endsWith(DEFLATE_SUFFIX)) return fileName.substring(0, fileName.length() - DEFLATE_SUFFIX.length());
+
+        return fileName;
+    }
+
+    /**
+     * Wrap the provided stream of a compressed file so that it is decompressed as it is read.
+     *
+     * @param fileName - the name of the compressed file.
+     * @param in       - the stream of the compressed file.
+     * @return the decompressed stream, or the same stream if the file isn't compressed.
+     * @throws IOException if the stream isn't in the expected format.
+     */
+    static InputStream decompress(String fileName, InputStream in) throws IOException {
+
+        if (fileName.endsWith(GZIP_SUFFIX)) return new GZIPInputStream(in, INPUT_BUFFER_SIZE);
+
+        if (fileName.endsWith(DEFLATE_SUFFIX)) {
+
+            final Inflater inflater = new Inflater();
+
+            // A stream that is given its own inflater doesn't free it when closed, so free it here rather than waiting for finalisation.
+            return new InflaterInputStream(in, inflater, INPUT_BUFFER_SIZE) {
+
+                @Override
+                public void close() throws IOException {
+
+                    try {
+
+                        super.close();
+
+                    } finally {
+
+                        inflater.end();
+                    }
+                }
+            };
+        }
+
+        return in;
+    }
+}
@@ -0,0 +1,261 @@
+package org.karlbennett.jni;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * A native library that has been loaded into a class loader of its own so that it can be unloaded again, see
+ * {@link JniUtils#loadIsolatedNativeLibrary(String, String, String, Collection)}.
+ * <p/>
+ * The JVM ties every native library to the class loader of the class that loaded it, and only unloads the native library once that class
+ * loader has been garbage collected. A native library loaded by {@link JniUtils} is tied to the class loader of <code>JniUtils</code> and
+ * so is never unloaded. The native library of a handle is instead loaded by a class that is defined in a child class loader, along with
+ * the classes that declare its native methods, so it is unloaded as soon as nothing refers to those classes any more.
+ * <p/>
+ * Closing the handle lets go of the class loader and removes the copy of the native library file, but the class loader can only be collected
+ * once every reference to the classes loaded through it, and to their instances, has been dropped too.
+ */
+public final class NativeLibraryHandle implements Closeable {
+
+    private volatile IsolatedClassLoader classLoader;
+
+    private final File file;
+
+    private final File dir;
+
+
+    private NativeLibraryHandle(IsolatedClassLoader classLoader, File file, File dir) {
+
+        this.classLoader = classLoader;
+        this.file = file;
+        this.dir = dir;
+    }
+
+
+    /**
+     * Load the provided native library file into a new class loader that defines the classes with the provided names itself.
+     *
+     * @param parent     - the class loader that every other class is loaded from.
+     * @param file       - the native library file, this must not have been loaded before.
+     * @param dir        - the directory that holds only the native library file and is removed along with it.
+     * @param classNames - the names of the classes that declare the native methods of the native library.
+     * @return the handle of the loaded native library.
+     */
+    static NativeLibraryHandle open(ClassLoader parent, File file, File dir, Collection<String> classNames) {
+
+        IsolatedClassLoader classLoader = new IsolatedClassLoader(parent, classNames);
+
+        try {
+
+            // The native library is tied to the class loader of the class that calls System.load() so it has to be called from within it.
+            Method load = classLoader.loadClass(Loader.class.getName()).getDeclaredMethod("load", String.class);
+            load.setAccessible(true);
+            load.invoke(null, file.getAbsolutePath());
+
+        } catch (InvocationTargetException e) {
+
+            Throwable cause = e.getCause();
+
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+
+            throw new IllegalStateException(cause);
+
+        } catch (ClassNotFoundException e) {
+
+            // The loader is part of this library so this should never happen.
+            throw new IllegalStateException(e);
+
+        } catch (NoSuchMethodException e) {
+
+            throw new IllegalStateException(e);
+
+        } catch (IllegalAccessException e) {
+
+            throw new IllegalStateException(e);
+        }
+
+        return new NativeLibraryHandle(classLoader, file, dir);
+    }
+
+
+    /**
+     * @return the copy of the native library file that was loaded.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the class loader that the native library is tied to.
+     * @throws IllegalStateException if the handle has been closed.
+     */
+    public ClassLoader getClassLoader() {
+
+        IsolatedClassLoader classLoader = this.classLoader;
+
+        if (classLoader == null) throw new IllegalStateException(
+                "org.karlbennett.jni.NativeLibraryHandle.getClassLoader() - The native library handle has been closed: " + file);
+
+        return classLoader;
+    }
+
+    /**
+     * Load a class through the class loader that the native library is tied to. The classes that declare the native methods of the native
+     * library have to be loaded through here to be able to call them.
+     *
+     * @param className - the name of the class.
+     * @return the class.
+     * @throws ClassNotFoundException if the class can't be found.
+     * @throws IllegalStateException  if the handle has been closed.
+     */
+    public Class<?> loadClass(String className) throws ClassNotFoundException {
+
+        return getClassLoader().loadClass(className);
+    }
+
+    /**
+     * @return true if the handle has been closed.
+     */
+    public boolean isClosed() {
+        return classLoader == null;
+    }
+
+    /**
+     * Let go of the class loader that the native library is tied to and remove the copy of the native library file. The native library
+     * remains loaded until the class loader has been garbage collected.
+     */
+    public void close() {
+
+        classLoader = null;
+
+        // The native library stays mapped after its file has been removed, where that isn't allowed the file goes when the JVM exits instead.
+        if (!delete(dir)) dir.deleteOnExit();
+    }
+
+    @Override
+    public String toString() {
+
+        return "NativeLibraryHandle{file=" + file + (isClosed() ? ", closed" : "") + '}';
+    }
+
+
+    private static boolean delete(File file) {
+
+        File[] children = file.listFiles();
+
+        if (children != null) for (File child : children) delete(child);
+
+        return file.delete() || !file.exists();
+    }
+
+
+    /**
+     * The class that native libraries are loaded by. A copy of this class is defined in every isolated class loader.
+     */
+    private static final class Loader {
+
+        private Loader() {
+        }
+
+        private static void load(String path) {
+
+            System.load(path);
+        }
+    }
+
+    /**
+     * A class loader that defines the loader and the provided classes itself, along with their nested classes, and leaves every other class
+     * to its parent.
+     */
+    private static final class IsolatedClassLoader extends ClassLoader {
+
+        private static final String CLASS_SUFFIX = ".class";
+
+        private final ClassLoader source;
+
+        private final Set<String> classNames;
+
+        private IsolatedClassLoader(ClassLoader parent, Collection<String> classNames) {
+
+            super(parent);
+
+            this.source = parent != null ? parent : NativeLibraryHandle.class.getClassLoader();
+            this.classNames = new HashSet<String>(classNames);
+            this.classNames.add(Loader.class.getName());
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+
+            if (!isIsolated(name)) return super.loadClass(name, resolve);
+
+            Class<?> type = findLoadedClass(name);
+
+            if (type == null) type = findClass(name);
+
+            if (resolve) resolveClass(type);
+
+            return type;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+
+            if (!isIsolated(name)) throw new ClassNotFoundException(name);
+
+            String resourceName = name.replace('.', '/') + CLASS_SUFFIX;
+
+            // The loader is part of this library, which the parent class loader may not be able to see.
+            ClassLoader resources = name.equals(Loader.class.getName()) ? Loader.class.getClassLoader() : source;
+
+            InputStream in = resources.getResourceAsStream(resourceName);
+
+            if (in == null) throw new ClassNotFoundException(name);
+
+            try {
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+                JniUtils.writeFile(in, bytes);
+
+                return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+
+            } catch (IOException e) {
+
+                throw new ClassNotFoundException(name, e);
+
+            } finally {
+
+                try {
+
+                    in.close();
+
+                } catch (IOException e) {
+
+                    // The class has already been read so there is nothing left that could be affected.
+                }
+            }
+        }
+
+        private boolean isIsolated(String name) {
+
+            if (classNames.contains(name)) return true;
+
+            int nested = name.indexOf('$');
+
+            return nested > 0 && classNames.contains(name.substring(0, nested));
+        }
+    }
+}
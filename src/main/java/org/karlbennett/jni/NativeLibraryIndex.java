@@ -0,0 +1,375 @@
+package org.karlbennett.jni;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * An index of the files that can be found directly under each native library directory on the class path.
+ * <p/>
+ * Asking a class loader whether a resource exists means a walk over every entry on its class path, this index lets
+ * {@link JniUtils#findNativeLibraryName(String, String)} replace those walks with a hash lookup. A directory is listed once per class loader
+ * the first time it is asked for and the listing is then kept until it is invalidated. The class loaders are held weakly so the index never
+ * stops a class loader from being garbage collected.
+ * <p/>
+ * Where every class path root of the class loader, and of each of its parents, can be found then each of those roots is listed directly,
+ * which also covers JAR files that have no entry for the directory itself. If every root is a directory or a JAR file on the local file
+ * system then the listing is complete and a file that isn't in the index is known not to be on the class path. The JDK's own class loaders
+ * are assumed not to hold any native library directories.
+ * <p/>
+ * Otherwise, such as for a class loader whose roots can't be found or that can be reached over the network, the directory is found by
+ * asking the class loader for it. That won't see a directory within a JAR that has no entry of its own, so a file that isn't in the index
+ * might still be on the class path and only a file that is in the index is guaranteed to be there.
+ * <p/>
+ * If the directory contains a {@link NativeLibraryManifest} or a {@link NativeLibraryBundle} then they are read when the directory is first
+ * indexed and kept along with it.
+ */
+final class NativeLibraryIndex {
+
+    /**
+     * The indexed directories keyed by the directory path, keyed by the class loader the directory was found in.
+     */
+    private static final Map<ClassLoader, Map<String, Directory>> INDEXES = new WeakHashMap<ClassLoader, Map<String, Directory>>();
+
+    /**
+     * An empty directory that is used when there is no class loader to search.
+     */
+    private static final Directory EMPTY_DIRECTORY = new Directory(Collections.<String>emptySet(), true, null, null);
+
+    /**
+     * The name of the JAR manifest attribute that adds more JAR files to the class path.
+     */
+    private static final String CLASS_PATH_ATTRIBUTE = "Class-Path";
+
+
+    /**
+     * What is known about a single native library directory.
+     */
+    static final class Directory {
+
+        /**
+         * The names of the files directly under the directory.
+         */
+        final Set<String> names;
+
+        /**
+         * Whether or not every class path root was listed, if so then a file that isn't in the names isn't on the class path at all.
+         */
+        final boolean complete;
+
+        /**
+         * The manifest from the directory or null if it doesn't have one.
+         */
+        final NativeLibraryManifest manifest;
+
+        /**
+         * The index of the bundle from the directory or null if it doesn't have one.
+         */
+        final NativeLibraryBundle bundle;
+
+        private Directory(Set<String> names, boolean complete, NativeLibraryManifest manifest, NativeLibraryBundle bundle) {
+
+            this.names = names;
+            this.complete = complete;
+            this.manifest = manifest;
+            this.bundle = bundle;
+        }
+    }
+
+
+    /**
+     * This class only contains static methods so should never be instantiated.
+     */
+    private NativeLibraryIndex() {
+    }
+
+
+    /**
+     * Returns the index of the provided directory on the provided class loader's class path.
+     *
+     * @param classLoader - the class loader whose class path is to be searched, this can be null.
+     * @param jarDir      - the directory path, this must either be empty or end with a trailing slash.
+     * @return the index of the directory, this will be empty if the directory couldn't be found.
+     */
+    static Directory directory(ClassLoader classLoader, String jarDir) {
+
+        // There is no class path to index without a class loader.
+        if (classLoader == null) return EMPTY_DIRECTORY;
+
+        synchronized (INDEXES) {
+
+            Map<String, Directory> index = INDEXES.get(classLoader);
+
+            Directory directory = index == null ? null : index.get(jarDir);
+
+            if (directory != null) return directory;
+        }
+
+        // The directories are listed outside of the lock so that slow I/O for one class loader doesn't hold up any others.
+        Set<String> names = new HashSet<String>();
+
+        boolean complete = listRoots(classLoader, jarDir, names);
+
+        if (!complete) {
+
+            names.clear();
+
+            list(classLoader, jarDir, names);
+        }
+
+        Directory directory = new Directory(Collections.unmodifiableSet(names), complete, readManifest(classLoader, jarDir),
+                readBundle(classLoader, jarDir));
+
+        synchronized (INDEXES) {
+
+            Map<String, Directory> index = INDEXES.get(classLoader);
+
+            if (index == null) INDEXES.put(classLoader, index = new HashMap<String, Directory>());
+
+            index.put(jarDir, directory);
+        }
+
+        return directory;
+    }
+
+    /**
+     * Throw away the index for the provided class loader so that its directories are listed again the next time they're asked for.
+     *
+     * @param classLoader - the class loader whose index is to be thrown away.
+     */
+    static void invalidate(ClassLoader classLoader) {
+
+        synchronized (INDEXES) {
+
+            INDEXES.remove(classLoader);
+        }
+    }
+
+    /**
+     * Throw away the index for every class loader.
+     */
+    static void invalidateAll() {
+
+        synchronized (INDEXES) {
+
+            INDEXES.clear();
+        }
+    }
+
+
+    /**
+     * List the files directly under the provided directory in every class path root of the provided class loader and its parents.
+     *
+     * @param classLoader - the class loader whose class path is to be searched.
+     * @param jarDir      - the directory path.
+     * @param names       - the set that the names of the files within the directory are added to.
+     * @return true if every root was listed, false if any of them couldn't be found or listed.
+     */
+    private static boolean listRoots(ClassLoader classLoader, String jarDir, Set<String> names) {
+
+        ClassLoader system = ClassLoader.getSystemClassLoader();
+
+        // Anything on the module path is only reachable through the class loader.
+        if (System.getProperty("jdk.module.path") != null) return false;
+
+        for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+
+            List<File> roots = new ArrayList<File>();
+
+            if (loader instanceof URLClassLoader) {
+
+                for (URL root : ((URLClassLoader) loader).getURLs()) {
+
+                    if (!"file".equals(root.getProtocol())) return false;
+
+                    roots.add(JniUtils.toFile(root));
+                }
+
+            } else if (loader == system) {
+
+                String classPath = System.getProperty("java.class.path", "");
+
+                for (String root : classPath.split(File.pathSeparator)) if (root.length() > 0) roots.add(new File(root));
+
+            } else if (loader != system.getParent()) {
+
+                // Nothing is known about the roots of any other kind of class loader.
+                return false;
+            }
+
+            for (File root : roots) {
+
+                try {
+
+                    if (root.isDirectory()) listFileDir(new File(root, jarDir), names);
+                    else if (root.isFile() && !listJarFile(root, jarDir, names)) return false;
+
+                } catch (IOException e) {
+
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * List the files directly under the provided directory in every class path entry of the provided class loader that holds it.
+     *
+     * @param classLoader - the class loader whose class path is to be searched.
+     * @param jarDir      - the directory path.
+     * @param names       - the set that the names of the files within the directory are added to.
+     */
+    private static void list(ClassLoader classLoader, String jarDir, Set<String> names) {
+
+        try {
+
+            Enumeration<URL> dirs = classLoader.getResources(jarDir);
+
+            while (dirs.hasMoreElements()) {
+
+                URL dir = dirs.nextElement();
+
+                try {
+
+                    if ("file".equals(dir.getProtocol())) listFileDir(JniUtils.toFile(dir), names);
+                    else listJarDir(dir, jarDir, names);
+
+                } catch (IOException e) {
+
+                    // A class path entry that can't be listed is just left out of the index.
+                }
+            }
+
+        } catch (IOException e) {
+
+            // If the class path can't be searched at all then the index is just empty.
+        }
+    }
+
+    /**
+     * Read the manifest from the provided directory.
+     *
+     * @param classLoader - the class loader whose class path is to be searched.
+     * @param jarDir      - the directory path.
+     * @return the manifest or null if the directory doesn't have one or it can't be read.
+     */
+    private static NativeLibraryManifest readManifest(ClassLoader classLoader, String jarDir) {
+
+        InputStream in = classLoader.getResourceAsStream(jarDir + JniUtils.NATIVE_LIBRARY_MANIFEST_NAME);
+
+        if (in == null) return null;
+
+        try {
+
+            try {
+
+                return NativeLibraryManifest.read(in);
+
+            } finally {
+
+                in.close();
+            }
+
+        } catch (IOException e) {
+
+            // A broken manifest is ignored, the directory listing is still there to fall back on.
+            return null;
+        }
+    }
+
+    /**
+     * Read the index of the bundle from the provided directory.
+     *
+     * @param classLoader - the class loader whose class path is to be searched.
+     * @param jarDir      - the directory path.
+     * @return the bundle or null if the directory doesn't have one or it can't be read.
+     */
+    private static NativeLibraryBundle readBundle(ClassLoader classLoader, String jarDir) {
+
+        URL bundle = classLoader.getResource(jarDir + JniUtils.NATIVE_LIBRARY_BUNDLE_NAME);
+
+        if (bundle == null) return null;
+
+        try {
+
+            return NativeLibraryBundle.read(bundle);
+
+        } catch (IOException e) {
+
+            // A broken bundle is ignored in the same way as a broken manifest.
+            return null;
+        }
+    }
+
+    private static void listFileDir(File dir, Set<String> names) {
+
+        File[] files = dir.listFiles();
+
+        if (files != null) for (File file : files) if (file.isFile()) names.add(file.getName());
+    }
+
+    /**
+     * List the files directly under the provided directory within the provided JAR file.
+     *
+     * @return false if the JAR file adds other JAR files to the class path, which would have to be listed as well.
+     */
+    private static boolean listJarFile(File file, String jarDir, Set<String> names) throws IOException {
+
+        JarFile jar = new JarFile(file);
+
+        try {
+
+            Manifest manifest = jar.getManifest();
+
+            if (manifest != null && manifest.getMainAttributes().getValue(CLASS_PATH_ATTRIBUTE) != null) return false;
+
+            listJarEntries(jar, jarDir, names);
+
+            return true;
+
+        } finally {
+
+            jar.close();
+        }
+    }
+
+    private static void listJarDir(URL dir, String jarDir, Set<String> names) throws IOException {
+
+        URLConnection connection = dir.openConnection();
+
+        // Only JAR files can be listed, anything else is left out.
+        if (!(connection instanceof JarURLConnection)) return;
+
+        // The JAR file is shared with the class loader so it mustn't be closed.
+        listJarEntries(((JarURLConnection) connection).getJarFile(), jarDir, names);
+    }
+
+    private static void listJarEntries(JarFile jar, String jarDir, Set<String> names) {
+
+        Enumeration<JarEntry> entries = jar.entries();
+
+        while (entries.hasMoreElements()) {
+
+            String name = entries.nextElement().getName();
+
+            // Only keep the files that are directly under the directory.
+            if (name.startsWith(jarDir) && name.length() > jarDir.length() && name.indexOf('/', jarDir.length()) < 0) {
+
+                names.add(name.substring(jarDir.length()));
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package org.karlbennett.jni;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Extracts every native library in a JAR ahead of time, such as while a container image is being built, so that nothing has to be
+ * extracted when the application starts:
+ * <pre>
+ *     java -jar jni.jar &lt;jar file&gt; &lt;target dir&gt; [&lt;jar dir&gt;]
+ * </pre>
+ * Every native library file under the JAR directory (<code>"lib/"</code> by default), including those within a bundle, is written to the
+ * target directory under its decompressed name. Each file is then read back and checked before a
+ * <code>"native-libraries.installed"</code> index, in the same format as a {@link NativeLibraryManifest}, is written alongside them. The
+ * index of any earlier install is removed first and the new index is written last, so a directory with an index is always complete.
+ * <p/>
+ * Once the <code>"native.library.fs.dir"</code> Java property points at the target directory {@link JniUtils} finds the index there and
+ * loads each native library that is in it straight from the directory, without resolving its name against the class path or extracting
+ * it. A native library whose installed file is missing, or isn't the size recorded in the index, is extracted as normal.
+ */
+public final class NativeLibraryInstaller {
+
+    /**
+     * The most recently read index of each directory keyed by the absolute path of the directory.
+     */
+    private static final ConcurrentMap<String, Installed> INSTALLED = new ConcurrentHashMap<String, Installed>();
+
+
+    /**
+     * An index along with the modification time of the file that it was read from.
+     */
+    private static final class Installed {
+
+        final long modified;
+
+        final NativeLibraryManifest index;
+
+        Installed(long modified, NativeLibraryManifest index) {
+
+            this.modified = modified;
+            this.index = index;
+        }
+    }
+
+
+    private NativeLibraryInstaller() {
+    }
+
+
+    /**
+     * Extract every native library under the provided directory of the provided JAR into the provided target directory and index them.
+     *
+     * @param jar       - the JAR file.
+     * @param jarDir    - the directory within the JAR where the native library files can be found.
+     * @param targetDir - the directory within the filesystem where the native library files will be installed.
+     * @return the index of the installed native libraries.
+     * @throws IOException if a native library could not be installed or didn't match the JAR once it had been.
+     */
+    public static NativeLibraryManifest install(File jar, String jarDir, File targetDir) throws IOException {
+
+        jarDir = JniUtils.checkDirSlash(jarDir);
+
+        if (!targetDir.isDirectory() && !targetDir.mkdirs()) throw new IOException("Unable to create the target directory: " + targetDir);
+
+        File indexFile = new File(targetDir, JniUtils.NATIVE_LIBRARY_INSTALLED_NAME);
+
+        // The native libraries are written in place, so the index of an earlier install has to go first or a JVM starting against the
+        // directory could trust a half written file.
+        if (indexFile.exists() && !indexFile.delete()) throw new IOException("Unable to remove the native library index: " + indexFile);
+
+        // Only the JAR is searched, nothing on the class path of the installer can end up in the index.
+        ClassLoader classLoader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+
+        NativeLibraryIndex.Directory directory = NativeLibraryIndex.directory(classLoader, jarDir);
+
+        NativeLibraryManifest index = new NativeLibraryManifest();
+
+        NativeLibraryBundle.Reader bundleReader = directory.bundle == null ? null : directory.bundle.reader();
+
+        try {
+
+            for (String fileName : sourceFileNames(jar, jarDir, directory)) {
+
+                File file = new File(targetDir, NativeLibraryCompression.uncompressedName(fileName));
+
+                MessageDigest digest = JniUtils.createDigest();
+
+                long size = JniUtils.writeNativeLibrary(JniUtils.nativeLibraryResource(classLoader, jarDir, fileName, bundleReader), file,
+                        digest);
+
+                String sha256 = ExtractionCache.toHex(digest.digest());
+
+                NativeLibraryManifest.Entry source = directory.manifest == null ? null : directory.manifest.get(fileName);
+
+                // The manifest hash of a compressed native library is that of the compressed file so it can't be compared.
+                if (source != null && source.getSha256() != null && !NativeLibraryCompression.isCompressed(fileName)
+                        && !source.getSha256().equals(sha256)) {
+
+                    throw new IOException("Installed native library " + file + " doesn't match the manifest of " + jar);
+                }
+
+                index.add(new NativeLibraryManifest.Entry(file.getName(), NativeLibraryManifest.logicalName(file.getName()), size, sha256,
+                        source == null ? null : source.getOs(), source == null ? null : source.getArch()));
+            }
+
+        } finally {
+
+            if (bundleReader != null) bundleReader.close();
+        }
+
+        // Check what actually ended up on disk before the index makes any of it visible.
+        List<String> problems = verify(targetDir, index);
+
+        if (!problems.isEmpty()) throw new IOException("Installed native libraries are invalid: " + problems);
+
+        File tempFile = new File(targetDir, JniUtils.NATIVE_LIBRARY_INSTALLED_NAME + ".tmp");
+
+        OutputStream out = new FileOutputStream(tempFile);
+
+        try {
+
+            index.write(out);
+
+        } finally {
+
+            out.close();
+        }
+
+        if (!tempFile.renameTo(indexFile) && !(indexFile.delete() && tempFile.renameTo(indexFile))) {
+
+            throw new IOException("Unable to write the native library index: " + indexFile);
+        }
+
+        return index;
+    }
+
+    /**
+     * Check every native library in the index of the provided directory against the index.
+     *
+     * @param targetDir - the directory that the native libraries were installed to.
+     * @return a description of every native library that doesn't match the index, this is empty if they all do.
+     * @throws IOException if the index could not be read.
+     */
+    public static List<String> verify(File targetDir) throws IOException {
+
+        InputStream in = new FileInputStream(new File(targetDir, JniUtils.NATIVE_LIBRARY_INSTALLED_NAME));
+
+        try {
+
+            return verify(targetDir, NativeLibraryManifest.read(in));
+
+        } finally {
+
+            in.close();
+        }
+    }
+
+    /**
+     * Extract every native library in a JAR into a directory and index them, see {@link #install(File, String, File)}.
+     *
+     * @param args - the JAR file and the target directory, optionally followed by the directory within the JAR.
+     * @throws IOException if the native libraries could not be installed.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2 || args.length > 3) {
+
+            System.err.println("Usage: java " + NativeLibraryInstaller.class.getName() + " <jar file> <target dir> [<jar dir>]");
+            System.exit(1);
+        }
+
+        NativeLibraryManifest index = install(new File(args[0]), args.length > 2 ? args[2] : JniUtils.DEFAULT_NATIVE_LIBRARY_JAR_DIR,
+                new File(args[1]));
+
+        for (NativeLibraryManifest.Entry entry : index.getEntries()) System.out.println(entry.getFileName() + " " + entry.getSha256());
+    }
+
+
+    /**
+     * Returns the installed file of the native library with the provided name, if the provided directory has an index.
+     * <p/>
+     * Only the index file and the native library file are looked at, so that a native library that was installed ahead of time can be loaded
+     * without reading the class path.
+     *
+     * @param fsDir   - the directory within the filesystem where the native library files will be extracted to.
+     * @param libName - the full or simple name of a native library.
+     * @return the installed native library file or null if it wasn't installed, or its file doesn't match the index.
+     */
+    static File installedFile(String fsDir, String libName) {
+
+        NativeLibraryManifest index = installed(fsDir);
+
+        if (index == null || libName == null) return null;
+
+        NativeLibraryManifest.Entry entry = index.find(libName);
+
+        if (entry == null) return null;
+
+        File file = new File(JniUtils.checkDirSlash(fsDir), entry.getFileName());
+
+        // The contents were checked when the native library was installed, this only guards against the file having been removed or cut short.
+        return file.length() == entry.getSize() ? file : null;
+    }
+
+    /**
+     * Returns the index of the provided directory.
+     *
+     * @param fsDir - a directory within the filesystem.
+     * @return the index or null if the directory doesn't have one, or it can't be read.
+     */
+    static NativeLibraryManifest installed(String fsDir) {
+
+        if (fsDir == null) return null;
+
+        File indexFile = new File(JniUtils.checkDirSlash(fsDir), JniUtils.NATIVE_LIBRARY_INSTALLED_NAME);
+
+        long modified = indexFile.lastModified();
+
+        if (modified == 0) return null;
+
+        String key = indexFile.getAbsolutePath();
+
+        Installed installed = INSTALLED.get(key);
+
+        if (installed != null && installed.modified == modified) return installed.index;
+
+        try {
+
+            InputStream in = new FileInputStream(indexFile);
+
+            try {
+
+                installed = new Installed(modified, NativeLibraryManifest.read(in));
+
+            } finally {
+
+                in.close();
+            }
+
+        } catch (IOException e) {
+
+            return null;
+        }
+
+        INSTALLED.put(key, installed);
+
+        return installed.index;
+    }
+
+
+    /**
+     * Returns the names of the native library files to install, a native library that is stored both compressed and uncompressed is only
+     * installed from its uncompressed file.
+     */
+    private static Collection<String> sourceFileNames(File jar, String jarDir, NativeLibraryIndex.Directory directory) throws IOException {
+
+        Set<String> fileNames = new TreeSet<String>();
+
+        // The JAR is listed directly because not every JAR has entries for its directories, which the class loader needs to list them.
+        JarFile jarFile = new JarFile(jar);
+
+        try {
+
+            Enumeration<JarEntry> entries = jarFile.entries();
+
+            while (entries.hasMoreElements()) {
+
+                String name = entries.nextElement().getName();
+
+                if (name.startsWith(jarDir) && name.indexOf('/', jarDir.length()) < 0) fileNames.add(name.substring(jarDir.length()));
+            }
+
+        } finally {
+
+            jarFile.close();
+        }
+
+        if (directory.bundle != null) {
+
+            for (NativeLibraryBundle.Entry entry : directory.bundle.getEntries()) fileNames.add(entry.getFileName());
+        }
+
+        Map<String, String> byInstalledName = new TreeMap<String, String>();
+
+        for (String fileName : fileNames) {
+
+            if (NativeLibraryManifest.logicalName(fileName) == null) continue;
+
+            String installedName = NativeLibraryCompression.uncompressedName(fileName);
+
+            if (!byInstalledName.containsKey(installedName) || installedName.equals(fileName)) byInstalledName.put(installedName, fileName);
+        }
+
+        return byInstalledName.values();
+    }
+
+    private static List<String> verify(File targetDir, NativeLibraryManifest index) throws IOException {
+
+        List<String> problems = new ArrayList<String>();
+
+        for (NativeLibraryManifest.Entry entry : index.getEntries()) {
+
+            File file = new File(targetDir, entry.getFileName());
+
+            if (!file.isFile()) problems.add(entry.getFileName() + " is missing");
+            else if (file.length() != entry.getSize()) problems.add(entry.getFileName() + " is " + file.length() + " bytes not " + entry.getSize());
+            else if (!NativeLibraryManifest.sha256(file).equals(entry.getSha256())) problems.add(entry.getFileName() + " has the wrong SHA-256");
+        }
+
+        return problems;
+    }
+}
@@ -0,0 +1,31 @@
+package org.karlbennett.jni;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Receives the result of every native library load that is run by {@link JniUtils}.
+ * <p/>
+ * Listeners can be added with {@link JniUtils#addNativeLibraryListener(NativeLibraryListener)} or declared as a service in a
+ * <code>"META-INF/services/org.karlbennett.jni.NativeLibraryListener"</code> file so that they pick up the loads that happen before any
+ * code has had the chance to add them.
+ * <p/>
+ * A listener is only told about the loads that actually run, asking for a native library that has already been loaded doesn't produce
+ * another result. Listeners are called on the thread that ran the load so they should return quickly, anything they throw is ignored.
+ */
+public interface NativeLibraryListener {
+
+    /**
+     * Called once a native library has been loaded.
+     *
+     * @param result - the details of the load.
+     */
+    void nativeLibraryLoaded(NativeLibraryLoadResult result);
+
+    /**
+     * Called when a native library couldn't be found, extracted or loaded.
+     *
+     * @param result - the details of the load, {@link NativeLibraryLoadResult#getFailure()} is the reason it failed.
+     */
+    void nativeLibraryFailed(NativeLibraryLoadResult result);
+}
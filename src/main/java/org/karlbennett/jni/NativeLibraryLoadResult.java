@@ -0,0 +1,196 @@
+package org.karlbennett.jni;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * The outcome of loading a single native library with {@link JniUtils#loadNativeLibraries(String, String, java.util.Collection, int)}, this
+ * is also what is passed to every {@link NativeLibraryListener}.
+ * <p/>
+ * The time spent in each phase of the load is recorded separately. A phase that was skipped, because the library had already been loaded or
+ * because an earlier phase failed, has a time of zero.
+ */
+public class NativeLibraryLoadResult {
+
+    private final String libName;
+
+    private String fileName;
+
+    private File file;
+
+    private int probes;
+
+    private long resolveNanos;
+
+    private boolean extracted;
+
+    private boolean cacheHit;
+
+    private long bytesCopied;
+
+    private long extractNanos;
+
+    private long loadNanos;
+
+    private Throwable failure;
+
+    private List<String> unboundMethods = Collections.emptyList();
+
+
+    NativeLibraryLoadResult(String libName) {
+
+        this.libName = libName;
+    }
+
+
+    /**
+     * @return the full or simple name of the native library that was asked for.
+     */
+    public String getLibName() {
+        return libName;
+    }
+
+    /**
+     * @return the full file name that the native library was resolved to or null if it couldn't be resolved.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @return the file that was loaded or null if the native library wasn't loaded.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the time in nanoseconds that was spent finding the full file name of the native library.
+     */
+    public long getResolveNanos() {
+        return resolveNanos;
+    }
+
+    void setResolveNanos(long resolveNanos) {
+        this.resolveNanos = resolveNanos;
+    }
+
+    /**
+     * @return the number of times the class path was searched for a native library file while finding its full file name, a name that was
+     *         found in a manifest or an index doesn't need any.
+     */
+    public int getProbes() {
+        return probes;
+    }
+
+    void addProbe() {
+        probes++;
+    }
+
+    /**
+     * @return true if the native library went through the extraction phase, whether or not it had to be copied.
+     */
+    public boolean isExtracted() {
+        return extracted;
+    }
+
+    void setExtracted(boolean extracted) {
+        this.extracted = extracted;
+    }
+
+    /**
+     * @return true if an existing extracted copy of the native library was reused instead of being copied again.
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    void setCacheHit(boolean cacheHit) {
+        this.cacheHit = cacheHit;
+    }
+
+    /**
+     * @return the number of bytes that were copied to the local file system while extracting the native library.
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    void setBytesCopied(long bytesCopied) {
+        this.bytesCopied = bytesCopied;
+    }
+
+    /**
+     * @return the time in nanoseconds that was spent extracting the native library to the local file system.
+     */
+    public long getExtractNanos() {
+        return extractNanos;
+    }
+
+    void setExtractNanos(long extractNanos) {
+        this.extractNanos = extractNanos;
+    }
+
+    /**
+     * @return the time in nanoseconds that was spent in {@link System#load(String)}.
+     */
+    public long getLoadNanos() {
+        return loadNanos;
+    }
+
+    void setLoadNanos(long loadNanos) {
+        this.loadNanos = loadNanos;
+    }
+
+    /**
+     * @return the reason the native library couldn't be loaded or null if it was loaded.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    void setFailure(Throwable failure) {
+        this.failure = failure;
+    }
+
+    /**
+     * @return the native methods, as the class name followed by the method name and signature, that the native library was loaded for but
+     *         that couldn't be found in it or in any other native library that was loaded through {@link JniUtils}. This is empty if they
+     *         were all found, or if the native library wasn't loaded for a class or couldn't be checked. A method that is listed may still
+     *         be bound by something the check couldn't see, it will only fail if it still isn't bound when it is first called.
+     */
+    public List<String> getUnboundMethods() {
+        return unboundMethods;
+    }
+
+    void setUnboundMethods(List<String> unboundMethods) {
+        this.unboundMethods = Collections.unmodifiableList(unboundMethods);
+    }
+
+    /**
+     * @return true if the native library is loaded.
+     */
+    public boolean isLoaded() {
+        return failure == null && file != null;
+    }
+
+    @Override
+    public String toString() {
+
+        return libName + (isLoaded() ? " loaded from " + file : " failed: " + failure) + " (resolve " + resolveNanos + "ns, " + probes
+                + " probes, extract " + extractNanos + "ns, " + bytesCopied + " bytes" + (extracted ? cacheHit ? ", cache hit" : ", cache miss" : "")
+                + ", load " + loadNanos + "ns)";
+    }
+}
@@ -0,0 +1,404 @@
+package org.karlbennett.jni;
+
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * A manifest of the native library files within a native library directory.
+ * <p/>
+ * The manifest is written at build time into the native library directory as a <code>"native-libraries.properties"</code> file, see
+ * {@link JniUtils#NATIVE_LIBRARY_MANIFEST_NAME}. For every native library file it records the logical name of the library
+ * (<code>"native"</code> for <code>"libnative.so"</code>), the size and SHA-256 hash of the file and the OS and architecture that the library
+ * was built for. This lets {@link JniUtils} resolve library names with a single resource read instead of searching the class path, and lets
+ * it check whether an extracted file is current without reading the class path resource. A compressed native library is listed under its
+ * compressed file name, its size and hash are those of the compressed file.
+ * <p/>
+ * A manifest can be generated by running this class with the native library directories as arguments, each directory is given its own
+ * manifest e.g. <code>java org.karlbennett.jni.NativeLibraryManifest target/classes/lib/</code>. The OS and architecture default to that of
+ * the JVM running the generator, they can be overridden with the <code>"native.library.os"</code> and <code>"native.library.arch"</code>
+ * Java properties.
+ */
+public class NativeLibraryManifest {
+
+    /**
+     * The name of the property that is used to override the OS that generated manifests record.
+     */
+    public static final String NATIVE_LIBRARY_OS_PROPERTY = "native.library.os";
+
+    /**
+     * The name of the property that is used to override the architecture that generated manifests record.
+     */
+    public static final String NATIVE_LIBRARY_ARCH_PROPERTY = "native.library.arch";
+
+    private static final String NAME_SUFFIX = ".name";
+
+    private static final String SIZE_SUFFIX = ".size";
+
+    private static final String SHA256_SUFFIX = ".sha256";
+
+    private static final String OS_SUFFIX = ".os";
+
+    private static final String ARCH_SUFFIX = ".arch";
+
+    private static final String LIBRARY_PREFIX = "lib";
+
+    private static final String[] LIBRARY_EXTENSIONS = {".so", ".dll", ".dylib", ".jnilib"};
+
+
+    /**
+     * The details of a single native library file.
+     */
+    public static class Entry {
+
+        private final String fileName;
+
+        private final String name;
+
+        private final long size;
+
+        private final String sha256;
+
+        private final String os;
+
+        private final String arch;
+
+        public Entry(String fileName, String name, long size, String sha256, String os, String arch) {
+
+            this.fileName = fileName;
+            this.name = name;
+            this.size = size;
+            this.sha256 = sha256;
+            this.os = os;
+            this.arch = arch;
+        }
+
+        /**
+         * @return the full file name of the native library e.g. <code>"libnative.so"</code>.
+         */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * @return the logical name of the native library e.g. <code>"native"</code>.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the size of the native library file in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the hex encoded SHA-256 hash of the native library file.
+         */
+        public String getSha256() {
+            return sha256;
+        }
+
+        /**
+         * @return the name of the OS the native library was built for, this is in the same form as the <code>"os.name"</code> Java property.
+         */
+        public String getOs() {
+            return os;
+        }
+
+        /**
+         * @return the architecture the native library was built for, this is in the same form as the <code>"os.arch"</code> Java property.
+         */
+        public String getArch() {
+            return arch;
+        }
+
+        /**
+         * @return true if the native library was built for the OS and architecture of the running JVM, or doesn't say what it was built for.
+         */
+        public boolean isForCurrentPlatform() {
+
+            return (os == null || os.equalsIgnoreCase(System.getProperty("os.name")))
+                    && (arch == null || arch.equalsIgnoreCase(System.getProperty("os.arch")));
+        }
+    }
+
+
+    /**
+     * The entries keyed by file name.
+     */
+    private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+
+    /**
+     * Add the provided entry to this manifest, replacing any existing entry for the same file.
+     *
+     * @param entry - the entry to add.
+     */
+    public void add(Entry entry) {
+
+        entries.put(entry.getFileName(), entry);
+    }
+
+    /**
+     * Returns the entry for the provided file name.
+     *
+     * @param fileName - the full file name of a native library.
+     * @return the entry for the file or null if it isn't in this manifest.
+     */
+    public Entry get(String fileName) {
+
+        return entries.get(fileName);
+    }
+
+    /**
+     * Find the entry for the provided library name.
+     * <p/>
+     * The name can either be the full file name of the library or the logical name, a logical name only matches a library that was built for
+     * the current platform.
+     *
+     * @param libName - the full or logical name of a native library.
+     * @return the matching entry or null if there is no match.
+     */
+    public Entry find(String libName) {
+
+        Entry entry = entries.get(libName);
+
+        if (entry != null) return entry;
+
+        for (Entry candidate : entries.values()) {
+
+            if (libName.equals(candidate.getName()) && candidate.isForCurrentPlatform()) return candidate;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return every entry in this manifest in file name order.
+     */
+    public Collection<Entry> getEntries() {
+
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Write this manifest out to the provided stream.
+     *
+     * @param out - the stream to write to, this is not closed.
+     * @throws IOException if the manifest could not be written.
+     */
+    public void write(OutputStream out) throws IOException {
+
+        // The entries are written out by hand in file name order rather than with Properties.store() so that the generated file is stable
+        // between builds.
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "ISO-8859-1"));
+
+        writer.write("# Generated by " + NativeLibraryManifest.class.getName() + ", do not edit.\n");
+
+        for (Entry entry : entries.values()) {
+
+            writeProperty(writer, entry.getFileName() + NAME_SUFFIX, entry.getName());
+            writeProperty(writer, entry.getFileName() + SIZE_SUFFIX, String.valueOf(entry.getSize()));
+            writeProperty(writer, entry.getFileName() + SHA256_SUFFIX, entry.getSha256());
+            writeProperty(writer, entry.getFileName() + OS_SUFFIX, entry.getOs());
+            writeProperty(writer, entry.getFileName() + ARCH_SUFFIX, entry.getArch());
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Read a manifest from the provided stream.
+     *
+     * @param in - the stream to read from, this is not closed.
+     * @return the manifest.
+     * @throws IOException if the manifest could not be read.
+     */
+    public static NativeLibraryManifest read(InputStream in) throws IOException {
+
+        Properties properties = new Properties();
+        properties.load(in);
+
+        NativeLibraryManifest manifest = new NativeLibraryManifest();
+
+        for (String key : properties.stringPropertyNames()) {
+
+            // Every entry has a size so use that to find the file names.
+            if (!key.endsWith(SIZE_SUFFIX)) continue;
+
+            String fileName = key.substring(0, key.length() - SIZE_SUFFIX.length());
+
+            try {
+
+                manifest.add(new Entry(fileName,
+                        properties.getProperty(fileName + NAME_SUFFIX, logicalName(fileName)),
+                        Long.parseLong(properties.getProperty(key)),
+                        properties.getProperty(fileName + SHA256_SUFFIX),
+                        properties.getProperty(fileName + OS_SUFFIX),
+                        properties.getProperty(fileName + ARCH_SUFFIX)));
+
+            } catch (NumberFormatException e) {
+
+                throw new IOException("Invalid size for native library " + fileName + " in manifest: " + properties.getProperty(key));
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Generate a manifest for every native library file directly under the provided directory.
+     *
+     * @param dir  - the native library directory.
+     * @param os   - the OS that the native libraries were built for.
+     * @param arch - the architecture that the native libraries were built for.
+     * @return the manifest.
+     * @throws IOException if a native library file could not be read.
+     */
+    public static NativeLibraryManifest generate(File dir, String os, String arch) throws IOException {
+
+        File[] files = dir.listFiles();
+
+        if (files == null) throw new IOException("Unable to list native library directory: " + dir);
+
+        NativeLibraryManifest manifest = new NativeLibraryManifest();
+
+        for (File file : files) {
+
+            // The manifest doesn't list itself, or anything else that isn't a native library.
+            if (!file.isFile() || logicalName(file.getName()) == null) continue;
+
+            manifest.add(new Entry(file.getName(), logicalName(file.getName()), file.length(), sha256(file), os, arch));
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Returns the logical name for the provided native library file name, that is the file name without any library prefix or extension.
+     *
+     * @param fileName - the full file name of a native library, this can also be the name of a compressed native library.
+     * @return the logical name of the native library or null if the file name doesn't have a known native library extension.
+     */
+    public static String logicalName(String fileName) {
+
+        fileName = NativeLibraryCompression.uncompressedName(fileName);
+
+        for (String extension : LIBRARY_EXTENSIONS) {
+
+            if (fileName.endsWith(extension)) {
+
+                String name = fileName.substring(0, fileName.length() - extension.length());
+
+                // Windows libraries don't normally have the "lib" prefix so only strip it if it's there.
+                return name.startsWith(LIBRARY_PREFIX) && name.length() > LIBRARY_PREFIX.length()
+                        ? name.substring(LIBRARY_PREFIX.length()) : name;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Generate a <code>"native-libraries.properties"</code> manifest within each of the provided native library directories.
+     *
+     * @param args - the native library directories.
+     * @throws IOException if a manifest could not be generated.
+     */
+    public static void main(String[] args) throws IOException {
+
+        if (args.length == 0) {
+
+            System.err.println("Usage: java " + NativeLibraryManifest.class.getName() + " <native library dir>...");
+            System.exit(1);
+        }
+
+        String os = System.getProperty(NATIVE_LIBRARY_OS_PROPERTY, System.getProperty("os.name"));
+        String arch = System.getProperty(NATIVE_LIBRARY_ARCH_PROPERTY, System.getProperty("os.arch"));
+
+        for (String arg : args) {
+
+            File dir = new File(arg);
+
+            NativeLibraryManifest manifest = generate(dir, os, arch);
+
+            OutputStream out = new FileOutputStream(new File(dir, JniUtils.NATIVE_LIBRARY_MANIFEST_NAME));
+
+            try {
+
+                manifest.write(out);
+
+            } finally {
+
+                out.close();
+            }
+        }
+    }
+
+
+    private static void writeProperty(Writer writer, String key, String value) throws IOException {
+
+        if (value != null) writer.write(escape(key, true) + '=' + escape(value, false) + '\n');
+    }
+
+    /**
+     * Escape the provided key or value so that {@link Properties#load(InputStream)} reads it back unchanged.
+     */
+    private static String escape(String text, boolean key) {
+
+        StringBuilder escaped = new StringBuilder(text.length());
+
+        for (int i = 0; i < text.length(); i++) {
+
+            char c = text.charAt(i);
+
+            if (c == '\\' || ((key || i == 0) && " =:#!".indexOf(c) >= 0)) escaped.append('\\').append(c);
+            else if (c < 0x20 || c > 0x7e) escaped.append(String.format("\\u%04x", (int) c));
+            else escaped.append(c);
+        }
+
+        return escaped.toString();
+    }
+
+    static String sha256(File file) throws IOException {
+
+        MessageDigest digest;
+
+        try {
+
+            digest = MessageDigest.getInstance(ExtractionCache.DIGEST_ALGORITHM);
+
+        } catch (NoSuchAlgorithmException e) {
+
+            // Every Java platform is required to support SHA-256 so this should never happen.
+            throw new IllegalStateException(e);
+        }
+
+        InputStream in = new DigestInputStream(new FileInputStream(file), digest);
+
+        try {
+
+            final int ARRAY_SIZE = 64 * 1024; // Size of the input read buffer.
+
+            byte[] bytes = new byte[ARRAY_SIZE];
+
+            while (in.read(bytes) > 0) {
+                // Reading is enough to update the digest.
+            }
+
+        } finally {
+
+            in.close();
+        }
+
+        return ExtractionCache.toHex(digest.digest());
+    }
+}
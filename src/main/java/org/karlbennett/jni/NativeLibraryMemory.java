@@ -0,0 +1,357 @@
+package org.karlbennett.jni;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * A snapshot of the memory that each loaded native library is mapped into on a Linux host, see {@link JniUtils#getNativeLibraryMemory()}.
+ * <p/>
+ * The snapshot is read from <code>"/proc/self/smaps"</code>, which lists every mapping in the process along with how much of it is resident
+ * and how much of that is shared with other processes. If that can't be read then <code>"/proc/self/maps"</code> is used instead, which
+ * only lists the mappings, so only the mapped sizes are known and every other size is <code>-1</code>.
+ * <p/>
+ * A native library is normally mapped several times, once for each of its segments, and the sizes of a library are the totals across all of
+ * its mappings. Memory that a library allocates at runtime, including its zero filled <code>.bss</code> data, is anonymous and so can't be
+ * attributed to it. A library whose file has been deleted or replaced since it was loaded, for instance by a clean up of the extraction
+ * directory, is still listed under the path it was loaded from.
+ */
+public final class NativeLibraryMemory {
+
+    /**
+     * The file that the Linux kernel lists the memory mappings and their sizes of the current process in.
+     */
+    static final String PROC_SMAPS = "/proc/self/smaps";
+
+    /**
+     * The file that the Linux kernel lists the memory mappings of the current process in.
+     */
+    static final String PROC_MAPS = "/proc/self/maps";
+
+    /**
+     * The suffix that the kernel adds to the path of a mapped file that has since been deleted.
+     */
+    private static final String DELETED_SUFFIX = " (deleted)";
+
+    private static final long KILOBYTE = 1024;
+
+
+    /**
+     * The memory that a single native library is mapped into.
+     */
+    public static final class Usage {
+
+        private final File file;
+
+        private int mappings;
+
+        private long mappedBytes;
+
+        private long residentBytes = -1;
+
+        private long proportionalBytes = -1;
+
+        private long sharedBytes = -1;
+
+        private long privateBytes = -1;
+
+        private boolean deleted;
+
+        private Usage(File file) {
+
+            this.file = file;
+        }
+
+        /**
+         * @return the native library file that was loaded.
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the number of separate mappings of the native library.
+         */
+        public int getMappings() {
+            return mappings;
+        }
+
+        /**
+         * @return the address space that the native library is mapped into.
+         */
+        public long getMappedBytes() {
+            return mappedBytes;
+        }
+
+        /**
+         * @return the part of the mapped native library that is in physical memory, or -1 if it isn't known.
+         */
+        public long getResidentBytes() {
+            return residentBytes;
+        }
+
+        /**
+         * @return the resident size with each shared page divided between the processes that share it, or -1 if it isn't known.
+         */
+        public long getProportionalBytes() {
+            return proportionalBytes;
+        }
+
+        /**
+         * @return the resident size of the pages that are shared with other processes, or -1 if it isn't known.
+         */
+        public long getSharedBytes() {
+            return sharedBytes;
+        }
+
+        /**
+         * @return the resident size of the pages that are only used by this process, or -1 if it isn't known.
+         */
+        public long getPrivateBytes() {
+            return privateBytes;
+        }
+
+        /**
+         * @return true if the native library file has been deleted since it was loaded.
+         */
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        @Override
+        public String toString() {
+
+            return file + (deleted ? DELETED_SUFFIX : "") + " mappings=" + mappings + " mapped=" + kilobytes(mappedBytes)
+                    + " rss=" + kilobytes(residentBytes) + " pss=" + kilobytes(proportionalBytes) + " shared=" + kilobytes(sharedBytes)
+                    + " private=" + kilobytes(privateBytes);
+        }
+
+
+        private void add(String field, long bytes) {
+
+            if ("Rss".equals(field)) residentBytes = sum(residentBytes, bytes);
+            else if ("Pss".equals(field)) proportionalBytes = sum(proportionalBytes, bytes);
+            else if ("Shared_Clean".equals(field) || "Shared_Dirty".equals(field)) sharedBytes = sum(sharedBytes, bytes);
+            else if ("Private_Clean".equals(field) || "Private_Dirty".equals(field)) privateBytes = sum(privateBytes, bytes);
+        }
+
+        private static long sum(long total, long bytes) {
+
+            return total < 0 ? bytes : total + bytes;
+        }
+    }
+
+
+    private final long timestamp;
+
+    private final List<Usage> usages;
+
+
+    private NativeLibraryMemory(long timestamp, List<Usage> usages) {
+
+        this.timestamp = timestamp;
+        this.usages = usages;
+    }
+
+
+    /**
+     * Read the memory that each of the provided native library files is mapped into by the current process.
+     *
+     * @param files - the loaded native library files.
+     * @return the snapshot or null if the memory mappings can't be read, which is always the case on anything other than Linux.
+     */
+    static NativeLibraryMemory read(Collection<File> files) {
+
+        File procMaps = new File(PROC_SMAPS);
+
+        if (!procMaps.isFile()) procMaps = new File(PROC_MAPS);
+
+        if (!procMaps.isFile()) return null;
+
+        try {
+
+            Reader reader = new InputStreamReader(new FileInputStream(procMaps), "UTF-8");
+
+            try {
+
+                return parse(reader, files);
+
+            } finally {
+
+                reader.close();
+            }
+
+        } catch (IOException e) {
+
+            return null;
+        }
+    }
+
+    /**
+     * Parse the memory mappings of a process in the format of either <code>"/proc/self/smaps"</code> or <code>"/proc/self/maps"</code>.
+     *
+     * @param reader - the memory mappings.
+     * @param files  - the loaded native library files.
+     * @return the memory that each of the native library files is mapped into, in the same order as the files.
+     * @throws IOException if the memory mappings could not be read.
+     */
+    static NativeLibraryMemory parse(Reader reader, Collection<File> files) throws IOException {
+
+        // The kernel lists the real path of every mapped file so the loaded files have to be resolved the same way to match them up.
+        Map<String, Usage> byPath = new LinkedHashMap<String, Usage>();
+
+        for (File file : files) byPath.put(canonicalPath(file), new Usage(file));
+
+        BufferedReader lines = new BufferedReader(reader);
+
+        Usage current = null; // The native library that the following smaps fields belong to, if any.
+
+        String line;
+
+        while ((line = lines.readLine()) != null) {
+
+            int colon = line.indexOf(':');
+            int space = line.indexOf(' ');
+
+            // Each smaps field is "Name: value kB", whereas each mapping is "start-end perms offset device inode path".
+            if (colon > 0 && (space < 0 || colon < space)) {
+
+                if (current != null) addField(current, line, colon);
+
+                continue;
+            }
+
+            String[] fields = line.trim().split("\\s+", 6);
+
+            current = null;
+
+            if (fields.length < 6) continue;
+
+            String path = fields[5];
+            boolean deleted = path.endsWith(DELETED_SUFFIX);
+
+            if (deleted) path = path.substring(0, path.length() - DELETED_SUFFIX.length());
+
+            current = byPath.get(path);
+
+            if (current == null) continue;
+
+            String[] range = fields[0].split("-");
+
+            current.mappings++;
+            current.mappedBytes += Long.parseLong(range[1], 16) - Long.parseLong(range[0], 16);
+            current.deleted |= deleted;
+        }
+
+        List<Usage> usages = new ArrayList<Usage>(byPath.size());
+
+        for (Usage usage : byPath.values()) if (usage.mappings > 0) usages.add(usage);
+
+        return new NativeLibraryMemory(System.currentTimeMillis(), Collections.unmodifiableList(usages));
+    }
+
+
+    /**
+     * @return the time in milliseconds that the snapshot was taken at.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the memory of each loaded native library that is currently mapped.
+     */
+    public List<Usage> getUsages() {
+        return usages;
+    }
+
+    /**
+     * Returns the memory that the provided native library file is mapped into.
+     *
+     * @param file - a loaded native library file.
+     * @return the memory usage or null if the file isn't mapped.
+     */
+    public Usage get(File file) {
+
+        String path = canonicalPath(file);
+
+        for (Usage usage : usages) if (path.equals(canonicalPath(usage.file))) return usage;
+
+        return null;
+    }
+
+    /**
+     * @return the address space that all of the native libraries are mapped into.
+     */
+    public long getMappedBytes() {
+
+        long total = 0;
+
+        for (Usage usage : usages) total += usage.mappedBytes;
+
+        return total;
+    }
+
+    /**
+     * @return the part of all of the mapped native libraries that is in physical memory, or -1 if it isn't known.
+     */
+    public long getResidentBytes() {
+
+        long total = -1;
+
+        for (Usage usage : usages) if (usage.residentBytes >= 0) total = Usage.sum(total, usage.residentBytes);
+
+        return total;
+    }
+
+    /**
+     * @return a report of the memory of each native library, one line per library followed by a line of totals.
+     */
+    @Override
+    public String toString() {
+
+        StringBuilder report = new StringBuilder();
+
+        for (Usage usage : usages) report.append(usage).append('\n');
+
+        return report.append("total libraries=").append(usages.size()).append(" mapped=").append(kilobytes(getMappedBytes()))
+                .append(" rss=").append(kilobytes(getResidentBytes())).toString();
+    }
+
+
+    private static void addField(Usage usage, String line, int colon) {
+
+        String[] value = line.substring(colon + 1).trim().split("\\s+");
+
+        // Only the sizes are of interest, they are all in kilobytes.
+        if (value.length != 2 || !"kB".equals(value[1])) return;
+
+        try {
+
+            usage.add(line.substring(0, colon), Long.parseLong(value[0]) * KILOBYTE);
+
+        } catch (NumberFormatException e) {
+
+            // A field that doesn't hold a size, ignore it.
+        }
+    }
+
+    private static String canonicalPath(File file) {
+
+        try {
+
+            return file.getCanonicalPath();
+
+        } catch (IOException e) {
+
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static String kilobytes(long bytes) {
+
+        return bytes < 0 ? "?" : (bytes / KILOBYTE) + "kB";
+    }
+}
@@ -0,0 +1,265 @@
+package org.karlbennett.jni;
+
+import org.karlbennett.jni.exception.IORuntimeException;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Keeps a record of every native library that has been loaded so that each library is only ever extracted and loaded once.
+ * <p/>
+ * Each load is represented by a {@link Future} that is keyed by the absolute path of the file that is loaded. The first thread to ask for a
+ * library runs the load, any other threads that ask for the same library while it is loading simply wait for the same future to complete.
+ * The future is also recorded against the exact arguments that were used to request it so that repeat requests can skip resolving the
+ * library name altogether.
+ * <p/>
+ * Extractions are claimed by the same path, so that a native library is never written to while another thread is extracting or loading it.
+ * Whoever asks for a library to be extracted first runs the extraction, anyone else waits for it and gets the same file. The claim is kept
+ * until the library has been loaded.
+ */
+final class NativeLibraryRegistry {
+
+    /**
+     * The loaded libraries keyed by the absolute path of the loaded file.
+     */
+    private final ConcurrentMap<String, Future<File>> libraries = new ConcurrentHashMap<String, Future<File>>();
+
+    /**
+     * The successfully loaded libraries keyed by the request that was made to load them.
+     */
+    private final ConcurrentMap<String, Future<File>> requests = new ConcurrentHashMap<String, Future<File>>();
+
+    /**
+     * The extractions of libraries that haven't finished loading yet keyed by the absolute path that the library will be loaded from.
+     */
+    private final ConcurrentMap<String, Future<File>> extractions = new ConcurrentHashMap<String, Future<File>>();
+
+
+    /**
+     * Returns the library that has already been successfully loaded for the provided request.
+     *
+     * @param request - the key for the arguments that were used to request the library.
+     * @return the loaded library file or null if the request has not been seen before.
+     */
+    File get(String request) {
+
+        Future<File> library = requests.get(request);
+
+        return library == null ? null : await(library);
+    }
+
+    /**
+     * Returns whether or not the library with the provided path has been successfully loaded.
+     *
+     * @param path - the absolute path of the library file.
+     * @return true if the library has been loaded, otherwise false.
+     */
+    boolean isLoaded(String path) {
+
+        Future<File> library = libraries.get(path);
+
+        return library != null && loadedFile(library) != null;
+    }
+
+    /**
+     * Extract the library with the provided path if it isn't already being extracted and hasn't already been loaded.
+     * <p/>
+     * If the library is already being extracted, or has been extracted but not yet loaded, then this method waits for that extraction and
+     * returns its file. If the library has already been loaded then the loaded file is returned without extracting anything.
+     *
+     * @param path      - the absolute path of the file that the library will be loaded from.
+     * @param extractor - the task that will extract the library, this is only run if no other extraction of the library is in progress.
+     * @return the extracted library file.
+     */
+    File extract(final String path, final Callable<File> extractor) {
+
+        FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+
+            public File call() throws Exception {
+
+                // The library may have finished loading since the caller last looked, a loaded file must never be written over.
+                Future<File> library = libraries.get(path);
+                File loaded = library == null ? null : loadedFile(library);
+
+                return loaded != null ? loaded : extractor.call();
+            }
+        });
+
+        Future<File> extraction = extractions.putIfAbsent(path, task);
+
+        // If there was no existing extraction of the library then this thread is responsible for running it.
+        if (extraction == null) {
+
+            extraction = task;
+
+            task.run();
+        }
+
+        try {
+
+            return await(extraction);
+
+        } catch (RuntimeException e) {
+
+            // Forget about the failed extraction so that the library can be extracted again.
+            extractions.remove(path, extraction);
+
+            throw e;
+
+        } catch (Error e) {
+
+            extractions.remove(path, extraction);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Load the library with the provided path if it hasn't already been loaded.
+     * <p/>
+     * If the library has already been loaded then the file from the original load is returned, if it is currently being loaded by another
+     * thread then this method will block until that load completes.
+     *
+     * @param request - the key for the arguments that were used to request the library.
+     * @param path    - the absolute path of the file that will be loaded.
+     * @param loader  - the task that will extract and load the library, this is only run if the library has not been loaded before.
+     * @return the loaded library file.
+     */
+    File load(String request, String path, Callable<File> loader) {
+
+        FutureTask<File> task = new FutureTask<File>(loader);
+
+        Future<File> library = libraries.putIfAbsent(path, task);
+
+        // If there was no existing load for the library then this thread is responsible for running it.
+        if (library == null) {
+
+            library = task;
+
+            task.run();
+        }
+
+        try {
+
+            File file = await(library);
+
+            requests.putIfAbsent(request, library);
+
+            // Now that the library has been loaded any later extraction just returns the loaded file.
+            extractions.remove(path);
+
+            return file;
+
+        } catch (RuntimeException e) {
+
+            // Forget about the failed load, and what was extracted for it, so that the library can be retried.
+            extractions.remove(path);
+            libraries.remove(path, library);
+
+            throw e;
+
+        } catch (Error e) {
+
+            extractions.remove(path);
+            libraries.remove(path, library);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the files for every library that has been successfully loaded.
+     *
+     * @return an unmodifiable set of the loaded library files.
+     */
+    Set<File> loaded() {
+
+        Set<File> loaded = new LinkedHashSet<File>();
+
+        for (Future<File> library : libraries.values()) {
+
+            File file = loadedFile(library);
+
+            if (file != null) loaded.add(file);
+        }
+
+        return Collections.unmodifiableSet(loaded);
+    }
+
+
+    /**
+     * Returns the file for the provided library without waiting for it.
+     *
+     * @param library - the library load.
+     * @return the loaded library file or null if the library is still loading or failed to load.
+     */
+    private static File loadedFile(Future<File> library) {
+
+        if (!library.isDone()) return null;
+
+        try {
+
+            return library.get();
+
+        } catch (ExecutionException e) {
+
+            // Failed loads are not loaded libraries.
+            return null;
+
+        } catch (InterruptedException e) {
+
+            // This can't happen because the future is already done, but just in case make sure the interrupt isn't lost.
+            Thread.currentThread().interrupt();
+
+            return null;
+        }
+    }
+
+    /**
+     * Wait for the provided library to finish loading, any failure is rethrown unchecked.
+     * <p/>
+     * The wait is uninterruptible because the load itself can't be interrupted, if the thread is interrupted while waiting then the interrupt
+     * flag is set again once the load has finished.
+     *
+     * @param library - the library load to wait for.
+     * @return the loaded library file.
+     */
+    private static File await(Future<File> library) {
+
+        boolean interrupted = false;
+
+        try {
+
+            while (true) {
+
+                try {
+
+                    return library.get();
+
+                } catch (InterruptedException e) {
+
+                    interrupted = true;
+
+                } catch (ExecutionException e) {
+
+                    Throwable cause = e.getCause();
+
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+
+                    throw new IORuntimeException(cause);
+                }
+            }
+
+        } finally {
+
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
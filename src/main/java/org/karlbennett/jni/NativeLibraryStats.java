@@ -0,0 +1,198 @@
+package org.karlbennett.jni;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * JVM wide counters for every native library load that has been run by {@link JniUtils}, see {@link JniUtils#getNativeLibraryStats()}.
+ * <p/>
+ * The counters are always kept because they are only a handful of atomic additions per load. They are only published over JMX once
+ * {@link #register()} has been called, either directly or by setting the <code>"native.library.jmx"</code> Java property to
+ * <code>"true"</code>, because starting the platform MBean server is far more expensive than loading a native library.
+ */
+public class NativeLibraryStats implements NativeLibraryStatsMBean, NativeLibraryListener {
+
+    /**
+     * The name that the stats are registered under with the platform MBean server.
+     */
+    public static final String OBJECT_NAME = "org.karlbennett.jni:type=NativeLibraryStats";
+
+
+    private final AtomicLong loadedCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong resolutionProbes = new AtomicLong();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    private final AtomicLong bytesCopied = new AtomicLong();
+
+    private final AtomicLong resolveNanos = new AtomicLong();
+
+    private final AtomicLong extractNanos = new AtomicLong();
+
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    /**
+     * The most recent result for each native library keyed by the name it was asked for with.
+     */
+    private final ConcurrentMap<String, NativeLibraryLoadResult> libraries = new ConcurrentHashMap<String, NativeLibraryLoadResult>();
+
+    private final AtomicBoolean registered = new AtomicBoolean();
+
+
+    NativeLibraryStats() {
+    }
+
+
+    public void nativeLibraryLoaded(NativeLibraryLoadResult result) {
+
+        loadedCount.incrementAndGet();
+
+        record(result);
+    }
+
+    public void nativeLibraryFailed(NativeLibraryLoadResult result) {
+
+        failedCount.incrementAndGet();
+
+        record(result);
+    }
+
+    /**
+     * Publish these stats with the platform MBean server under {@link #OBJECT_NAME}, this does nothing if they have already been published.
+     */
+    public void register() {
+
+        if (!registered.compareAndSet(false, true)) return;
+
+        try {
+
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+
+        } catch (InstanceAlreadyExistsException e) {
+
+            // Another copy of this library in a different class loader got there first, its stats are as good as ours.
+
+        } catch (JMException e) {
+
+            registered.set(false);
+
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public long getLoadedCount() {
+        return loadedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getResolutionProbes() {
+        return resolutionProbes.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied.get();
+    }
+
+    public long getResolveNanos() {
+        return resolveNanos.get();
+    }
+
+    public long getExtractNanos() {
+        return extractNanos.get();
+    }
+
+    public long getLoadNanos() {
+        return loadNanos.get();
+    }
+
+    public String[] getLibraries() {
+
+        List<String> descriptions = new ArrayList<String>(libraries.size());
+
+        for (NativeLibraryLoadResult result : libraries.values()) descriptions.add(result.toString());
+
+        return descriptions.toArray(new String[descriptions.size()]);
+    }
+
+    public long getMappedBytes() {
+
+        NativeLibraryMemory memory = JniUtils.getNativeLibraryMemory();
+
+        return memory == null ? -1 : memory.getMappedBytes();
+    }
+
+    public long getResidentBytes() {
+
+        NativeLibraryMemory memory = JniUtils.getNativeLibraryMemory();
+
+        return memory == null ? -1 : memory.getResidentBytes();
+    }
+
+    public String[] getLibraryMemory() {
+
+        NativeLibraryMemory memory = JniUtils.getNativeLibraryMemory();
+
+        if (memory == null) return new String[0];
+
+        List<String> descriptions = new ArrayList<String>(memory.getUsages().size());
+
+        for (NativeLibraryMemory.Usage usage : memory.getUsages()) descriptions.add(usage.toString());
+
+        return descriptions.toArray(new String[descriptions.size()]);
+    }
+
+    public void reset() {
+
+        loadedCount.set(0);
+        failedCount.set(0);
+        resolutionProbes.set(0);
+        cacheHits.set(0);
+        cacheMisses.set(0);
+        bytesCopied.set(0);
+        resolveNanos.set(0);
+        extractNanos.set(0);
+        loadNanos.set(0);
+        libraries.clear();
+    }
+
+
+    private void record(NativeLibraryLoadResult result) {
+
+        resolutionProbes.addAndGet(result.getProbes());
+        bytesCopied.addAndGet(result.getBytesCopied());
+        resolveNanos.addAndGet(result.getResolveNanos());
+        extractNanos.addAndGet(result.getExtractNanos());
+        loadNanos.addAndGet(result.getLoadNanos());
+
+        if (result.isExtracted()) (result.isCacheHit() ? cacheHits : cacheMisses).incrementAndGet();
+
+        libraries.put(String.valueOf(result.getLibName()), result);
+    }
+}
@@ -0,0 +1,55 @@
+package org.karlbennett.jni;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * The JMX management interface of {@link NativeLibraryStats}, see {@link JniUtils#registerNativeLibraryStatsMBean()}.
+ * <p/>
+ * All of the times are the totals in nanoseconds across every native library load that has been run by this JVM.
+ */
+public interface NativeLibraryStatsMBean {
+
+    long getLoadedCount();
+
+    long getFailedCount();
+
+    long getResolutionProbes();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getBytesCopied();
+
+    long getResolveNanos();
+
+    long getExtractNanos();
+
+    long getLoadNanos();
+
+    /**
+     * @return a description of the most recent load of each native library that has been asked for.
+     */
+    String[] getLibraries();
+
+    /**
+     * @return the address space that the loaded native libraries are mapped into, or -1 if it isn't known.
+     */
+    long getMappedBytes();
+
+    /**
+     * @return the part of the loaded native libraries that is in physical memory, or -1 if it isn't known.
+     */
+    long getResidentBytes();
+
+    /**
+     * @return a description of the memory that each loaded native library is mapped into, see {@link NativeLibraryMemory}.
+     */
+    String[] getLibraryMemory();
+
+    /**
+     * Set every counter back to zero and forget about the native libraries that have been loaded.
+     */
+    void reset();
+}
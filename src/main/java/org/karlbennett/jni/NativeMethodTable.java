@@ -0,0 +1,306 @@
+package org.karlbennett.jni;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * The native methods of a Java class along with the names and signatures that the JVM binds them by.
+ * <p/>
+ * Normally the JVM binds a native method the first time it is called, by searching every loaded native library for a function with the
+ * method's JNI name. A native library can instead bind all of its methods up front from <code>JNI_OnLoad</code> by calling
+ * <code>RegisterNatives</code> with a table of names, signatures and functions. The main method of this class generates that table, along
+ * with a <code>JNI_OnLoad</code> that registers it, as a C header that uses the <code>"jni_register.h"</code> header shipped in the
+ * <code>"include/"</code> directory of this JAR:
+ * <pre>
+ *     java org.karlbennett.jni.NativeMethodTable &lt;header file&gt; &lt;class name&gt;...
+ * </pre>
+ * The header declares the JNI functions of every native method in the classes, so a native library only has to include it and then
+ * implement each function in the same way as it would for a <code>javah</code> generated header. Every function has to be implemented or
+ * the native library will fail to load, so a library that uses the table can never be left with an unbound native method.
+ *
+ * @see JniUtils#loadNativeLibrary(Class, String, String, String)
+ */
+public class NativeMethodTable {
+
+    /**
+     * The prefix of the JNI name of every native method.
+     */
+    private static final String JNI_PREFIX = "Java_";
+
+    /**
+     * The separator between the short JNI name of a native method and its mangled argument signature.
+     */
+    private static final String OVERLOAD_SEPARATOR = "__";
+
+
+    private final Class<?> owner;
+
+    private final List<Method> methods;
+
+
+    private NativeMethodTable(Class<?> owner, List<Method> methods) {
+
+        this.owner = owner;
+        this.methods = methods;
+    }
+
+
+    /**
+     * Find the native methods that are declared by the provided class.
+     *
+     * @param owner - the class that declares the native methods.
+     * @return the table of the native methods, in a fixed order.
+     */
+    public static NativeMethodTable of(Class<?> owner) {
+
+        List<Method> methods = new ArrayList<Method>();
+
+        for (Method method : owner.getDeclaredMethods()) if (Modifier.isNative(method.getModifiers())) methods.add(method);
+
+        // Reflection doesn't return the methods in any particular order, so sort them to keep the generated table stable between builds.
+        Collections.sort(methods, new Comparator<Method>() {
+
+            public int compare(Method left, Method right) {
+
+                int byName = left.getName().compareTo(right.getName());
+
+                return byName != 0 ? byName : signature(left).compareTo(signature(right));
+            }
+        });
+
+        return new NativeMethodTable(owner, Collections.unmodifiableList(methods));
+    }
+
+
+    /**
+     * @return the class that declares the native methods.
+     */
+    public Class<?> getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return the native methods that are declared by the class.
+     */
+    public List<Method> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Returns the JNI name that the provided native method is implemented by. Like <code>javah</code> this is the short name unless the
+     * method is overloaded by another native method, in which case it is the long name.
+     *
+     * @param method - one of the native methods in this table.
+     * @return the JNI function name of the method.
+     */
+    public String functionName(Method method) {
+
+        for (Method other : methods) {
+
+            if (!other.equals(method) && other.getName().equals(method.getName())) return longName(method);
+        }
+
+        return shortName(method);
+    }
+
+
+    /**
+     * Returns the short JNI name of the provided native method, <code>"Java_&lt;mangled class name&gt;_&lt;mangled method name&gt;"</code>.
+     *
+     * @param method - a native method.
+     * @return the short JNI name.
+     */
+    public static String shortName(Method method) {
+
+        return JNI_PREFIX + mangle(method.getDeclaringClass().getName()) + '_' + mangle(method.getName());
+    }
+
+    /**
+     * Returns the long JNI name of the provided native method, this is the short name followed by the mangled argument signature.
+     *
+     * @param method - a native method.
+     * @return the long JNI name.
+     */
+    public static String longName(Method method) {
+
+        String signature = signature(method);
+
+        return shortName(method) + OVERLOAD_SEPARATOR + mangle(signature.substring(1, signature.indexOf(')')));
+    }
+
+    /**
+     * Returns the JNI signature of the provided method e.g. <code>"(ILjava/lang/String;)J"</code>.
+     *
+     * @param method - a method.
+     * @return the JNI signature.
+     */
+    public static String signature(Method method) {
+
+        StringBuilder signature = new StringBuilder("(");
+
+        for (Class<?> type : method.getParameterTypes()) signature.append(descriptor(type));
+
+        return signature.append(')').append(descriptor(method.getReturnType())).toString();
+    }
+
+
+    /**
+     * Generate a C header that registers the native methods of the provided classes from <code>JNI_OnLoad</code>.
+     *
+     * @param tables - the native methods of each class.
+     * @param guard  - the name of the include guard macro.
+     * @param writer - the writer that the header is written to.
+     * @throws IOException if the header could not be written.
+     */
+    public static void writeHeader(List<NativeMethodTable> tables, String guard, Writer writer) throws IOException {
+
+        writer.write("/* Generated by " + NativeMethodTable.class.getName() + ", do not edit. */\n\n");
+        writer.write("#ifndef " + guard + "\n#define " + guard + "\n\n#include <jni_register.h>\n\n");
+
+        writer.write("#ifdef __cplusplus\nextern \"C\" {\n#endif\n\n");
+
+        for (NativeMethodTable table : tables) {
+
+            for (Method method : table.methods) {
+
+                writer.write(cType(method.getReturnType()) + " JNICALL " + table.functionName(method) + "(JNIEnv *, "
+                        + (Modifier.isStatic(method.getModifiers()) ? "jclass" : "jobject"));
+
+                for (Class<?> type : method.getParameterTypes()) writer.write(", " + cType(type));
+
+                writer.write(");\n\n");
+            }
+        }
+
+        writer.write("#ifdef __cplusplus\n}\n#endif\n\n");
+
+        for (NativeMethodTable table : tables) {
+
+            writer.write("static const JNINativeMethod " + tableName(table) + "[] = {\n");
+
+            for (Method method : table.methods) {
+
+                writer.write("    JNI_REGISTER_METHOD(\"" + method.getName() + "\", \"" + signature(method) + "\", "
+                        + table.functionName(method) + "),\n");
+            }
+
+            writer.write("};\n\n");
+        }
+
+        writer.write("JNI_REGISTER_ON_LOAD_BEGIN\n");
+
+        for (NativeMethodTable table : tables) {
+
+            writer.write("    JNI_REGISTER_CLASS(\"" + table.owner.getName().replace('.', '/') + "\", " + tableName(table) + ")\n");
+        }
+
+        writer.write("JNI_REGISTER_ON_LOAD_END\n\n#endif /* " + guard + " */\n");
+    }
+
+    /**
+     * Generate a C header that registers the native methods of the classes with the provided names from <code>JNI_OnLoad</code>, see
+     * {@link #writeHeader(List, String, Writer)}.
+     *
+     * @param args - the header file to write followed by the names of the classes.
+     * @throws Exception if a class could not be found or the header could not be written.
+     */
+    public static void main(String[] args) throws Exception {
+
+        if (args.length < 2) {
+
+            System.err.println("Usage: java " + NativeMethodTable.class.getName() + " <header file> <class name>...");
+            System.exit(1);
+        }
+
+        List<NativeMethodTable> tables = new ArrayList<NativeMethodTable>();
+
+        // The classes are only looked at, so there is no need to initialise them.
+        for (int i = 1; i < args.length; i++) {
+
+            tables.add(of(Class.forName(args[i], false, NativeMethodTable.class.getClassLoader())));
+        }
+
+        File header = new File(args[0]);
+
+        String guard = "__INCLUDED_" + header.getName().toUpperCase(Locale.ENGLISH).replaceAll("[^A-Z0-9]", "_") + "__";
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(header), "UTF-8");
+
+        try {
+
+            writeHeader(tables, guard, writer);
+
+        } finally {
+
+            writer.close();
+        }
+    }
+
+
+    /**
+     * Mangle the provided class name, method name or argument signature into the form used by JNI function names.
+     */
+    static String mangle(String name) {
+
+        StringBuilder mangled = new StringBuilder(name.length());
+
+        for (int i = 0; i < name.length(); i++) {
+
+            char c = name.charAt(i);
+
+            if (c == '.' || c == '/') mangled.append('_');
+            else if (c == '_') mangled.append("_1");
+            else if (c == ';') mangled.append("_2");
+            else if (c == '[') mangled.append("_3");
+            else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) mangled.append(c);
+            else mangled.append("_0").append(String.format("%04x", (int) c));
+        }
+
+        return mangled.toString();
+    }
+
+    private static String descriptor(Class<?> type) {
+
+        if (type.isArray()) return type.getName().replace('.', '/');
+
+        if (type == void.class) return "V";
+        if (type == boolean.class) return "Z";
+        if (type == byte.class) return "B";
+        if (type == char.class) return "C";
+        if (type == short.class) return "S";
+        if (type == int.class) return "I";
+        if (type == long.class) return "J";
+        if (type == float.class) return "F";
+        if (type == double.class) return "D";
+
+        return 'L' + type.getName().replace('.', '/') + ';';
+    }
+
+    private static String cType(Class<?> type) {
+
+        if (type.isPrimitive()) return type == void.class ? "void" : "j" + type.getName();
+
+        if (type.isArray()) {
+
+            Class<?> component = type.getComponentType();
+
+            return component.isPrimitive() ? "j" + component.getName() + "Array" : "jobjectArray";
+        }
+
+        if (type == String.class) return "jstring";
+        if (type == Class.class) return "jclass";
+        if (Throwable.class.isAssignableFrom(type)) return "jthrowable";
+
+        return "jobject";
+    }
+
+    private static String tableName(NativeMethodTable table) {
+
+        return mangle(table.owner.getName()) + "_natives";
+    }
+}
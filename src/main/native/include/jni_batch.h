@@ -0,0 +1,133 @@
+#ifndef __INCLUDED_ORG_KARLBENNETT_JNI_BATCH_H__
+#define __INCLUDED_ORG_KARLBENNETT_JNI_BATCH_H__
+
+/*
+ * User: karl
+ * Date: 18/10/26
+ *
+ * The native side of org.karlbennett.jni.NativeBatch, this lets many operations be run with a single JNI call without creating any Java
+ * objects per operation.
+ *
+ * The Java side writes fixed size requests into one direct ByteBuffer and the native side writes one fixed size result for each of them into
+ * another, both in the native byte order. A native method that takes the two buffers and a count only has to supply a function that runs a
+ * single request:
+ *
+ *     static jlong run(const jni_batch_request *request) {
+ *         return request->value + request->arg;
+ *     }
+ *
+ *     JNIEXPORT jint JNICALL Java_com_example_Native_process(JNIEnv *env, jclass type, jobject requests, jobject results, jint count) {
+ *         return jni_batch_run(env, requests, results, count, run);
+ *     }
+ *
+ * This header works from both C and C++.
+ */
+
+#include <jni.h>
+
+/* The size in bytes of each request, this must match NativeBatch.REQUEST_SIZE. */
+#define JNI_BATCH_REQUEST_SIZE 16
+
+/* The size in bytes of each result, this must match NativeBatch.RESULT_SIZE. */
+#define JNI_BATCH_RESULT_SIZE 8
+
+/* The JNI function table, which is reached differently from C and C++. */
+#ifdef __cplusplus
+#define JNI_BATCH_FUNCTIONS(env) ((env)->functions)
+#else
+#define JNI_BATCH_FUNCTIONS(env) (*(env))
+#endif
+
+/*
+ * A single request as written by NativeBatch.add(int, int, long).
+ */
+typedef struct jni_batch_request {
+
+    /* What to do, the meaning is entirely up to the native method. */
+    jint op;
+
+    jint arg;
+
+    jlong value;
+
+} jni_batch_request;
+
+/*
+ * The requests and results of a batch.
+ */
+typedef struct jni_batch {
+
+    const jni_batch_request *requests;
+
+    jlong *results;
+
+    jint count;
+
+} jni_batch;
+
+/* Fail to compile if the request layout ever stops matching the Java side. */
+typedef char jni_batch_request_size_check[sizeof(jni_batch_request) == JNI_BATCH_REQUEST_SIZE ? 1 : -1];
+typedef char jni_batch_result_size_check[sizeof(jlong) == JNI_BATCH_RESULT_SIZE ? 1 : -1];
+
+/*
+ * Throw a java.lang.IllegalArgumentException with the provided message.
+ */
+static inline void jni_batch_throw(JNIEnv *env, const char *message) {
+
+    jclass type = JNI_BATCH_FUNCTIONS(env)->FindClass(env, "java/lang/IllegalArgumentException");
+
+    /* If the class can't be found then there is already a NoClassDefFoundError pending. */
+    if (type != NULL) JNI_BATCH_FUNCTIONS(env)->ThrowNew(env, type, message);
+}
+
+/*
+ * Get the requests and results of a batch straight from the memory of the direct buffers, nothing is copied.
+ *
+ * Returns 0 on success, otherwise an IllegalArgumentException is left pending and -1 is returned.
+ */
+static inline int jni_batch_open(JNIEnv *env, jobject requests, jobject results, jint count, jni_batch *batch) {
+
+    void *requestAddress = JNI_BATCH_FUNCTIONS(env)->GetDirectBufferAddress(env, requests);
+    void *resultAddress = JNI_BATCH_FUNCTIONS(env)->GetDirectBufferAddress(env, results);
+
+    if (requestAddress == NULL || resultAddress == NULL) {
+
+        jni_batch_throw(env, "The requests and results must be direct buffers.");
+
+        return -1;
+    }
+
+    if (count < 0
+            || JNI_BATCH_FUNCTIONS(env)->GetDirectBufferCapacity(env, requests) < (jlong) count * JNI_BATCH_REQUEST_SIZE
+            || JNI_BATCH_FUNCTIONS(env)->GetDirectBufferCapacity(env, results) < (jlong) count * JNI_BATCH_RESULT_SIZE) {
+
+        jni_batch_throw(env, "The requests and results buffers are too small for the count.");
+
+        return -1;
+    }
+
+    batch->requests = (const jni_batch_request *) requestAddress;
+    batch->results = (jlong *) resultAddress;
+    batch->count = count;
+
+    return 0;
+}
+
+/*
+ * Run the provided function for every request in a batch and write what it returns as the result.
+ *
+ * Returns the count of requests that were run, or -1 with an IllegalArgumentException pending if the buffers can't be used.
+ */
+static inline jint jni_batch_run(JNIEnv *env, jobject requests, jobject results, jint count, jlong (*run)(const jni_batch_request *)) {
+
+    jni_batch batch;
+    jint i;
+
+    if (jni_batch_open(env, requests, results, count, &batch) != 0) return -1;
+
+    for (i = 0; i < batch.count; i++) batch.results[i] = run(&batch.requests[i]);
+
+    return batch.count;
+}
+
+#endif /* __INCLUDED_ORG_KARLBENNETT_JNI_BATCH_H__ */
@@ -0,0 +1,79 @@
+#ifndef __INCLUDED_ORG_KARLBENNETT_JNI_REGISTER_H__
+#define __INCLUDED_ORG_KARLBENNETT_JNI_REGISTER_H__
+
+/*
+ * User: karl
+ * Date: 18/10/26
+ *
+ * Macros for binding native methods from JNI_OnLoad with RegisterNatives, so that the JVM never has to search for them when they are first
+ * called. The headers generated by org.karlbennett.jni.NativeMethodTable use these, but they can also be used by hand:
+ *
+ *     static const JNINativeMethod natives[] = {
+ *         JNI_REGISTER_METHOD("nativeMethod", "()Ljava/lang/String;", Java_com_example_Native_nativeMethod),
+ *     };
+ *
+ *     JNI_REGISTER_ON_LOAD_BEGIN
+ *         JNI_REGISTER_CLASS("com/example/Native", natives)
+ *     JNI_REGISTER_ON_LOAD_END
+ *
+ * JNI_OnLoad finds each class with the class loader of the class that loaded the native library, which is the class loader of JniUtils when
+ * the library is loaded by JniUtils. If the class can't be found, or a method isn't declared by it, the native library fails to load.
+ *
+ * This header works from both C and C++.
+ */
+
+#include <jni.h>
+
+/* The JNI function tables, which are reached differently from C and C++. */
+#ifdef __cplusplus
+#define JNI_REGISTER_FUNCTIONS(env) ((env)->functions)
+#define JNI_REGISTER_EXTERN_C extern "C"
+#else
+#define JNI_REGISTER_FUNCTIONS(env) (*(env))
+#define JNI_REGISTER_EXTERN_C
+#endif
+
+/* The JNI version that JNI_OnLoad asks for. */
+#define JNI_REGISTER_VERSION JNI_VERSION_1_6
+
+/* A single entry in a table of native methods. */
+#define JNI_REGISTER_METHOD(name, signature, function) { (char *) (name), (char *) (signature), (void *) (function) }
+
+/* The number of entries in a table of native methods. */
+#define JNI_REGISTER_COUNT(methods) ((jint) (sizeof(methods) / sizeof((methods)[0])))
+
+/*
+ * Bind the provided native methods to the class with the provided name.
+ *
+ * Returns JNI_OK on success, otherwise an exception is left pending and JNI_ERR is returned.
+ */
+static inline jint jni_register_natives(JNIEnv *env, const char *className, const JNINativeMethod *methods, jint count) {
+
+    jclass type = JNI_REGISTER_FUNCTIONS(env)->FindClass(env, className);
+
+    if (type == NULL) return JNI_ERR;
+
+    jint registered = JNI_REGISTER_FUNCTIONS(env)->RegisterNatives(env, type, methods, count);
+
+    JNI_REGISTER_FUNCTIONS(env)->DeleteLocalRef(env, type);
+
+    return registered == 0 ? JNI_OK : JNI_ERR;
+}
+
+/* The start of a JNI_OnLoad that registers native methods, follow it with JNI_REGISTER_CLASS lines and end it with JNI_REGISTER_ON_LOAD_END. */
+#define JNI_REGISTER_ON_LOAD_BEGIN \
+    JNI_REGISTER_EXTERN_C JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved) { \
+        JNIEnv *env; \
+        (void) reserved; \
+        if (JNI_REGISTER_FUNCTIONS(vm)->GetEnv(vm, (void **) &env, JNI_REGISTER_VERSION) != JNI_OK) return JNI_ERR;
+
+/* Register a table of native methods with the class with the provided name, e.g. "com/example/Native". */
+#define JNI_REGISTER_CLASS(className, methods) \
+        if (jni_register_natives(env, (className), (methods), JNI_REGISTER_COUNT(methods)) != JNI_OK) return JNI_ERR;
+
+/* The end of a JNI_OnLoad that registers native methods. */
+#define JNI_REGISTER_ON_LOAD_END \
+        return JNI_REGISTER_VERSION; \
+    }
+
+#endif /* __INCLUDED_ORG_KARLBENNETT_JNI_REGISTER_H__ */
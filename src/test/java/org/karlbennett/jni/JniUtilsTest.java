@@ -4,10 +4,37 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.karlbennett.jni.exception.IORuntimeException;
+import org.karlbennett.jni.test.JniTestBatch;
 import org.karlbennett.jni.test.JniTestClassOne;
+import org.karlbennett.jni.test.JniTestClassRegistered;
+import org.karlbennett.jni.test.JniTestClassThree;
 import org.karlbennett.jni.test.JniTestClassTwo;
+import org.karlbennett.jni.test.JniTestClassUnbound;
 
 import java.io.*;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.*;
 import static org.karlbennett.jni.JniUtils.*;
@@ -22,6 +49,8 @@ public class JniUtilsTest {
 
     private static final String TEST_STRING_TWO = "Test string from native JniTestClassTwo.";
 
+    private static final String TEST_STRING_THREE = "Test string from native JniTestDependency.";
+
     private static final String OTHER_LIB_DIR = "other-lib/";
 
     private static final String OTHER_TMP_DIR = "/tmp/jni-test/";
@@ -30,6 +59,12 @@ public class JniUtilsTest {
 
     private static final String TEST_CLASS_TWO_NAME = JniTestClassTwo.class.getSimpleName();
 
+    private static final String TEST_CLASS_THREE_NAME = JniTestClassThree.class.getSimpleName();
+
+    private static final String TEST_DEPENDENCY_NAME = "JniTestDependency";
+
+    private static final String TEST_REGISTERED_NAME = JniTestClassRegistered.class.getSimpleName();
+
     private static final String TEST_COPY_FILE_NAME = "TestFile.txt";
 
 
@@ -45,6 +80,27 @@ public class JniUtilsTest {
         return lines.toString();
     }
 
+    private static byte[] readBytes(File file) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+
+        writeFile(in, bytes);
+
+        in.close();
+
+        return bytes.toByteArray();
+    }
+
+    private static void delete(File file) throws IOException {
+
+        File[] children = file.listFiles();
+
+        if (children != null) for (File child : children) delete(child);
+
+        if (!file.delete()) throw new IOException("Could not delete file: " + file.getAbsolutePath());
+    }
+
 
     @Before
     public void setup() throws IOException {
@@ -57,14 +113,7 @@ public class JniUtilsTest {
     @After
     public void tearDown() throws IOException {
 
-        File otherTempDir = new File(OTHER_TMP_DIR);
-
-        for (File file : otherTempDir.listFiles()) {
-
-            if (!file.delete()) throw new IOException("Could not delete file: " + file.getAbsolutePath());
-        }
-
-        if (!otherTempDir.delete()) throw new IOException("Could not delete other temp directory.");
+        delete(new File(OTHER_TMP_DIR));
     }
 
     @Test
@@ -119,6 +168,52 @@ public class JniUtilsTest {
         else System.clearProperty(NATIVE_LIBRARY_FS_DIR_PROPERTY);
     }
 
+    @Test
+    public void testGetNativeLibraryExtractionDir() throws Exception {
+
+        assertEquals("default extraction dir incorrect", getNativeLibraryFSDir(), getNativeLibraryExtractionDir());
+
+        final String OLD_MODE_VALUE = System.getProperty(NATIVE_LIBRARY_FS_MODE_PROPERTY);
+        final String OLD_MIN_FREE_VALUE = System.getProperty(NATIVE_LIBRARY_MEMORY_FS_MIN_FREE_PROPERTY);
+
+        try {
+
+            System.setProperty(NATIVE_LIBRARY_FS_MODE_PROPERTY, NATIVE_LIBRARY_FS_MODE_MEMORY);
+
+            // No file system can have this much space free so the memory file system can never be used.
+            System.setProperty(NATIVE_LIBRARY_MEMORY_FS_MIN_FREE_PROPERTY, String.valueOf(Long.MAX_VALUE));
+
+            assertEquals("extraction dir did not fall back", getNativeLibraryFSDir(), getNativeLibraryExtractionDir());
+
+        } finally {
+
+            if (OLD_MODE_VALUE == null) System.clearProperty(NATIVE_LIBRARY_FS_MODE_PROPERTY);
+            else System.setProperty(NATIVE_LIBRARY_FS_MODE_PROPERTY, OLD_MODE_VALUE);
+
+            if (OLD_MIN_FREE_VALUE == null) System.clearProperty(NATIVE_LIBRARY_MEMORY_FS_MIN_FREE_PROPERTY);
+            else System.setProperty(NATIVE_LIBRARY_MEMORY_FS_MIN_FREE_PROPERTY, OLD_MIN_FREE_VALUE);
+        }
+    }
+
+    @Test
+    public void testMountTable() throws Exception {
+
+        MountTable mounts = MountTable.parse(new StringReader(
+                "/dev/vda / ext4 rw,relatime 0 0\n" +
+                        "tmpfs /dev/shm tmpfs rw,nosuid,nodev,noexec 0 0\n" +
+                        "tmpfs /run/native\\040libs tmpfs rw,nosuid 0 0\n" +
+                        "tmpfs /dev/shm tmpfs rw,nosuid,nodev 0 0\n"));
+
+        assertEquals("root file system incorrect", "ext4", mounts.find(new File("/tmp/jni")).type);
+        assertFalse("disk file system is memory", mounts.find(new File("/tmp/jni")).isExecutableMemory());
+
+        // The later /dev/shm mount hides the earlier noexec one.
+        assertTrue("remounted shared memory is not executable memory", mounts.find(new File("/dev/shm/jni")).isExecutableMemory());
+
+        assertEquals("escaped mount point incorrect", "/run/native libs", mounts.find(new File("/run/native libs/jni")).mountPoint);
+        assertEquals("prefix of mount point matched", "/", mounts.find(new File("/run/native")).mountPoint);
+    }
+
     @Test
     public void testWriteFile() throws Exception {
 
@@ -152,6 +247,57 @@ public class JniUtilsTest {
         assertEquals("file not copied correctly", lines.toString(), copiedLines.toString());
     }
 
+    @Test
+    public void testWriteFileWithChannels() throws Exception {
+
+        File inFile = new File(OTHER_TMP_DIR, "in-" + TEST_COPY_FILE_NAME);
+
+        InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(TEST_COPY_FILE_NAME);
+        OutputStream out = new FileOutputStream(inFile);
+
+        writeFile(in, out);
+
+        in.close();
+        out.close();
+
+        // Copy from a plain stream channel so that the buffered copy is used.
+        File bufferedFile = new File(OTHER_TMP_DIR, "buffered-" + TEST_COPY_FILE_NAME);
+
+        ReadableByteChannel inChannel = Channels.newChannel(new FileInputStream(inFile));
+        FileChannel outChannel = new FileOutputStream(bufferedFile).getChannel();
+
+        long written = writeFile(inChannel, outChannel);
+
+        inChannel.close();
+        outChannel.close();
+
+        assertEquals("incorrect number of bytes written", inFile.length(), written);
+        assertEquals("file not copied correctly", inFile.length(), bufferedFile.length());
+
+        // Then copy between two file channels so that the bytes are transferred directly.
+        File transferredFile = new File(OTHER_TMP_DIR, "transferred-" + TEST_COPY_FILE_NAME);
+
+        inChannel = new FileInputStream(inFile).getChannel();
+        outChannel = new FileOutputStream(transferredFile).getChannel();
+
+        written = writeFile(inChannel, outChannel);
+
+        inChannel.close();
+        outChannel.close();
+
+        assertEquals("incorrect number of bytes transferred", inFile.length(), written);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(inFile)));
+        String lines = readLines(reader);
+        reader.close();
+
+        reader = new BufferedReader(new InputStreamReader(new FileInputStream(transferredFile)));
+        String copiedLines = readLines(reader);
+        reader.close();
+
+        assertEquals("file not transferred correctly", lines, copiedLines);
+    }
+
     @Test
     public void testFindNativeLibraryName() throws Exception {
 
@@ -161,6 +307,103 @@ public class JniUtilsTest {
         assertEquals("library name incorrect", System.mapLibraryName(TEST_CLASS_ONE_NAME), name);
     }
 
+    @Test
+    public void testFindNativeLibraryNameUsesIndex() throws Exception {
+
+        final String LIB_NAME = "IndexTestLibrary";
+
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+
+        assertTrue("library not indexed",
+                NativeLibraryIndex.directory(classLoader, OTHER_LIB_DIR).names.contains(System.mapLibraryName(TEST_CLASS_ONE_NAME)));
+
+        // Nothing is known about the roots of a class loader that isn't a URL class loader, so its index is never complete.
+        ClassLoader opaqueClassLoader = new ClassLoader(classLoader) {
+        };
+
+        assertFalse("index of an unknown class loader complete", NativeLibraryIndex.directory(opaqueClassLoader, OTHER_LIB_DIR).complete);
+
+        // Add a new library to the class path after the directory has been indexed.
+        File libFile = new File(JniUtils.toFile(classLoader.getResource(OTHER_LIB_DIR)), System.mapLibraryName(LIB_NAME));
+        assertTrue("could not create library file", libFile.createNewFile());
+
+        try {
+
+            NativeLibraryIndex.Directory directory = NativeLibraryIndex.directory(classLoader, OTHER_LIB_DIR);
+
+            assertFalse("index not cached", directory.names.contains(libFile.getName()));
+
+            // Every root of the test class path is a directory or JAR file, so the index is complete and a miss is final.
+            assertTrue("index of the test class path not complete", directory.complete);
+            assertNull("complete index missed but library found", findNativeLibraryName(OTHER_LIB_DIR, LIB_NAME));
+
+            // Whereas a miss in an incomplete index falls back to the class loader.
+            Thread.currentThread().setContextClassLoader(opaqueClassLoader);
+
+            try {
+
+                assertEquals("unindexed library name incorrect", libFile.getName(), findNativeLibraryName(OTHER_LIB_DIR, LIB_NAME));
+
+            } finally {
+
+                Thread.currentThread().setContextClassLoader(classLoader);
+            }
+
+            invalidateNativeLibraryIndex();
+
+            assertTrue("index not invalidated", NativeLibraryIndex.directory(classLoader, OTHER_LIB_DIR).names.contains(libFile.getName()));
+            assertEquals("indexed library name incorrect", libFile.getName(), findNativeLibraryName(OTHER_LIB_DIR, LIB_NAME));
+
+        } finally {
+
+            assertTrue("could not delete library file", libFile.delete());
+
+            invalidateNativeLibraryIndex();
+        }
+    }
+
+    @Test
+    public void testNativeLibraryManifest() throws Exception {
+
+        final String LIB_FILE_NAME = System.mapLibraryName(TEST_CLASS_TWO_NAME);
+
+        InputStream in = Thread.currentThread().getContextClassLoader().getResourceAsStream(
+                DEFAULT_NATIVE_LIBRARY_JAR_DIR + NATIVE_LIBRARY_MANIFEST_NAME);
+
+        assertNotNull("manifest not generated", in);
+
+        NativeLibraryManifest manifest = NativeLibraryManifest.read(in);
+
+        in.close();
+
+        NativeLibraryManifest.Entry entry = manifest.find(TEST_CLASS_TWO_NAME);
+
+        assertNotNull("library not in manifest", entry);
+        assertEquals("library file name incorrect", LIB_FILE_NAME, entry.getFileName());
+        assertSame("full name lookup incorrect", entry, manifest.find(LIB_FILE_NAME));
+        assertEquals("library name incorrect", TEST_CLASS_TWO_NAME, entry.getName());
+        assertEquals("library os incorrect", System.getProperty("os.name"), entry.getOs());
+        assertEquals("library arch incorrect", System.getProperty("os.arch"), entry.getArch());
+
+        // Extracting the library should record the hash from the manifest.
+        final String OLD_VALUE = System.getProperty(NATIVE_LIBRARY_CACHE_PROPERTY);
+
+        System.setProperty(NATIVE_LIBRARY_CACHE_PROPERTY, "true");
+
+        try {
+
+            File file = extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+            assertEquals("library size incorrect", entry.getSize(), file.length());
+            assertEquals("library hash incorrect", entry.getSha256(), ExtractionCache.recordedSha256(file));
+
+        } finally {
+
+            if (OLD_VALUE != null) System.setProperty(NATIVE_LIBRARY_CACHE_PROPERTY, OLD_VALUE);
+            else System.clearProperty(NATIVE_LIBRARY_CACHE_PROPERTY);
+        }
+    }
+
     @Test
     public void testFindNativeLibraryNameWithNullDir() throws Exception {
 
@@ -198,6 +441,187 @@ public class JniUtilsTest {
         assertEquals("incorrect string returned from native method", TEST_STRING_TWO, JniTestClassTwo.nativeMethod());
     }
 
+    @Test
+    public void testLoadNativeLibraryAsync() throws Exception {
+
+        Future<File> loaded = loadNativeLibraryAsync(OTHER_LIB_DIR, OTHER_TMP_DIR, TEST_CLASS_ONE_NAME);
+
+        assertEquals("library file incorrect", System.mapLibraryName(TEST_CLASS_ONE_NAME), loaded.get().getName());
+        assertEquals("incorrect string returned from native method", TEST_STRING_ONE, JniTestClassOne.nativeMethod());
+
+        // Now that it's loaded asking again should complete straight away.
+        assertTrue("loaded library not completed", loadNativeLibraryAsync(OTHER_LIB_DIR, OTHER_TMP_DIR, TEST_CLASS_ONE_NAME).isDone());
+    }
+
+    @Test
+    public void testLoadNativeLibraryAsyncWithBadLibName() throws Exception {
+
+        Future<File> loaded = loadNativeLibraryAsync("this lib should not exist");
+
+        try {
+
+            loaded.get();
+
+            fail("bad library loaded");
+
+        } catch (ExecutionException e) {
+
+            assertTrue("incorrect failure", e.getCause() instanceof IORuntimeException);
+        }
+    }
+
+    @Test
+    public void testNativeLibraryListener() throws Exception {
+
+        final String BAD_LIB_NAME = "this lib should not exist";
+
+        final String OLD_VALUE = System.getProperty(NATIVE_LIBRARY_CACHE_PROPERTY);
+        final String OLD_IN_PLACE_VALUE = System.getProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY);
+
+        final List<NativeLibraryLoadResult> loaded = new ArrayList<NativeLibraryLoadResult>();
+        final List<NativeLibraryLoadResult> failed = new ArrayList<NativeLibraryLoadResult>();
+
+        NativeLibraryListener listener = new NativeLibraryListener() {
+
+            public void nativeLibraryLoaded(NativeLibraryLoadResult result) {
+                loaded.add(result);
+            }
+
+            public void nativeLibraryFailed(NativeLibraryLoadResult result) {
+                failed.add(result);
+            }
+        };
+
+        NativeLibraryStats stats = getNativeLibraryStats();
+
+        final long OLD_CACHE_HITS = stats.getCacheHits();
+        final long OLD_FAILED_COUNT = stats.getFailedCount();
+
+        addNativeLibraryListener(listener);
+
+        try {
+
+            System.setProperty(NATIVE_LIBRARY_CACHE_PROPERTY, "true");
+            System.setProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY, "false");
+
+            // Extract the library first so that loading it reuses the extracted copy.
+            File file = extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+            loadNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+            assertEquals("incorrect number of loaded results", 1, loaded.size());
+
+            NativeLibraryLoadResult result = loaded.get(0);
+
+            assertEquals("library file incorrect", file, result.getFile());
+            assertTrue("cache not hit", result.isCacheHit());
+            assertEquals("bytes copied for a cache hit", 0, result.getBytesCopied());
+            assertTrue("load time not recorded", result.getLoadNanos() > 0);
+
+            try {
+
+                loadNativeLibrary(BAD_LIB_NAME);
+
+                fail("bad library loaded");
+
+            } catch (IORuntimeException e) {
+
+                assertEquals("incorrect number of failed results", 1, failed.size());
+                assertEquals("incorrect failure", e, failed.get(0).getFailure());
+                // Every root of the test class path has been listed so a missing library is known to be missing without a probe.
+                assertEquals("complete index missed but class path probed", 0, failed.get(0).getProbes());
+            }
+
+            assertEquals("cache hit not counted", OLD_CACHE_HITS + 1, stats.getCacheHits());
+            assertEquals("failure not counted", OLD_FAILED_COUNT + 1, stats.getFailedCount());
+
+        } finally {
+
+            removeNativeLibraryListener(listener);
+
+            if (OLD_VALUE == null) System.clearProperty(NATIVE_LIBRARY_CACHE_PROPERTY);
+            else System.setProperty(NATIVE_LIBRARY_CACHE_PROPERTY, OLD_VALUE);
+
+            if (OLD_IN_PLACE_VALUE == null) System.clearProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY);
+            else System.setProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY, OLD_IN_PLACE_VALUE);
+        }
+    }
+
+    @Test
+    public void testGetNativeLibraryMemory() throws Exception {
+
+        File file = loadNativeLibraryAsync(OTHER_LIB_DIR, OTHER_TMP_DIR, TEST_CLASS_ONE_NAME).get();
+
+        NativeLibraryMemory memory = getNativeLibraryMemory();
+
+        // The memory mappings can only be read on Linux.
+        if (memory != null) {
+
+            NativeLibraryMemory.Usage usage = memory.get(file);
+
+            assertNotNull("loaded library not mapped", usage);
+            assertTrue("mapped size not recorded", usage.getMappedBytes() > 0);
+            assertTrue("total mapped size incorrect", memory.getMappedBytes() >= usage.getMappedBytes());
+            assertTrue("library missing from the report", memory.toString().contains(file.getName()));
+        }
+
+        // Check the parsing with a library that has been deleted since it was loaded and another that was never loaded.
+        File deleted = new File(OTHER_TMP_DIR, System.mapLibraryName(TEST_CLASS_TWO_NAME));
+        File unmapped = new File(OTHER_TMP_DIR, System.mapLibraryName(TEST_DEPENDENCY_NAME));
+
+        String mapping = deleted.getCanonicalPath() + " (deleted)";
+
+        String smaps = "7f0000000000-7f0000002000 r-xp 00000000 00:1f 1234   " + mapping + "\n"
+                + "Size:                  8 kB\n"
+                + "Rss:                   8 kB\n"
+                + "Pss:                   4 kB\n"
+                + "Shared_Clean:          8 kB\n"
+                + "Private_Dirty:         0 kB\n"
+                + "VmFlags: rd ex mr mw me\n"
+                + "7f0000002000-7f0000003000 rw-p 00002000 00:1f 1234   " + mapping + "\n"
+                + "Rss:                   4 kB\n"
+                + "Private_Dirty:         4 kB\n"
+                + "7f0000003000-7f0000004000 rw-p 00000000 00:00 0\n"
+                + "Rss:                   4 kB\n";
+
+        memory = NativeLibraryMemory.parse(new StringReader(smaps), Arrays.asList(deleted, unmapped));
+
+        assertEquals("incorrect number of mapped libraries", 1, memory.getUsages().size());
+        assertNull("unmapped library found", memory.get(unmapped));
+
+        NativeLibraryMemory.Usage usage = memory.get(deleted);
+
+        assertTrue("deleted library not recorded as deleted", usage.isDeleted());
+        assertEquals("incorrect number of mappings", 2, usage.getMappings());
+        assertEquals("incorrect mapped size", 0x3000, usage.getMappedBytes());
+        assertEquals("incorrect resident size", 12 * 1024, usage.getResidentBytes());
+        assertEquals("incorrect shared size", 8 * 1024, usage.getSharedBytes());
+        assertEquals("incorrect private size", 4 * 1024, usage.getPrivateBytes());
+
+        // Without smaps only the mapped sizes are known.
+        usage = NativeLibraryMemory.parse(new StringReader(smaps.replaceAll("(?m)^[A-Za-z_]+:.*\n", "")), Arrays.asList(deleted))
+                .get(deleted);
+
+        assertEquals("incorrect mapped size", 0x3000, usage.getMappedBytes());
+        assertEquals("resident size known without smaps", -1, usage.getResidentBytes());
+    }
+
+    @Test
+    public void testLoadNativeLibraryInPlace() throws Exception {
+
+        final String LIB_FILE_NAME = System.mapLibraryName(TEST_CLASS_ONE_NAME);
+
+        File file = loadNativeLibraryAsync(OTHER_LIB_DIR, OTHER_TMP_DIR, TEST_CLASS_ONE_NAME).get();
+
+        // The test libraries are plain files on the class path so they should be loaded from there rather than being extracted.
+        assertEquals("library not loaded in place",
+                toFile(Thread.currentThread().getContextClassLoader().getResource(OTHER_LIB_DIR + LIB_FILE_NAME)).getAbsoluteFile(), file);
+        assertFalse("library extracted", new File(OTHER_TMP_DIR, LIB_FILE_NAME).exists());
+        assertTrue("library not recorded as loaded", getLoadedNativeLibraries().contains(file));
+
+        assertEquals("incorrect string returned from native method", TEST_STRING_ONE, JniTestClassOne.nativeMethod());
+    }
+
     @Test(expected = NullPointerException.class)
     public void testLoadNativeLibraryWithNullLibName() throws Exception {
 
@@ -209,4 +633,920 @@ public class JniUtilsTest {
 
         loadNativeLibrary("this lib should not exist");
     }
+
+    @Test
+    public void testExtractNativeLibrary() throws Exception {
+
+        File file = extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+        assertEquals("extracted file incorrect", new File(OTHER_TMP_DIR, System.mapLibraryName(TEST_CLASS_TWO_NAME)), file);
+        assertTrue("library not extracted", file.isFile());
+    }
+
+    @Test
+    public void testExtractNativeLibraryWithCacheReusesFile() throws Exception {
+
+        final String OLD_VALUE = System.getProperty(NATIVE_LIBRARY_CACHE_PROPERTY);
+
+        System.setProperty(NATIVE_LIBRARY_CACHE_PROPERTY, "true");
+
+        try {
+
+            File file = extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+            assertTrue("sidecar not written", new File(OTHER_TMP_DIR, file.getName() + ".sha256").isFile());
+
+            // Wind the modified time back so that we can tell if the file gets rewritten.
+            final long OLD_TIME = 1000000000000L;
+            assertTrue("could not set modified time", file.setLastModified(OLD_TIME));
+
+            extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+            assertEquals("cached library was rewritten", OLD_TIME, file.lastModified());
+
+        } finally {
+
+            if (OLD_VALUE != null) System.setProperty(NATIVE_LIBRARY_CACHE_PROPERTY, OLD_VALUE);
+            else System.clearProperty(NATIVE_LIBRARY_CACHE_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testExtractNativeLibraryWithCacheReplacesChangedFile() throws Exception {
+
+        final String OLD_VALUE = System.getProperty(NATIVE_LIBRARY_CACHE_PROPERTY);
+
+        System.setProperty(NATIVE_LIBRARY_CACHE_PROPERTY, "true");
+
+        try {
+
+            File file = extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+            final long LENGTH = file.length();
+
+            // Clobber the extracted library so that it no longer matches the library on the class path.
+            OutputStream out = new FileOutputStream(file);
+            out.write("not a library".getBytes());
+            out.close();
+
+            extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+            assertEquals("changed library was not extracted again", LENGTH, file.length());
+
+        } finally {
+
+            if (OLD_VALUE != null) System.setProperty(NATIVE_LIBRARY_CACHE_PROPERTY, OLD_VALUE);
+            else System.clearProperty(NATIVE_LIBRARY_CACHE_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testExtractionCacheKeysFilesByModifiedTime() throws Exception {
+
+        // A copy of a library that can be touched without changing the one on the class path.
+        File source = extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR + "source/", TEST_CLASS_TWO_NAME);
+
+        ExtractionCache.Key key = ExtractionCache.key(source.toURI().toURL(), null);
+
+        // Neither a CRC nor a hash is worked out, which would mean reading the whole file.
+        assertEquals("file read for its CRC", -1, key.crc);
+        assertNull("file read for its hash", key.sha256);
+        assertEquals("incorrect size", source.length(), key.size);
+        assertEquals("incorrect modified time", source.lastModified(), key.modified);
+
+        File target = extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+        ExtractionCache.record(target, key, new byte[0]);
+
+        assertTrue("unchanged file not current", ExtractionCache.isCurrent(target, ExtractionCache.key(source.toURI().toURL(), null)));
+
+        assertTrue("could not set modified time", source.setLastModified(source.lastModified() - 10000));
+
+        assertFalse("changed file still current", ExtractionCache.isCurrent(target, ExtractionCache.key(source.toURI().toURL(), null)));
+    }
+
+    @Test
+    public void testExtractCompressedNativeLibrary() throws Exception {
+
+        final String LIB_FILE_NAME = System.mapLibraryName(TEST_CLASS_TWO_NAME);
+
+        final byte[] LIB_BYTES = readBytes(JniUtils.toFile(
+                Thread.currentThread().getContextClassLoader().getResource(DEFAULT_NATIVE_LIBRARY_JAR_DIR + LIB_FILE_NAME)));
+
+        // The other lib directory only has a gzipped copy of the library.
+        assertEquals("compressed library not found", LIB_FILE_NAME + ".gz", findNativeLibraryName(OTHER_LIB_DIR, TEST_CLASS_TWO_NAME));
+
+        File file = extractNativeLibrary(OTHER_LIB_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+        assertEquals("extracted file incorrect", new File(OTHER_TMP_DIR, LIB_FILE_NAME), file);
+        assertTrue("library not decompressed", Arrays.equals(LIB_BYTES, readBytes(file)));
+
+        // Then check a deflated copy of the library on a class path of its own.
+        final String DEFLATE_DIR = "deflate-lib/";
+
+        File classes = new File(OTHER_TMP_DIR, "classes");
+        File deflated = new File(classes, DEFLATE_DIR + LIB_FILE_NAME + ".deflate");
+
+        assertTrue("could not create deflate directory", deflated.getParentFile().mkdirs());
+
+        OutputStream out = new DeflaterOutputStream(new FileOutputStream(deflated));
+        out.write(LIB_BYTES);
+        out.close();
+
+        ClassLoader oldClassLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[]{classes.toURI().toURL()}, oldClassLoader));
+
+        try {
+
+            assertEquals("deflated library not found", deflated.getName(), findNativeLibraryName(DEFLATE_DIR, TEST_CLASS_TWO_NAME));
+
+            File inflated = extractNativeLibrary(DEFLATE_DIR, OTHER_TMP_DIR + "inflated/", TEST_CLASS_TWO_NAME);
+
+            assertEquals("extracted file name incorrect", LIB_FILE_NAME, inflated.getName());
+            assertTrue("library not inflated", Arrays.equals(LIB_BYTES, readBytes(inflated)));
+
+        } finally {
+
+            Thread.currentThread().setContextClassLoader(oldClassLoader);
+        }
+    }
+
+    @Test
+    public void testLoadNativeLibraryOnlyLoadsOnce() throws Exception {
+
+        final int THREAD_COUNT = 8;
+
+        // A directory of its own so that no other test can have already loaded the library from there.
+        final String FS_DIR = OTHER_TMP_DIR + "once/";
+        final String LIB_FILE_NAME = System.mapLibraryName(TEST_CLASS_ONE_NAME);
+
+        final String OLD_VALUE = System.getProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<NativeLibraryLoadResult> loaded = Collections.synchronizedList(new ArrayList<NativeLibraryLoadResult>());
+
+        NativeLibraryListener listener = new NativeLibraryListener() {
+
+            public void nativeLibraryLoaded(NativeLibraryLoadResult result) {
+                loaded.add(result);
+            }
+
+            public void nativeLibraryFailed(NativeLibraryLoadResult result) {
+            }
+        };
+
+        NativeLibraryStats stats = getNativeLibraryStats();
+
+        final long OLD_LOADED_COUNT = stats.getLoadedCount();
+        final long OLD_BYTES_COPIED = stats.getBytesCopied();
+
+        addNativeLibraryListener(listener);
+
+        try {
+
+            // The library has to be extracted for there to be anything to race over.
+            System.setProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY, "false");
+
+            List<Thread> threads = new ArrayList<Thread>();
+
+            for (int i = 0; i < THREAD_COUNT; i++) {
+
+                Thread thread = new Thread(new Runnable() {
+
+                    public void run() {
+
+                        try {
+
+                            start.await();
+
+                            loadNativeLibrary(OTHER_LIB_DIR, FS_DIR, TEST_CLASS_ONE_NAME);
+
+                        } catch (Throwable e) {
+
+                            failures.add(e);
+                        }
+                    }
+                });
+
+                thread.start();
+                threads.add(thread);
+            }
+
+            start.countDown();
+
+            for (Thread thread : threads) thread.join();
+
+            assertTrue("concurrent loads failed: " + failures, failures.isEmpty());
+            assertEquals("incorrect string returned from native method", TEST_STRING_ONE, JniTestClassOne.nativeMethod());
+
+            File extracted = new File(FS_DIR, LIB_FILE_NAME).getAbsoluteFile();
+
+            assertTrue("library not extracted", extracted.isFile());
+            assertTrue("library not registered", getLoadedNativeLibraries().contains(extracted));
+
+            // Once a library has been loaded asking for it again, even by its full name, should not extract it again.
+            loadNativeLibrary(OTHER_LIB_DIR, FS_DIR, TEST_CLASS_ONE_NAME);
+            loadNativeLibrary(OTHER_LIB_DIR, FS_DIR, LIB_FILE_NAME);
+
+            assertEquals("incorrect number of loaded results", 1, loaded.size());
+            assertEquals("library file incorrect", extracted, loaded.get(0).getFile().getAbsoluteFile());
+            assertEquals("incorrect number of loads counted", OLD_LOADED_COUNT + 1, stats.getLoadedCount());
+            assertEquals("library not extracted exactly once", OLD_BYTES_COPIED + extracted.length(), stats.getBytesCopied());
+
+        } finally {
+
+            removeNativeLibraryListener(listener);
+
+            if (OLD_VALUE == null) System.clearProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY);
+            else System.setProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY, OLD_VALUE);
+        }
+    }
+
+    @Test
+    public void testLoadNativeLibrariesOnlyExtractsOnce() throws Exception {
+
+        final int THREAD_COUNT = 8;
+
+        // A directory of its own so that no other test can have already loaded the library from there.
+        final String FS_DIR = OTHER_TMP_DIR + "bulk-once/";
+
+        final String OLD_VALUE = System.getProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+        // Every result that an extraction could have been recorded in, whether or not it was reported to the listeners.
+        final Set<NativeLibraryLoadResult> results = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<NativeLibraryLoadResult, Boolean>()));
+
+        NativeLibraryListener listener = new NativeLibraryListener() {
+
+            public void nativeLibraryLoaded(NativeLibraryLoadResult result) {
+                results.add(result);
+            }
+
+            public void nativeLibraryFailed(NativeLibraryLoadResult result) {
+                results.add(result);
+            }
+        };
+
+        addNativeLibraryListener(listener);
+
+        try {
+
+            System.setProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY, "false");
+
+            List<Thread> threads = new ArrayList<Thread>();
+
+            for (int i = 0; i < THREAD_COUNT; i++) {
+
+                final boolean bulk = i % 2 == 0;
+
+                Thread thread = new Thread(new Runnable() {
+
+                    public void run() {
+
+                        try {
+
+                            start.await();
+
+                            // Bulk loads extract on threads of their own, which must not race the extraction of an ordinary load.
+                            if (bulk) {
+
+                                for (NativeLibraryLoadResult result : loadNativeLibraries(OTHER_LIB_DIR, FS_DIR,
+                                        Collections.singletonList(TEST_CLASS_ONE_NAME), 2)) {
+
+                                    results.add(result);
+
+                                    if (result.getFailure() != null) failures.add(result.getFailure());
+                                }
+
+                            } else {
+
+                                loadNativeLibrary(OTHER_LIB_DIR, FS_DIR, TEST_CLASS_ONE_NAME);
+                            }
+
+                        } catch (Throwable e) {
+
+                            failures.add(e);
+                        }
+                    }
+                });
+
+                thread.start();
+                threads.add(thread);
+            }
+
+            start.countDown();
+
+            for (Thread thread : threads) thread.join();
+
+            assertTrue("concurrent loads failed: " + failures, failures.isEmpty());
+
+            File extracted = new File(FS_DIR, System.mapLibraryName(TEST_CLASS_ONE_NAME)).getAbsoluteFile();
+
+            assertTrue("library not registered", getLoadedNativeLibraries().contains(extracted));
+
+            long bytesCopied = 0;
+
+            synchronized (results) {
+
+                for (NativeLibraryLoadResult result : results) bytesCopied += result.getBytesCopied();
+            }
+
+            assertEquals("library not extracted exactly once", extracted.length(), bytesCopied);
+
+        } finally {
+
+            removeNativeLibraryListener(listener);
+
+            if (OLD_VALUE == null) System.clearProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY);
+            else System.setProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY, OLD_VALUE);
+        }
+    }
+
+    @Test
+    public void testExtractNativeLibraryAtomically() throws Exception {
+
+        final String OLD_VALUE = System.getProperty(NATIVE_LIBRARY_ATOMIC_EXTRACTION_PROPERTY);
+
+        System.setProperty(NATIVE_LIBRARY_ATOMIC_EXTRACTION_PROPERTY, "true");
+
+        try {
+
+            final int THREAD_COUNT = 4;
+
+            final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+            List<Thread> threads = new ArrayList<Thread>();
+
+            for (int i = 0; i < THREAD_COUNT; i++) {
+
+                Thread thread = new Thread(new Runnable() {
+
+                    public void run() {
+
+                        try {
+
+                            extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+                        } catch (Throwable e) {
+
+                            failures.add(e);
+                        }
+                    }
+                });
+
+                thread.start();
+                threads.add(thread);
+            }
+
+            for (Thread thread : threads) thread.join();
+
+            assertTrue("concurrent extractions failed: " + failures, failures.isEmpty());
+
+            File file = new File(OTHER_TMP_DIR, System.mapLibraryName(TEST_CLASS_TWO_NAME));
+
+            assertTrue("library not extracted", file.isFile());
+            assertTrue("lock file not created", new File(OTHER_TMP_DIR, file.getName() + ".lock").isFile());
+
+            // Nothing but the library, its sidecar and its lock file should be left behind.
+            assertEquals("temporary files left behind", 3, new File(OTHER_TMP_DIR).listFiles().length);
+
+            // Wind the modified time back so that we can tell if the file gets replaced.
+            final long OLD_TIME = 1000000000000L;
+            assertTrue("could not set modified time", file.setLastModified(OLD_TIME));
+
+            extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+            assertEquals("extracted library was replaced", OLD_TIME, file.lastModified());
+
+        } finally {
+
+            if (OLD_VALUE != null) System.setProperty(NATIVE_LIBRARY_ATOMIC_EXTRACTION_PROPERTY, OLD_VALUE);
+            else System.clearProperty(NATIVE_LIBRARY_ATOMIC_EXTRACTION_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testExtractNativeLibraryVersioned() throws Exception {
+
+        final String OLD_VALUE = System.getProperty(NATIVE_LIBRARY_VERSIONED_PROPERTY);
+
+        System.setProperty(NATIVE_LIBRARY_VERSIONED_PROPERTY, "true");
+
+        try {
+
+            File file = extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME);
+
+            File versionDir = file.getParentFile();
+
+            assertEquals("incorrect file name", System.mapLibraryName(TEST_CLASS_TWO_NAME), file.getName());
+            assertTrue("library not extracted into a version directory", versionDir.getName().startsWith(ExtractionVersions.VERSION_DIR_PREFIX));
+            assertEquals("incorrect extraction directory", new File(OTHER_TMP_DIR).getAbsoluteFile(), versionDir.getParentFile());
+            assertTrue("version directory not locked", new File(versionDir, ExtractionVersions.LOCK_FILE_NAME).isFile());
+
+            // Wind the modified time back so that we can tell if the file gets replaced.
+            final long OLD_TIME = 1000000000000L;
+            assertTrue("could not set modified time", file.setLastModified(OLD_TIME));
+
+            assertEquals("incorrect reused file", file, extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_TWO_NAME));
+            assertEquals("extracted library was replaced", OLD_TIME, file.lastModified());
+
+            // An old version that nothing is using.
+            File staleDir = new File(OTHER_TMP_DIR, ExtractionVersions.VERSION_DIR_PREFIX + "stale");
+            assertTrue("could not create stale version", staleDir.mkdirs());
+            assertTrue("could not create stale lock", new File(staleDir, ExtractionVersions.LOCK_FILE_NAME).createNewFile());
+            OutputStream staleOut = new FileOutputStream(new File(staleDir, "libstale.so"));
+            staleOut.write(new byte[1024]);
+            staleOut.close();
+            assertTrue("could not set modified time", staleDir.setLastModified(OLD_TIME));
+
+            // Something that just happens to have a similar name.
+            File otherDir = new File(OTHER_TMP_DIR, ExtractionVersions.VERSION_DIR_PREFIX + "other");
+            assertTrue("could not create other directory", otherDir.mkdirs());
+
+            // The version in use is the least recently used of all but must still be kept.
+            assertTrue("could not set modified time", versionDir.setLastModified(OLD_TIME - 1000));
+
+            assertEquals("incorrect number of evicted versions", 1, ExtractionVersions.evict(new File(OTHER_TMP_DIR), Long.MAX_VALUE, 1));
+
+            assertFalse("stale version not evicted", staleDir.exists());
+            assertTrue("version in use was evicted", file.isFile());
+            assertTrue("other directory was evicted", otherDir.isDirectory());
+
+        } finally {
+
+            if (OLD_VALUE != null) System.setProperty(NATIVE_LIBRARY_VERSIONED_PROPERTY, OLD_VALUE);
+            else System.clearProperty(NATIVE_LIBRARY_VERSIONED_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testLoadNativeLibraryForClass() throws Exception {
+
+        loadNativeLibrary(JniTestClassTwo.class, TEST_CLASS_TWO_NAME);
+
+        assertEquals("incorrect string returned", TEST_STRING_TWO, JniTestClassTwo.nativeMethod());
+
+        // The check can't see everything that the JVM can, so a method that can't be found is reported to the listeners and the load works.
+        final String OLD_VALUE = System.getProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY);
+
+        final List<NativeLibraryLoadResult> loaded = new ArrayList<NativeLibraryLoadResult>();
+
+        NativeLibraryListener listener = new NativeLibraryListener() {
+
+            public void nativeLibraryLoaded(NativeLibraryLoadResult result) {
+                loaded.add(result);
+            }
+
+            public void nativeLibraryFailed(NativeLibraryLoadResult result) {
+            }
+        };
+
+        addNativeLibraryListener(listener);
+
+        try {
+
+            // A copy of its own so that the native library is actually loaded, and so checked, for the class.
+            System.setProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY, "false");
+
+            loadNativeLibrary(JniTestClassUnbound.class, DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR + "unbound/", TEST_CLASS_TWO_NAME);
+
+            assertEquals("incorrect number of loaded results", 1, loaded.size());
+            assertEquals("incorrect unbound native methods", Arrays.asList(JniTestClassUnbound.class.getName() +
+                    ".nativeMethod()Ljava/lang/String;"), loaded.get(0).getUnboundMethods());
+
+            // Loading it again doesn't check it again.
+            loadNativeLibrary(JniTestClassUnbound.class, DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR + "unbound/", TEST_CLASS_TWO_NAME);
+
+            assertEquals("library checked again", 1, loaded.size());
+
+            // A native method that is implemented by a native library that was loaded earlier is bound just the same.
+            loadNativeLibrary(OTHER_LIB_DIR, OTHER_TMP_DIR + "bound/", TEST_CLASS_ONE_NAME);
+
+            loaded.clear();
+
+            loadNativeLibrary(JniTestClassOne.class, DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR + "bound/", TEST_DEPENDENCY_NAME);
+
+            assertEquals("incorrect number of loaded results", 1, loaded.size());
+            assertTrue("method bound elsewhere reported", loaded.get(0).getUnboundMethods().isEmpty());
+            assertEquals("incorrect string returned", TEST_STRING_ONE, JniTestClassOne.nativeMethod());
+
+        } finally {
+
+            removeNativeLibraryListener(listener);
+
+            if (OLD_VALUE == null) System.clearProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY);
+            else System.setProperty(NATIVE_LIBRARY_IN_PLACE_PROPERTY, OLD_VALUE);
+        }
+
+        // None of the registered native methods are exported, they can only work if JNI_OnLoad registered them.
+        loadNativeLibrary(JniTestClassRegistered.class, DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_REGISTERED_NAME);
+
+        URL registered = Thread.currentThread().getContextClassLoader().getResource(
+                DEFAULT_NATIVE_LIBRARY_JAR_DIR + System.mapLibraryName(TEST_REGISTERED_NAME));
+        ElfFile elf = ElfFile.read(new File(registered.toURI()), true);
+
+        assertTrue("JNI_OnLoad not exported", elf.getExported().contains("JNI_OnLoad"));
+        assertFalse("native method exported", elf.getExported().contains(
+                NativeMethodTable.shortName(JniTestClassRegistered.class.getMethod("nativeMethod"))));
+
+        assertEquals("incorrect string returned", "Test string from native JniTestClassRegistered.", JniTestClassRegistered.nativeMethod());
+        assertEquals("incorrect int sum", 5, JniTestClassRegistered.add(2, 3));
+        assertEquals("incorrect long sum", 5000000000L, JniTestClassRegistered.add(2000000000L, 3000000000L));
+
+        // Without its section headers the symbols of a native library are unknown rather than empty, so its methods can't be checked.
+        byte[] bytes = readBytes(new File(registered.toURI()));
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(bytes[5] == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        if (bytes[4] == 2) header.putLong(0x28, 0);
+        else header.putInt(0x20, 0);
+
+        File stripped = new File(OTHER_TMP_DIR, "stripped-" + System.mapLibraryName(TEST_REGISTERED_NAME));
+        OutputStream out = new FileOutputStream(stripped);
+        out.write(bytes);
+        out.close();
+
+        assertNull("stripped symbols reported as empty", ElfFile.read(stripped, true).getExported());
+    }
+
+    @Test
+    public void testNativeMethodTable() throws Exception {
+
+        Method process = JniTestBatch.class.getMethod("process", ByteBuffer.class, ByteBuffer.class, int.class);
+
+        assertEquals("incorrect signature", "(Ljava/nio/ByteBuffer;Ljava/nio/ByteBuffer;I)I", NativeMethodTable.signature(process));
+        assertEquals("incorrect short name", "Java_org_karlbennett_jni_test_JniTestBatch_process", NativeMethodTable.shortName(process));
+        assertEquals("incorrect long name", "Java_org_karlbennett_jni_test_JniTestBatch_process__Ljava_nio_ByteBuffer_2Ljava_nio_ByteBuffer_2I",
+                NativeMethodTable.longName(process));
+
+        assertEquals("incorrect mangled name", "a_1b_2_3_000e9", NativeMethodTable.mangle("a_b;[\u00e9"));
+
+        NativeMethodTable table = NativeMethodTable.of(JniTestClassRegistered.class);
+
+        assertEquals("incorrect number of native methods", 3, table.getMethods().size());
+
+        // Overloaded native methods are implemented under their long names.
+        assertEquals("incorrect function name", "Java_org_karlbennett_jni_test_JniTestClassRegistered_add__II",
+                table.functionName(JniTestClassRegistered.class.getMethod("add", int.class, int.class)));
+        assertEquals("incorrect function name", "Java_org_karlbennett_jni_test_JniTestClassRegistered_nativeMethod",
+                table.functionName(JniTestClassRegistered.class.getMethod("nativeMethod")));
+    }
+
+    @Test
+    public void testLoadIsolatedNativeLibrary() throws Exception {
+
+        final int CYCLES = 5;
+        final int MAX_COLLECTIONS = 100;
+
+        for (int i = 0; i < CYCLES; i++) {
+
+            NativeLibraryHandle handle = loadIsolatedNativeLibrary(OTHER_LIB_DIR, OTHER_TMP_DIR, TEST_CLASS_ONE_NAME,
+                    Arrays.asList(JniTestClassOne.class.getName()));
+
+            File file = handle.getFile();
+
+            Class<?> owner = handle.loadClass(JniTestClassOne.class.getName());
+
+            assertNotSame("class not isolated", JniTestClassOne.class, owner);
+            assertEquals("incorrect string returned from native method", TEST_STRING_ONE, owner.getMethod("nativeMethod").invoke(null));
+
+            Reference<ClassLoader> classLoader = new WeakReference<ClassLoader>(handle.getClassLoader());
+
+            owner = null;
+            handle.close();
+
+            assertTrue("handle not closed", handle.isClosed());
+            assertFalse("native library copy not removed", file.exists());
+
+            // The JVM unloads the native library once its class loader has been collected, which can take more than one collection.
+            NativeLibraryMemory memory = NativeLibraryMemory.read(Collections.singleton(file));
+
+            for (int gc = 0; (classLoader.get() != null || (memory != null && memory.get(file) != null)) && gc < MAX_COLLECTIONS; gc++) {
+
+                System.gc();
+                Thread.sleep(10);
+
+                memory = NativeLibraryMemory.read(Collections.singleton(file));
+            }
+
+            assertNull("class loader not collected", classLoader.get());
+            assertTrue("native library not unloaded", memory == null || memory.get(file) == null);
+        }
+
+        // The classes still have to match the native library.
+        try {
+
+            loadIsolatedNativeLibrary(OTHER_LIB_DIR, OTHER_TMP_DIR, TEST_CLASS_ONE_NAME,
+                    Arrays.asList(JniTestClassUnbound.class.getName()));
+
+            fail("unbound native methods not reported");
+
+        } catch (UnsatisfiedLinkError e) {
+
+            assertEquals("isolated copy not removed", 0, new File(OTHER_TMP_DIR).list().length);
+        }
+    }
+
+    @Test
+    public void testLoadNativeLibraries() throws Exception {
+
+        final String BAD_LIB_NAME = "this lib should not exist";
+
+        List<NativeLibraryLoadResult> results = loadNativeLibraries(OTHER_LIB_DIR, OTHER_TMP_DIR,
+                Arrays.asList(TEST_CLASS_ONE_NAME, BAD_LIB_NAME), 2);
+
+        assertEquals("incorrect number of results", 2, results.size());
+
+        NativeLibraryLoadResult result = results.get(0);
+
+        assertEquals("results out of order", TEST_CLASS_ONE_NAME, result.getLibName());
+        assertTrue("library not loaded: " + result, result.isLoaded());
+        assertEquals("library file incorrect", System.mapLibraryName(TEST_CLASS_ONE_NAME), result.getFile().getName());
+        assertEquals("incorrect string returned from native method", TEST_STRING_ONE, JniTestClassOne.nativeMethod());
+
+        result = results.get(1);
+
+        assertEquals("results out of order", BAD_LIB_NAME, result.getLibName());
+        assertFalse("bad library loaded", result.isLoaded());
+        assertTrue("incorrect failure", result.getFailure() instanceof IORuntimeException);
+    }
+
+    @Test
+    public void testNativeLibraryBundle() throws Exception {
+
+        final String BUNDLE_LIB_DIR = "bundle-lib/";
+        final String BUNDLE_TMP_DIR = OTHER_TMP_DIR + "bundle/";
+
+        URL lib = Thread.currentThread().getContextClassLoader().getResource(DEFAULT_NATIVE_LIBRARY_JAR_DIR);
+
+        assertEquals("bundled library not found", System.mapLibraryName(TEST_DEPENDENCY_NAME),
+                findNativeLibraryName(BUNDLE_LIB_DIR, TEST_DEPENDENCY_NAME));
+
+        // Every library in a bundle is extracted in a single pass and loaded in the order requested.
+        List<NativeLibraryLoadResult> results = loadNativeLibraries(BUNDLE_LIB_DIR, BUNDLE_TMP_DIR,
+                Arrays.asList(TEST_DEPENDENCY_NAME, TEST_CLASS_TWO_NAME), 2);
+
+        for (NativeLibraryLoadResult result : results) {
+
+            assertTrue("bundled library not loaded: " + result, result.isLoaded());
+            assertEquals("bundled library extracted to the wrong place", new File(BUNDLE_TMP_DIR, result.getFileName()), result.getFile());
+            assertTrue("bundled library extracted incorrectly",
+                    Arrays.equals(readBytes(new File(toFile(lib), result.getFileName())), readBytes(result.getFile())));
+        }
+
+        // A bundle that has been corrupted must never be extracted.
+        final String CORRUPT_LIB_DIR = "corrupt-lib/";
+
+        File classes = new File(OTHER_TMP_DIR, "classes");
+        File bundle = new File(classes, CORRUPT_LIB_DIR + NATIVE_LIBRARY_BUNDLE_NAME);
+
+        assertTrue("could not create bundle directory", bundle.getParentFile().mkdirs());
+
+        OutputStream out = new FileOutputStream(bundle);
+        NativeLibraryBundle.write(Arrays.asList(new File(toFile(lib), System.mapLibraryName(TEST_DEPENDENCY_NAME))), out);
+        out.close();
+
+        RandomAccessFile corrupt = new RandomAccessFile(bundle, "rw");
+        corrupt.seek(corrupt.length() - 1);
+        int last = corrupt.read();
+        corrupt.seek(corrupt.length() - 1);
+        corrupt.write(last ^ 0xFF);
+        corrupt.close();
+
+        ClassLoader oldClassLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[]{classes.toURI().toURL()}, oldClassLoader));
+
+        try {
+
+            extractNativeLibrary(CORRUPT_LIB_DIR, OTHER_TMP_DIR + "corrupt/", TEST_DEPENDENCY_NAME);
+
+            fail("corrupted bundle extracted");
+
+        } catch (IORuntimeException e) {
+
+        } finally {
+
+            Thread.currentThread().setContextClassLoader(oldClassLoader);
+        }
+    }
+
+    @Test
+    public void testNativeLibraryInstaller() throws Exception {
+
+        final String INSTALL_DIR = OTHER_TMP_DIR + "installed/";
+
+        File lib = toFile(Thread.currentThread().getContextClassLoader().getResource(DEFAULT_NATIVE_LIBRARY_JAR_DIR));
+
+        byte[] dependencyBytes = readBytes(new File(lib, System.mapLibraryName(TEST_DEPENDENCY_NAME)));
+        byte[] classTwoBytes = readBytes(new File(lib, System.mapLibraryName(TEST_CLASS_TWO_NAME)));
+
+        // Package one plain and one compressed native library into a JAR of their own.
+        File jar = new File(OTHER_TMP_DIR, "natives.jar");
+
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+
+        out.putNextEntry(new JarEntry(DEFAULT_NATIVE_LIBRARY_JAR_DIR + System.mapLibraryName(TEST_DEPENDENCY_NAME)));
+        out.write(dependencyBytes);
+        out.putNextEntry(new JarEntry(DEFAULT_NATIVE_LIBRARY_JAR_DIR + System.mapLibraryName(TEST_CLASS_TWO_NAME) + ".gz"));
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(classTwoBytes);
+        gzip.finish();
+        out.close();
+
+        NativeLibraryManifest index = NativeLibraryInstaller.install(jar, DEFAULT_NATIVE_LIBRARY_JAR_DIR, new File(INSTALL_DIR));
+
+        assertEquals("incorrect number of installed libraries", 2, index.getEntries().size());
+        assertTrue("index not written", new File(INSTALL_DIR, NATIVE_LIBRARY_INSTALLED_NAME).isFile());
+        assertTrue("installed libraries invalid", NativeLibraryInstaller.verify(new File(INSTALL_DIR)).isEmpty());
+
+        File installed = new File(INSTALL_DIR, System.mapLibraryName(TEST_DEPENDENCY_NAME));
+
+        assertTrue("library installed incorrectly", Arrays.equals(dependencyBytes, readBytes(installed)));
+        assertTrue("compressed library installed incorrectly",
+                Arrays.equals(classTwoBytes, readBytes(new File(INSTALL_DIR, System.mapLibraryName(TEST_CLASS_TWO_NAME)))));
+
+        // An installed library is loaded straight from the directory, so it doesn't matter that the JAR directory doesn't exist.
+        loadNativeLibrary("this dir should not exist/", INSTALL_DIR, TEST_DEPENDENCY_NAME);
+
+        assertTrue("installed library not loaded", getLoadedNativeLibraries().contains(installed.getAbsoluteFile()));
+        assertEquals("installed directory not used", INSTALL_DIR, withFSDir(INSTALL_DIR));
+
+        // Where the memory file system is usable a directory without an installation goes there, so the installed one won over it above.
+        String notInstalled = OTHER_TMP_DIR + "not-installed/";
+        String extractionDir = withFSDir(notInstalled);
+        if (!notInstalled.equals(extractionDir)) {
+            String memoryDir = System.getProperty(NATIVE_LIBRARY_MEMORY_FS_DIR_PROPERTY, DEFAULT_NATIVE_LIBRARY_MEMORY_FS_DIR);
+            assertEquals("memory file system not used", memoryDir, extractionDir);
+        }
+
+        // An installed library that has been changed since is no longer trusted.
+        RandomAccessFile changed = new RandomAccessFile(new File(INSTALL_DIR, System.mapLibraryName(TEST_CLASS_TWO_NAME)), "rw");
+        changed.setLength(changed.length() - 1);
+        changed.close();
+
+        assertEquals("changed library not reported", 1, NativeLibraryInstaller.verify(new File(INSTALL_DIR)).size());
+        assertNull("changed library trusted", NativeLibraryInstaller.installedFile(INSTALL_DIR, TEST_CLASS_TWO_NAME));
+
+        // The old index goes before anything is written, so even a reinstall that fails never leaves it describing half written files.
+        try {
+
+            NativeLibraryInstaller.install(new File(OTHER_TMP_DIR, "missing.jar"), DEFAULT_NATIVE_LIBRARY_JAR_DIR, new File(INSTALL_DIR));
+
+            fail("missing JAR installed");
+
+        } catch (IOException e) {
+        }
+
+        assertFalse("old index left behind", new File(INSTALL_DIR, NATIVE_LIBRARY_INSTALLED_NAME).exists());
+        assertNull("library trusted without an index", NativeLibraryInstaller.installedFile(INSTALL_DIR, TEST_DEPENDENCY_NAME));
+    }
+
+    /**
+     * Returns the extraction directory in memory mode while the file system directory property is set to the provided directory.
+     */
+    private static String withFSDir(String fsDir) {
+
+        final String OLD_VALUE = System.getProperty(NATIVE_LIBRARY_FS_DIR_PROPERTY);
+        final String OLD_MODE_VALUE = System.getProperty(NATIVE_LIBRARY_FS_MODE_PROPERTY);
+
+        System.setProperty(NATIVE_LIBRARY_FS_DIR_PROPERTY, fsDir);
+        System.setProperty(NATIVE_LIBRARY_FS_MODE_PROPERTY, NATIVE_LIBRARY_FS_MODE_MEMORY);
+
+        try {
+
+            return getNativeLibraryExtractionDir();
+
+        } finally {
+
+            if (OLD_VALUE == null) System.clearProperty(NATIVE_LIBRARY_FS_DIR_PROPERTY);
+            else System.setProperty(NATIVE_LIBRARY_FS_DIR_PROPERTY, OLD_VALUE);
+
+            if (OLD_MODE_VALUE == null) System.clearProperty(NATIVE_LIBRARY_FS_MODE_PROPERTY);
+            else System.setProperty(NATIVE_LIBRARY_FS_MODE_PROPERTY, OLD_MODE_VALUE);
+        }
+    }
+
+    @Test
+    public void testLoadNativeLibraryWithDependencies() throws Exception {
+
+        List<File> loaded = loadNativeLibraryWithDependencies(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_THREE_NAME);
+
+        assertEquals("incorrect number of libraries loaded", 2, loaded.size());
+        assertEquals("dependency not loaded first", System.mapLibraryName(TEST_DEPENDENCY_NAME), loaded.get(0).getName());
+        assertEquals("library not loaded last", System.mapLibraryName(TEST_CLASS_THREE_NAME), loaded.get(1).getName());
+
+        assertEquals("incorrect string returned from native method", TEST_STRING_THREE, JniTestClassThree.nativeMethod());
+
+        // A native library whose dependencies can't be read must still be reported to the listeners.
+        final String BROKEN_LIB_DIR = "broken-lib/";
+        final String BROKEN_LIB_NAME = "broken";
+
+        File classes = new File(OTHER_TMP_DIR, "classes");
+        File broken = new File(classes, BROKEN_LIB_DIR + System.mapLibraryName(BROKEN_LIB_NAME));
+
+        assertTrue("could not create library directory", broken.getParentFile().mkdirs());
+
+        // The ELF identification bytes followed by far less than a whole ELF header.
+        OutputStream out = new FileOutputStream(broken);
+        out.write(new byte[]{0x7f, 'E', 'L', 'F', 2, 1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 3, 0});
+        out.close();
+
+        final List<NativeLibraryLoadResult> failed = new ArrayList<NativeLibraryLoadResult>();
+
+        NativeLibraryListener listener = new NativeLibraryListener() {
+
+            public void nativeLibraryLoaded(NativeLibraryLoadResult result) {
+            }
+
+            public void nativeLibraryFailed(NativeLibraryLoadResult result) {
+                failed.add(result);
+            }
+        };
+
+        ClassLoader oldClassLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(new URLClassLoader(new URL[]{classes.toURI().toURL()}, oldClassLoader));
+
+        addNativeLibraryListener(listener);
+
+        try {
+
+            loadNativeLibraryWithDependencies(BROKEN_LIB_DIR, OTHER_TMP_DIR, BROKEN_LIB_NAME);
+
+            fail("broken library loaded");
+
+        } catch (IORuntimeException e) {
+
+            assertEquals("incorrect number of failed results", 1, failed.size());
+            assertEquals("incorrect failure", e, failed.get(0).getFailure());
+
+        } finally {
+
+            removeNativeLibraryListener(listener);
+
+            Thread.currentThread().setContextClassLoader(oldClassLoader);
+        }
+    }
+
+    @Test
+    public void testElfFileReadNeeded() throws Exception {
+
+        File file = extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_DEPENDENCY_NAME);
+
+        ElfFile elf = ElfFile.read(file);
+
+        assertNotNull("library not read as an ELF file", elf);
+        assertEquals("shared object name incorrect", System.mapLibraryName(TEST_DEPENDENCY_NAME), elf.getSoname());
+
+        file = extractNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, OTHER_TMP_DIR, TEST_CLASS_THREE_NAME);
+
+        assertTrue("dependency not needed", ElfFile.readNeeded(file).contains(System.mapLibraryName(TEST_DEPENDENCY_NAME)));
+
+        // The dependencies are found through the program headers, the same as the dynamic loader, so stripping the section headers changes
+        // nothing.
+        byte[] bytes = readBytes(file);
+        boolean is64 = bytes[4] == 2;
+        ByteBuffer header = ByteBuffer.wrap(bytes).order(bytes[5] == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+        if (is64) header.putLong(0x28, 0);
+        else header.putInt(0x20, 0);
+
+        File stripped = new File(OTHER_TMP_DIR, "stripped-" + file.getName());
+        OutputStream out = new FileOutputStream(stripped);
+        out.write(bytes);
+        out.close();
+
+        assertEquals("stripped dependencies incorrect", ElfFile.readNeeded(file), ElfFile.readNeeded(stripped));
+
+        // A header that points outside of the file is a broken file rather than a huge read.
+        bytes = readBytes(file);
+        header = ByteBuffer.wrap(bytes).order(header.order());
+
+        header.putShort(is64 ? 0x36 : 0x2A, (short) 0xFFFF);
+        header.putShort(is64 ? 0x38 : 0x2C, (short) 0xFFFF);
+
+        File broken = new File(OTHER_TMP_DIR, "broken-" + file.getName());
+        out = new FileOutputStream(broken);
+        out.write(bytes);
+        out.close();
+
+        try {
+
+            ElfFile.read(broken, true);
+
+            fail("broken file read");
+
+        } catch (IOException e) {
+        }
+
+        // Anything that isn't an ELF file has no dependencies.
+        File textFile = new File(OTHER_TMP_DIR, TEST_COPY_FILE_NAME);
+        out = new FileOutputStream(textFile);
+        out.write("not a library".getBytes());
+        out.close();
+
+        assertNull("text file read as an ELF file", ElfFile.read(textFile));
+        assertTrue("text file has dependencies", ElfFile.readNeeded(textFile).isEmpty());
+    }
 }
@@ -0,0 +1,194 @@
+package org.karlbennett.jni;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.karlbennett.jni.test.JniTestBatch;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+import static org.karlbennett.jni.JniUtils.*;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ */
+public class NativeBatchTest {
+
+    private static final String TEST_BATCH_NAME = JniTestBatch.class.getSimpleName();
+
+    private static final int CAPACITY = 64;
+
+    private static final NativeBatch.Processor PROCESSOR = new NativeBatch.Processor() {
+
+        public int process(ByteBuffer requests, ByteBuffer results, int count) {
+
+            return JniTestBatch.process(requests, results, count);
+        }
+    };
+
+
+    @BeforeClass
+    public static void setUpClass() {
+
+        loadNativeLibrary(DEFAULT_NATIVE_LIBRARY_JAR_DIR, getNativeLibraryFSDir(), TEST_BATCH_NAME);
+    }
+
+
+    @Test
+    public void testFlushMatchesSingleCalls() {
+
+        NativeBatch batch = new NativeBatch(CAPACITY);
+
+        for (int i = 0; i < CAPACITY; i++) {
+
+            assertTrue("request not added", batch.add(i % 2 == 0 ? JniTestBatch.ADD : JniTestBatch.MULTIPLY, i, Integer.MAX_VALUE + (long) i));
+        }
+
+        assertFalse("request added to a full batch", batch.add(JniTestBatch.ADD, 1, 1));
+        assertEquals("incorrect batch size", CAPACITY, batch.size());
+
+        assertEquals("incorrect number of requests processed", CAPACITY, batch.flush(PROCESSOR));
+        assertEquals("batch not emptied", 0, batch.size());
+
+        // Every batched result should be exactly what the one string per call style returns.
+        for (int i = 0; i < CAPACITY; i++) {
+
+            String single = JniTestBatch.nativeMethod(i % 2 == 0 ? JniTestBatch.ADD : JniTestBatch.MULTIPLY, i, Integer.MAX_VALUE + (long) i);
+
+            assertEquals("incorrect result for request " + i, Long.parseLong(single), batch.getResult(i));
+        }
+
+        // The batch can be reused and the results are only those of the latest flush.
+        batch.add(JniTestBatch.MULTIPLY, 3, 5);
+
+        assertEquals("incorrect number of requests processed", 1, batch.flush(PROCESSOR));
+        assertEquals("incorrect result", 15, batch.getResult(0));
+
+        try {
+
+            batch.getResult(1);
+
+            fail("result returned for a request that wasn't in the latest batch");
+
+        } catch (IndexOutOfBoundsException e) {
+        }
+
+        assertEquals("empty batch processed", 0, batch.flush(PROCESSOR));
+    }
+
+    @Test
+    public void testFlushKeepsRequestsWhenProcessorFails() {
+
+        NativeBatch batch = new NativeBatch(CAPACITY);
+
+        batch.add(JniTestBatch.ADD, 1, 2);
+        batch.add(JniTestBatch.MULTIPLY, 3, 5);
+
+        try {
+
+            batch.flush(new NativeBatch.Processor() {
+
+                public int process(ByteBuffer requests, ByteBuffer results, int count) {
+
+                    throw new IllegalStateException("processor failed");
+                }
+            });
+
+            fail("processor failure swallowed");
+
+        } catch (IllegalStateException e) {
+
+            assertEquals("incorrect failure", "processor failed", e.getMessage());
+        }
+
+        assertEquals("requests dropped by a failed flush", 2, batch.size());
+
+        try {
+
+            batch.flush(new NativeBatch.Processor() {
+
+                public int process(ByteBuffer requests, ByteBuffer results, int count) {
+
+                    return count + 1;
+                }
+            });
+
+            fail("more requests processed than there were");
+
+        } catch (IllegalStateException e) {
+        }
+
+        assertEquals("requests dropped by a failed flush", 2, batch.size());
+
+        // The kept requests run as normal once the batch is flushed again.
+        assertEquals("incorrect number of requests processed", 2, batch.flush(PROCESSOR));
+        assertEquals("batch not emptied", 0, batch.size());
+        assertEquals("incorrect result", 3, batch.getResult(0));
+        assertEquals("incorrect result", 15, batch.getResult(1));
+    }
+
+    @Test
+    public void testFlushKeepsRequestsThatWereNotRun() {
+
+        NativeBatch batch = new NativeBatch(CAPACITY);
+
+        batch.add(JniTestBatch.ADD, 1, 2);
+        batch.add(JniTestBatch.MULTIPLY, 3, 5);
+        batch.add(JniTestBatch.ADD, 4, 6);
+
+        // Only the first request is run, as a processor that stops on a full results buffer would.
+        assertEquals("incorrect number of requests processed", 1, batch.flush(new NativeBatch.Processor() {
+
+            public int process(ByteBuffer requests, ByteBuffer results, int count) {
+
+                return PROCESSOR.process(requests, results, 1);
+            }
+        }));
+
+        assertEquals("unprocessed requests dropped", 2, batch.size());
+        assertEquals("incorrect result", 3, batch.getResult(0));
+
+        // New requests go after the ones that are still waiting.
+        batch.add(JniTestBatch.MULTIPLY, 7, 2);
+
+        assertEquals("incorrect number of requests processed", 3, batch.flush(PROCESSOR));
+        assertEquals("batch not emptied", 0, batch.size());
+        assertEquals("incorrect result", 15, batch.getResult(0));
+        assertEquals("incorrect result", 10, batch.getResult(1));
+        assertEquals("incorrect result", 14, batch.getResult(2));
+    }
+
+    @Test
+    public void testNativeBatchChecksBuffers() {
+
+        try {
+
+            JniTestBatch.process(ByteBuffer.allocate(NativeBatch.REQUEST_SIZE), ByteBuffer.allocate(NativeBatch.RESULT_SIZE), 1);
+
+            fail("heap buffers were accepted");
+
+        } catch (IllegalArgumentException e) {
+        }
+
+        NativeBatch batch = new NativeBatch(1);
+
+        try {
+
+            JniTestBatch.process(batch.getRequests(), batch.getResults(), 2);
+
+            fail("count larger than the buffers was accepted");
+
+        } catch (IllegalArgumentException e) {
+        }
+
+        try {
+
+            new NativeBatch(0);
+
+            fail("empty batch was created");
+
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.karlbennett.jni.test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * Runs the same operations either one at a time, returning a new string from each call in the same way as {@link JniTestClassOne}, or
+ * many at a time through a {@link org.karlbennett.jni.NativeBatch}.
+ */
+public class JniTestBatch {
+
+    public static final int ADD = 1;
+
+    public static final int MULTIPLY = 2;
+
+    private JniTestBatch() {
+    }
+
+    public static native String nativeMethod(int op, int arg, long value);
+
+    public static native int process(ByteBuffer requests, ByteBuffer results, int count);
+}
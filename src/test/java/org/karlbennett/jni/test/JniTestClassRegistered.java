@@ -0,0 +1,20 @@
+package org.karlbennett.jni.test;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * The native library for this class doesn't export any of its native methods, they are all registered from <code>JNI_OnLoad</code> with a
+ * table generated by {@link org.karlbennett.jni.NativeMethodTable}.
+ */
+public class JniTestClassRegistered {
+
+    private JniTestClassRegistered() {
+    }
+
+    public static native String nativeMethod();
+
+    public static native int add(int left, int right);
+
+    public static native long add(long left, long right);
+}
@@ -0,0 +1,15 @@
+package org.karlbennett.jni.test;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * The native library for this class depends on another native library that is shipped alongside it.
+ */
+public class JniTestClassThree {
+
+    private JniTestClassThree() {
+    }
+
+    public static native String nativeMethod();
+}
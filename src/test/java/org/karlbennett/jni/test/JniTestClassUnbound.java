@@ -0,0 +1,15 @@
+package org.karlbennett.jni.test;
+
+/**
+ * User: karl
+ * Date: 18/10/26
+ * <p/>
+ * There is no native library that implements the native method of this class.
+ */
+public class JniTestClassUnbound {
+
+    private JniTestClassUnbound() {
+    }
+
+    public static native String nativeMethod();
+}
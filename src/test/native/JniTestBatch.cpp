@@ -0,0 +1,51 @@
+#ifndef __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTBATCH_CPP__
+#define __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTBATCH_CPP__
+
+#include <stdio.h>
+
+#include <jni_batch.h>
+#include <org_karlbennett_jni_test_JniTestBatch.h>
+
+/*
+ * Run a single operation, unknown operations return 0.
+ */
+static jlong run(const jni_batch_request *request) {
+
+    switch (request->op) {
+
+        case org_karlbennett_jni_test_JniTestBatch_ADD: return request->value + request->arg;
+
+        case org_karlbennett_jni_test_JniTestBatch_MULTIPLY: return request->value * request->arg;
+
+        default: return 0;
+    }
+}
+
+/*
+ * Class:     org_karlbennett_jni_test_JniTestBatch
+ * Method:    nativeMethod
+ * Signature: (IIJ)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_org_karlbennett_jni_test_JniTestBatch_nativeMethod (JNIEnv *env, jclass jniTestBatch, jint op, jint arg,
+        jlong value) {
+
+    jni_batch_request request = {op, arg, value};
+
+    char result[32];
+    snprintf(result, sizeof(result), "%lld", (long long) run(&request));
+
+    return env->NewStringUTF(result);
+}
+
+/*
+ * Class:     org_karlbennett_jni_test_JniTestBatch
+ * Method:    process
+ * Signature: (Ljava/nio/ByteBuffer;Ljava/nio/ByteBuffer;I)I
+ */
+JNIEXPORT jint JNICALL Java_org_karlbennett_jni_test_JniTestBatch_process (JNIEnv *env, jclass jniTestBatch, jobject requests,
+        jobject results, jint count) {
+
+    return jni_batch_run(env, requests, results, count, run);
+}
+
+#endif /* __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTBATCH_CPP__ */
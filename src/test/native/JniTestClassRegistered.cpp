@@ -0,0 +1,26 @@
+#ifndef __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTCLASSREGISTERED_CPP__
+#define __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTCLASSREGISTERED_CPP__
+
+#include <org_karlbennett_jni_test_JniTestClassRegistered_natives.h>
+
+/*
+ * None of these functions are exported, the generated JNI_OnLoad registers them instead.
+ */
+
+jstring JNICALL Java_org_karlbennett_jni_test_JniTestClassRegistered_nativeMethod (JNIEnv *env, jclass jniTestClassRegistered) {
+
+    return env->NewStringUTF("Test string from native JniTestClassRegistered.");
+}
+
+jint JNICALL Java_org_karlbennett_jni_test_JniTestClassRegistered_add__II (JNIEnv *env, jclass jniTestClassRegistered, jint left, jint right) {
+
+    return left + right;
+}
+
+jlong JNICALL Java_org_karlbennett_jni_test_JniTestClassRegistered_add__JJ (JNIEnv *env, jclass jniTestClassRegistered, jlong left,
+        jlong right) {
+
+    return left + right;
+}
+
+#endif /* __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTCLASSREGISTERED_CPP__ */
@@ -0,0 +1,17 @@
+#ifndef __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTCLASSTHREE_CPP__
+#define __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTCLASSTHREE_CPP__
+
+#include <org_karlbennett_jni_test_JniTestClassThree.h>
+#include "JniTestDependency.h"
+
+/*
+ * Class:     org_karlbennett_jni_test_JniTestClassThree
+ * Method:    nativeMethod
+ * Signature: ()Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_org_karlbennett_jni_test_JniTestClassThree_nativeMethod (JNIEnv *env, jclass jniTestClassThree) {
+
+    return env->NewStringUTF(jniTestDependencyMessage());
+}
+
+#endif /* __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTCLASSTHREE_CPP__ */
@@ -0,0 +1,14 @@
+#ifndef __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTDEPENDENCY_CPP__
+#define __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTDEPENDENCY_CPP__
+
+#include "JniTestDependency.h"
+
+/*
+ * A plain native function with no JNI in it at all, it only exists so that JniTestClassThree has another shipped native library to depend on.
+ */
+const char *jniTestDependencyMessage() {
+
+    return "Test string from native JniTestDependency.";
+}
+
+#endif /* __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTDEPENDENCY_CPP__ */
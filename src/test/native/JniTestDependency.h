@@ -0,0 +1,9 @@
+#ifndef __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTDEPENDENCY_H__
+#define __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTDEPENDENCY_H__
+
+/*
+ * Returns the message that JniTestClassThree passes back to Java.
+ */
+const char *jniTestDependencyMessage();
+
+#endif /* __INCLUDED_ORG_KARLBENNETT_JNI_TEST_JNITESTDEPENDENCY_H__ */